@@ -0,0 +1,144 @@
+package echo;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+ * Calls per second for the four call types of the Echo service (EchoImpl,
+ * without logging) with a message of <payload> characters, streams of
+ * STREAM messages, one call at a time:
+ *   inprocess  InProcessServerBuilder with direct executors: the message
+ *              objects are handed over, nothing is serialized or copied,
+ *              so this is the cost of the grpc call machinery alone
+ *   netty      a Netty server on a loopback port with the default
+ *              executors: serialization, HTTP/2 framing, the socket and
+ *              the thread hand-offs on top of that
+ * MarshalBenchmark has the protobuf part on its own. The gc profiler (see
+ * build.gradle) adds the allocation rate.
+ *
+ * gradle jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EchoBenchmark {
+  private static final int STREAM = 8; // messages per streaming call
+  private static final int MAX_MESSAGE = 16 << 20; // parrotAll answers STREAM messages at once
+
+  @Param({ "inprocess", "netty" })
+  public String transport;
+
+  @Param({ "16", "1024", "65536", "1048576" })
+  public int payload;
+
+  private Server server;
+  private ManagedChannel channel;
+  private EchoGrpc.EchoBlockingStub blockingStub;
+  private EchoGrpc.EchoStub asyncStub;
+  private ClientRequest request;
+
+  @Setup
+  public void setup() throws IOException {
+    ServerServiceDefinition service = new EchoImpl(false).definition();
+    if (transport.equals("inprocess")) {
+      String name = InProcessServerBuilder.generateName();
+      server = InProcessServerBuilder.forName(name).directExecutor().addService(service).build().start();
+      channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+    } else {
+      server = NettyServerBuilder.forPort(0).maxInboundMessageSize(MAX_MESSAGE).addService(service).build().start();
+      channel = NettyChannelBuilder.forAddress("localhost", server.getPort())
+          .usePlaintext()
+          .maxInboundMessageSize(MAX_MESSAGE)
+          .build();
+    }
+    blockingStub = EchoGrpc.newBlockingStub(channel);
+    asyncStub = EchoGrpc.newStub(channel);
+    char[] message = new char[payload];
+    Arrays.fill(message, 'x');
+    request = ClientRequest.newBuilder().setMessage(new String(message)).setTimes(STREAM).build();
+  }
+
+  @TearDown
+  public void tearDown() throws InterruptedException {
+    channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+  }
+
+  // the last response of a call, once it is complete
+  private static final class Last extends CompletableFuture<ServerResponse> implements StreamObserver<ServerResponse> {
+    private ServerResponse last;
+
+    @Override
+    public void onNext(ServerResponse response) {
+      last = response;
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      completeExceptionally(t);
+    }
+
+    @Override
+    public void onCompleted() {
+      complete(last);
+    }
+  }
+
+  private ServerResponse send(StreamObserver<ClientRequest> requests, Last responses)
+      throws InterruptedException, ExecutionException {
+    for (int i = 0; i < STREAM; i++) {
+      requests.onNext(request);
+    }
+    requests.onCompleted();
+    return responses.get();
+  }
+
+  @Benchmark
+  public ServerResponse unary() {
+    return blockingStub.parrot(request);
+  }
+
+  @Benchmark
+  public ServerResponse clientStreaming() throws InterruptedException, ExecutionException {
+    Last responses = new Last();
+    return send(asyncStub.parrotAll(responses), responses);
+  }
+
+  @Benchmark
+  public ServerResponse serverStreaming() {
+    Iterator<ServerResponse> responses = blockingStub.parrotRepeat(request);
+    ServerResponse last = null;
+    while (responses.hasNext()) {
+      last = responses.next();
+    }
+    return last;
+  }
+
+  @Benchmark
+  public ServerResponse bidiStreaming() throws InterruptedException, ExecutionException {
+    Last responses = new Last();
+    return send(asyncStub.parrotStream(responses), responses);
+  }
+}
@@ -0,0 +1,58 @@
+package echo;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * The protobuf work of one unary parrot call without grpc, for the same
+ * payloads as EchoBenchmark: writing the request, reading it, and the
+ * whole round trip (request written and read, response built, written and
+ * read). EchoBenchmark over Netty minus this is the transport.
+ *
+ * gradle jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MarshalBenchmark {
+  @Param({ "16", "1024", "65536", "1048576" })
+  public int payload;
+
+  private ClientRequest request;
+  private byte[] requestBytes;
+
+  @Setup
+  public void setup() {
+    char[] message = new char[payload];
+    Arrays.fill(message, 'x');
+    request = ClientRequest.newBuilder().setMessage(new String(message)).build();
+    requestBytes = request.toByteArray();
+  }
+
+  @Benchmark
+  public byte[] serialize() {
+    return request.toByteArray();
+  }
+
+  @Benchmark
+  public ClientRequest parse() throws InvalidProtocolBufferException {
+    return ClientRequest.parseFrom(requestBytes);
+  }
+
+  @Benchmark
+  public ServerResponse roundTrip() throws InvalidProtocolBufferException {
+    ClientRequest received = ClientRequest.parseFrom(request.toByteArray());
+    ServerResponse response = ServerResponse.newBuilder().setMessage(received.getMessage()).build();
+    return ServerResponse.parseFrom(response.toByteArray());
+  }
+}
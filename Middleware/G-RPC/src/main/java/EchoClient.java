@@ -1,16 +1,30 @@
 import io.grpc.Channel;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.ByteString;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import echo.ServerResponse;
 import echo.ClientRequest;
 import echo.EchoGrpc;
+import echo.Payload;
 
 /**
- * Client that requests `parrot` method from the `EchoServer`.
+ * Client for the `EchoServer`: `parrot` blocking or as a future, and the
+ * streaming calls asynchronously. Any number of calls can be in flight on
+ * the one channel at a time (see EchoLoadTest).
  */
 public class EchoClient {
   private final EchoGrpc.EchoBlockingStub blockingStub;
+  private final EchoGrpc.EchoFutureStub futureStub;
+  private final EchoGrpc.EchoStub asyncStub;
 
   /** Construct client for accessing server using the existing channel. */
   public EchoClient(Channel channel) {
@@ -19,6 +33,8 @@ public class EchoClient {
 
         // Passing Channels to code makes code easier to test and makes it easier to reuse Channels.
     blockingStub = EchoGrpc.newBlockingStub(channel);
+    futureStub = EchoGrpc.newFutureStub(channel);
+    asyncStub = EchoGrpc.newStub(channel);
   }
 
   public void askServerToParrot(String message) {
@@ -33,6 +49,105 @@ public class EchoClient {
     System.out.println("Received from server: " + response.getMessage());
   }
 
+  /** parrot without waiting for the answer. */
+  public ListenableFuture<ServerResponse> parrot(String message) {
+    return futureStub.parrot(ClientRequest.newBuilder().setMessage(message).build());
+  }
+
+  /** parrotBytes, blocking. */
+  public ByteString parrotBytes(ByteString data) {
+    return blockingStub.parrotBytes(Payload.newBuilder().setData(data).build()).getData();
+  }
+
+  /** Sends the messages as one stream, the single response goes to responses. */
+  public void parrotAll(Iterator<String> messages, StreamObserver<ServerResponse> responses) {
+    asyncStub.parrotAll(new Sender(messages, responses));
+  }
+
+  /** Asks for the message back times times, the responses go to responses. */
+  public void parrotRepeat(String message, int times, StreamObserver<ServerResponse> responses) {
+    asyncStub.parrotRepeat(ClientRequest.newBuilder().setMessage(message).setTimes(times).build(), responses);
+  }
+
+  /** Sends the messages as one stream, every message comes back to responses. */
+  public void parrotStream(Iterator<String> messages, StreamObserver<ServerResponse> responses) {
+    asyncStub.parrotStream(new Sender(messages, responses));
+  }
+
+  /**
+   * Sends the requests of a client stream only while the call is ready and
+   * continues from its onReadyHandler, so messages are not buffered without
+   * bound when the server or the network is slower than the client.
+   */
+  private static final class Sender implements ClientResponseObserver<ClientRequest, ServerResponse> {
+    private final Iterator<String> messages;
+    private final StreamObserver<ServerResponse> responses;
+    private ClientCallStreamObserver<ClientRequest> requests;
+    private boolean closed;
+
+    Sender(Iterator<String> messages, StreamObserver<ServerResponse> responses) {
+      this.messages = messages;
+      this.responses = responses;
+    }
+
+    @Override
+    public void beforeStart(ClientCallStreamObserver<ClientRequest> requests) {
+      this.requests = requests;
+      requests.setOnReadyHandler(this::send);
+    }
+
+    private void send() {
+      while (!closed && messages.hasNext() && requests.isReady()) {
+        requests.onNext(ClientRequest.newBuilder().setMessage(messages.next()).build());
+      }
+      if (!closed && !messages.hasNext()) {
+        closed = true;
+        requests.onCompleted();
+      }
+    }
+
+    @Override
+    public void onNext(ServerResponse response) {
+      responses.onNext(response);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      closed = true;
+      responses.onError(t);
+    }
+
+    @Override
+    public void onCompleted() {
+      responses.onCompleted();
+    }
+  }
+
+  // prints the responses of a streaming call and waits for its end
+  private static final class Printer implements StreamObserver<ServerResponse> {
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    @Override
+    public void onNext(ServerResponse response) {
+      System.out.println("Received from server: " + response.getMessage() + " (" + response.getCount() + ")");
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      System.err.println("RPC failed: " + t.getMessage());
+      done.countDown();
+    }
+
+    @Override
+    public void onCompleted() {
+      done.countDown();
+    }
+
+    void await() throws InterruptedException {
+      done.await();
+    }
+  }
+
   public static void main(String[] args) throws Exception {
     if (args.length != 3) {
       System.out.println("Expected arguments: <host(String)> <port(int)> <message(String)>");
@@ -61,6 +176,20 @@ public class EchoClient {
     try {
       EchoClient client = new EchoClient(channel);
       client.askServerToParrot(message);
+
+      // the words of the message as a stream, one answer with all of them
+      List<String> words = Arrays.asList(message.split(" "));
+      Printer all = new Printer();
+      client.parrotAll(words.iterator(), all);
+      all.await();
+      // the message three times
+      Printer repeat = new Printer();
+      client.parrotRepeat(message, 3, repeat);
+      repeat.await();
+      // every word back on its own
+      Printer stream = new Printer();
+      client.parrotStream(words.iterator(), stream);
+      stream.await();
     } finally {
       // ManagedChannels use resources like threads and TCP connections. To prevent leaking these
       // resources the channel should be shut down when it will no longer be used. If it may be used
@@ -0,0 +1,305 @@
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Deadline;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Interceptors for the Echo service.
+ *
+ * Server (installed by `EchoServer`, see its Settings):
+ *   Metrics       per method: calls in flight, a latency histogram and the
+ *                 status codes the calls ended with
+ *   LoadShedding  at most maxConcurrent calls at a time, the others end at
+ *                 once with RESOURCE_EXHAUSTED and a retry pushback, so the
+ *                 latency of the accepted ones stays bounded under overload
+ *   Deadlines     calls that arrive with an expired deadline are not started,
+ *                 calls without one (or a longer one) get the server maximum;
+ *                 the deadline is in the call's Context, so calls the service
+ *                 makes from it inherit it
+ *
+ * Client (used by `EchoLoadTest`):
+ *   DefaultDeadline  a deadline for calls that have none, so every call
+ *                    tells the server how long it may take
+ *   serviceConfig    retry or hedging policies for the channel; grpc does
+ *                    the retries itself below the interceptors, with retry
+ *                    throttling so retries do not add to an overload
+ */
+public class EchoInterceptors {
+  private static final String SERVICE = "echomessage.Echo";
+
+  /** Runs onEnd once, when the server closes the call or it gets cancelled. */
+  private static <ReqT, RespT> ServerCall.Listener<ReqT> onEnd(ServerCall<ReqT, RespT> call, Metadata headers,
+      ServerCallHandler<ReqT, RespT> next, Consumer<Status> onEnd) {
+    AtomicBoolean ended = new AtomicBoolean();
+    ServerCall<ReqT, RespT> watched = new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(call) {
+      @Override
+      public void close(Status status, Metadata trailers) {
+        super.close(status, trailers);
+        if (ended.compareAndSet(false, true)) {
+          onEnd.accept(status);
+        }
+      }
+    };
+    return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(next.startCall(watched, headers)) {
+      @Override
+      public void onCancel() {
+        if (ended.compareAndSet(false, true)) {
+          onEnd.accept(Status.CANCELLED);
+        }
+        super.onCancel();
+      }
+    };
+  }
+
+  /** Calls in flight, latency and status codes per method. */
+  static final class Metrics implements ServerInterceptor {
+    private static final int BUCKETS = 32; // bucket i counts latencies below 2^i microseconds
+
+    private static final class Method {
+      final AtomicInteger inFlight = new AtomicInteger();
+      final AtomicLongArray latency = new AtomicLongArray(BUCKETS);
+      final Map<Status.Code, LongAdder> codes = new ConcurrentHashMap<>();
+    }
+
+    private final Map<String, Method> methods = new ConcurrentHashMap<>();
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+        ServerCallHandler<ReqT, RespT> next) {
+      Method m = methods.computeIfAbsent(call.getMethodDescriptor().getBareMethodName(), k -> new Method());
+      m.inFlight.incrementAndGet();
+      long start = System.nanoTime();
+      return onEnd(call, headers, next, status -> {
+        m.inFlight.decrementAndGet();
+        long micros = (System.nanoTime() - start) / 1000;
+        m.latency.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+        m.codes.computeIfAbsent(status.getCode(), k -> new LongAdder()).increment();
+      });
+    }
+
+    // upper bound in microseconds of the bucket holding the given fraction of the calls
+    private static long percentile(long[] buckets, long calls, double fraction) {
+      long seen = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        seen += buckets[i];
+        if (seen >= Math.ceil(calls * fraction)) {
+          return 1L << i;
+        }
+      }
+      return 1L << (BUCKETS - 1);
+    }
+
+    /** One line per method: calls, in flight, latency percentiles (bucket bounds) and status codes. */
+    String report() {
+      StringBuilder sb = new StringBuilder();
+      methods.forEach((name, m) -> {
+        long[] buckets = new long[BUCKETS];
+        long calls = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+          buckets[i] = m.latency.get(i);
+          calls += buckets[i];
+        }
+        if (calls == 0) {
+          return;
+        }
+        sb.append(String.format("%-13s %9d calls %5d in flight  p50 <%7.1f ms p90 <%7.1f ms p99 <%7.1f ms  %s%n",
+            name, calls, m.inFlight.get(), percentile(buckets, calls, 0.5) / 1000.0,
+            percentile(buckets, calls, 0.9) / 1000.0, percentile(buckets, calls, 0.99) / 1000.0, m.codes));
+      });
+      return sb.toString();
+    }
+  }
+
+  /** Rejects calls beyond maxConcurrent with RESOURCE_EXHAUSTED instead of queueing them. */
+  static final class LoadShedding implements ServerInterceptor {
+    private static final Metadata.Key<String> PUSHBACK =
+        Metadata.Key.of("grpc-retry-pushback-ms", Metadata.ASCII_STRING_MARSHALLER);
+
+    private final int maxConcurrent;
+    private final long pushbackMillis;
+    private final AtomicInteger running = new AtomicInteger();
+
+    LoadShedding(int maxConcurrent, long pushbackMillis) {
+      this.maxConcurrent = maxConcurrent;
+      this.pushbackMillis = pushbackMillis;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+        ServerCallHandler<ReqT, RespT> next) {
+      if (running.incrementAndGet() > maxConcurrent) {
+        running.decrementAndGet();
+        Metadata trailers = new Metadata();
+        trailers.put(PUSHBACK, Long.toString(pushbackMillis)); // when a retrying client may try again
+        call.close(Status.RESOURCE_EXHAUSTED.withDescription("more than " + maxConcurrent + " calls in progress"),
+            trailers);
+        return new ServerCall.Listener<ReqT>() { };
+      }
+      return onEnd(call, headers, next, status -> running.decrementAndGet());
+    }
+  }
+
+  /** Refuses calls past their deadline and limits every call to maxMillis. */
+  static final class Deadlines implements ServerInterceptor {
+    private final long maxMillis;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "echo-deadlines");
+      t.setDaemon(true);
+      return t;
+    });
+
+    Deadlines(long maxMillis) {
+      this.maxMillis = maxMillis;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+        ServerCallHandler<ReqT, RespT> next) {
+      Deadline deadline = Context.current().getDeadline();
+      if (deadline != null && deadline.isExpired()) {
+        call.close(Status.DEADLINE_EXCEEDED.withDescription("deadline expired before the call started"),
+            new Metadata());
+        return new ServerCall.Listener<ReqT>() { };
+      }
+      Deadline max = Deadline.after(maxMillis, TimeUnit.MILLISECONDS);
+      if (deadline != null && deadline.isBefore(max)) {
+        return next.startCall(call, headers); // grpc ends the call at the client's deadline
+      }
+      // our own deadline ends the call like a client deadline would
+      Context.CancellableContext limited = Context.current().withDeadline(max, timer);
+      Closing<ReqT, RespT> closing = new Closing<>(call, limited);
+      limited.addListener(context -> closing.close(Status.DEADLINE_EXCEEDED.withDescription(
+          "server limit of " + maxMillis + " ms"), new Metadata()), MoreExecutors.directExecutor());
+      return Contexts.interceptCall(limited, closing, headers, next);
+    }
+
+    // a call that can be closed from the timer thread; whatever the service does after that is dropped
+    private static final class Closing<ReqT, RespT> extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+      private final Context.CancellableContext context;
+      private boolean closed;
+
+      Closing(ServerCall<ReqT, RespT> call, Context.CancellableContext context) {
+        super(call);
+        this.context = context;
+      }
+
+      @Override
+      public synchronized void sendMessage(RespT message) {
+        if (!closed) {
+          super.sendMessage(message);
+        }
+      }
+
+      @Override
+      public synchronized void request(int numMessages) {
+        if (!closed) {
+          super.request(numMessages);
+        }
+      }
+
+      @Override
+      public synchronized boolean isReady() {
+        return !closed && super.isReady();
+      }
+
+      @Override
+      public void close(Status status, Metadata trailers) {
+        synchronized (this) {
+          if (closed) {
+            return;
+          }
+          closed = true;
+          super.close(status, trailers);
+        }
+        context.cancel(null); // stops the timer
+      }
+    }
+  }
+
+  /** Gives calls without a deadline one of millis. */
+  static final class DefaultDeadline implements ClientInterceptor {
+    private final long millis;
+
+    DefaultDeadline(long millis) {
+      this.millis = millis;
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+        CallOptions callOptions, Channel next) {
+      if (callOptions.getDeadline() == null) {
+        callOptions = callOptions.withDeadlineAfter(millis, TimeUnit.MILLISECONDS);
+      }
+      return next.newCall(method, callOptions);
+    }
+  }
+
+  /**
+   * A service config for ManagedChannelBuilder.defaultServiceConfig() with
+   * the policy for all Echo methods: "retry" (up to 4 attempts with backoff
+   * when the server is unavailable or shedding load), "hedge" (up to 3
+   * attempts 20 ms apart, the first answer wins) or "none".
+   */
+  static Map<String, Object> serviceConfig(String policy) {
+    Map<String, Object> method = new LinkedHashMap<>();
+    method.put("name", list(map("service", SERVICE)));
+    List<Object> codes = list("UNAVAILABLE", "RESOURCE_EXHAUSTED");
+    if (policy.equals("retry")) {
+      Map<String, Object> retry = map("maxAttempts", 4.0);
+      retry.put("initialBackoff", "0.05s");
+      retry.put("maxBackoff", "1s");
+      retry.put("backoffMultiplier", 2.0);
+      retry.put("retryableStatusCodes", codes);
+      method.put("retryPolicy", retry);
+    } else if (policy.equals("hedge")) {
+      Map<String, Object> hedging = map("maxAttempts", 3.0);
+      hedging.put("hedgingDelay", "0.02s");
+      hedging.put("nonFatalStatusCodes", codes);
+      method.put("hedgingPolicy", hedging);
+    } else if (!policy.equals("none")) {
+      throw new IllegalArgumentException("Unknown policy: " + policy);
+    }
+    Map<String, Object> config = map("methodConfig", list(method));
+    // once more than half the tokens are gone, failing calls are not retried
+    Map<String, Object> throttling = map("maxTokens", 10.0);
+    throttling.put("tokenRatio", 0.1);
+    config.put("retryThrottling", throttling);
+    return config;
+  }
+
+  private static Map<String, Object> map(String key, Object value) {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put(key, value);
+    return map;
+  }
+
+  private static List<Object> list(Object... values) {
+    return new ArrayList<>(Arrays.asList(values));
+  }
+}
@@ -0,0 +1,180 @@
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import echo.ServerResponse;
+
+/**
+ * Load test for the four call types of a running `EchoServer`, all on one
+ * channel with up to `inFlight` calls at a time:
+ *   parrot        `calls` unary calls through the future stub
+ *   parrotAll     client streams of `messages` messages each
+ *   parrotRepeat  server streams of `messages` messages each
+ *   parrotStream  bidi streams of `messages` messages each
+ * The streaming types run calls / messages streams, so every type moves
+ * the same number of messages. Prints calls and messages per second that
+ * succeeded, the call latency and the calls that failed with a grpc status
+ * (shed by the server, past their deadline); every answer is checked.
+ *
+ * Optionally with a retry policy for the channel (retry, hedge or none, see
+ * EchoInterceptors.serviceConfig) and a deadline in ms for every call.
+ *
+ * gradle runLoadTest -Pcalls=100000 -PinFlight=1000 -Pmessages=100 -Ppolicy=retry -Pdeadline=1000
+ */
+public class EchoLoadTest {
+  private static final String MESSAGE = "Hello there Server";
+
+  /** One call of the type under test; reports its end (null, or what failed) to done. */
+  private interface Call {
+    void start(EchoClient client, Consumer<Throwable> done);
+  }
+
+  // checks the responses of one streaming call (their number and the count of the last one) and reports its end
+  private static final class Check implements StreamObserver<ServerResponse> {
+    private final int responses;
+    private final int count;
+    private final Consumer<Throwable> done;
+    private int received;
+    private int last;
+
+    Check(int responses, int count, Consumer<Throwable> done) {
+      this.responses = responses;
+      this.count = count;
+      this.done = done;
+    }
+
+    @Override
+    public void onNext(ServerResponse response) {
+      received++;
+      last = response.getCount();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      done.accept(t);
+    }
+
+    @Override
+    public void onCompleted() {
+      done.accept(received == responses && last == count ? null
+          : new IllegalStateException(received + " responses, the last with count " + last));
+    }
+  }
+
+  // runs calls calls, at most inFlight at a time, and prints the rates under name (nothing if it is null)
+  private static void run(EchoClient client, String name, int calls, int inFlight, int messages, Call call)
+      throws Exception {
+    Semaphore permits = new Semaphore(inFlight);
+    CountDownLatch all = new CountDownLatch(calls);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    Map<Status.Code, LongAdder> failed = new ConcurrentHashMap<>(); // by the server or the deadline
+    long[] latency = new long[calls];
+    long start = System.nanoTime();
+    for (int i = 0; i < calls && failure.get() == null; i++) {
+      permits.acquire();
+      int n = i;
+      long begin = System.nanoTime();
+      call.start(client, error -> {
+        latency[n] = System.nanoTime() - begin;
+        if (error instanceof StatusRuntimeException) {
+          failed.computeIfAbsent(Status.fromThrowable(error).getCode(), k -> new LongAdder()).increment();
+        } else if (error != null) {
+          failure.compareAndSet(null, error);
+        }
+        permits.release();
+        all.countDown();
+      });
+    }
+    if (failure.get() == null) {
+      all.await();
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    if (failure.get() != null) {
+      throw new IllegalStateException(name + " failed", failure.get());
+    }
+    if (name == null) {
+      return; // warming up
+    }
+    long ok = calls - failed.values().stream().mapToLong(LongAdder::sum).sum();
+    Arrays.sort(latency);
+    System.out.printf("%-13s %8d calls %10.0f calls/s %10.0f messages/s   latency p50 %8.2f ms p99 %8.2f ms%s%n",
+        name, calls, ok / seconds, (double) ok * messages / seconds, latency[calls / 2] / 1e6,
+        latency[(int) (calls * 0.99)] / 1e6, failed.isEmpty() ? "" : "   failed " + failed);
+  }
+
+  static void parrot(EchoClient client, String name, int calls, int inFlight) throws Exception {
+    run(client, name, calls, inFlight, 1, (c, done) ->
+        Futures.addCallback(c.parrot(MESSAGE), new FutureCallback<ServerResponse>() {
+          @Override
+          public void onSuccess(ServerResponse response) {
+            done.accept(MESSAGE.equals(response.getMessage()) ? null : new IllegalStateException(response.getMessage()));
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            done.accept(t);
+          }
+        }, MoreExecutors.directExecutor()));
+  }
+
+  static void parrotStream(EchoClient client, String name, int streams, int inFlight, int messages) throws Exception {
+    run(client, name, streams, inFlight, messages, (c, done) ->
+        c.parrotStream(Collections.nCopies(messages, MESSAGE).iterator(), new Check(messages, messages, done)));
+  }
+
+  // all four call types, printed only when report is set (not while warming up)
+  private static void runAll(EchoClient client, int calls, int inFlight, int messages, boolean report)
+      throws Exception {
+    parrot(client, report ? "parrot" : null, calls, inFlight);
+    int streams = Math.max(1, calls / messages);
+    run(client, report ? "parrotAll" : null, streams, inFlight, messages, (c, done) ->
+        c.parrotAll(Collections.nCopies(messages, MESSAGE).iterator(), new Check(1, messages, done)));
+    run(client, report ? "parrotRepeat" : null, streams, inFlight, messages, (c, done) ->
+        c.parrotRepeat(MESSAGE, messages, new Check(messages, messages, done)));
+    parrotStream(client, report ? "parrotStream" : null, streams, inFlight, messages);
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 5 || args.length > 7) {
+      System.out.println("Expected arguments: <host(String)> <port(int)> <calls(int)> <inFlight(int)> <messages(int)>"
+          + " [policy(retry|hedge|none)] [deadline(ms)]");
+      System.exit(1);
+    }
+    String target = args[0] + ":" + args[1];
+    int calls = Integer.parseInt(args[2]);
+    int inFlight = Integer.parseInt(args[3]);
+    int messages = Integer.parseInt(args[4]);
+    String policy = args.length > 5 ? args[5] : "none";
+    long deadline = args.length > 6 ? Long.parseLong(args[6]) : 0;
+
+    ManagedChannelBuilder<?> builder = ManagedChannelBuilder.forTarget(target)
+        .usePlaintext()
+        .defaultServiceConfig(EchoInterceptors.serviceConfig(policy))
+        .enableRetry();
+    if (deadline > 0) {
+      builder.intercept(new EchoInterceptors.DefaultDeadline(deadline));
+    }
+    ManagedChannel channel = builder.build();
+    try {
+      EchoClient client = new EchoClient(channel);
+      runAll(client, Math.max(1, calls / 10), inFlight, messages, false); // warm up
+      runAll(client, calls, inFlight, messages, true);
+    } finally {
+      channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+  }
+}
@@ -1,49 +1,196 @@
 import io.grpc.Server;
-import io.grpc.ServerBuilder;
-import io.grpc.stub.StreamObserver;
+import io.grpc.ServerInterceptors;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import echo.ServerResponse;
-import echo.ClientRequest;
-import echo.EchoGrpc;
+import echo.EchoImpl;
 
 /**
  * Server that manages startup/shutdown of the `EchoServer`.
+ *
+ * The Netty transport can be tuned with settings after the port (see
+ * Settings), for example `9099 executor=direct workers=2 log=false`.
+ * EchoSweep measures what they change.
  */
 public class EchoServer {
+  private static final long PUSHBACK_MILLIS = 100; // how long shed calls should wait before a retry
+
   private Server server;
   int port;
+  private final Settings settings;
+  final EchoInterceptors.Metrics metrics = new EchoInterceptors.Metrics();
+  private ScheduledExecutorService reporter;
 
   EchoServer(int port) {
+    this(port, new Settings());
+  }
+
+  EchoServer(int port, Settings settings) {
     this.port = port;
+    this.settings = settings;
   }
 
-  private void start() throws IOException {
-    /* The port on which the server should run */
-    server = ServerBuilder.forPort(port)
-        .addService(new EchoImpl())
-        .build()
-        .start();
+  /**
+   * How the server is built. Every setting has the grpc default unless it
+   * is given as name=value:
+   *   executor          where the service methods run: default (a cached
+   *                     pool), direct (on the event loop threads, only for
+   *                     methods that never block), fixed:N or virtual (Java 21+)
+   *   boss, workers     event loop threads accepting connections and doing
+   *                     the I/O (default 1 and 2 per core)
+   *   maxInbound        largest request in bytes (4MB)
+   *   keepAlive         seconds between pings on idle connections (2 hours)
+   *   keepAliveTimeout  seconds to wait for the answer to a ping (20)
+   *   window            HTTP/2 flow-control window per stream in bytes (1MB)
+   *   log               print every parrot message (true)
+   *   maxConcurrent     calls at a time, more are rejected with
+   *                     RESOURCE_EXHAUSTED (no limit)
+   *   deadline          longest a call may take in ms, for calls without a
+   *                     shorter deadline of their own (no limit)
+   *   metrics           print the metrics every this many seconds (never,
+   *                     they are printed when the server shuts down)
+   * See EchoInterceptors for the last three.
+   * One instance per server, it owns the threads it creates for it.
+   */
+  static final class Settings {
+    String executor = "default";
+    int boss;
+    int workers;
+    int maxInbound;
+    long keepAlive;
+    long keepAliveTimeout;
+    int window;
+    boolean log = true;
+    int maxConcurrent;
+    long deadline;
+    long metrics;
 
-    System.out.println("Server running ...");
-    Runtime.getRuntime().addShutdownHook(new Thread() {
-      @Override
-      public void run() {
-        // Use stderr here since the logger may have been reset by its JVM shutdown hook.
-        System.err.println("*** shutting down gRPC server since JVM is shutting down");
-        try {
-          EchoServer.this.stop();
-        } catch (InterruptedException e) {
-          e.printStackTrace(System.err);
+    private ExecutorService executorService;
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+
+    static Settings parse(String... settings) {
+      Settings s = new Settings();
+      for (String setting : settings) {
+        String[] kv = setting.split("=", 2);
+        if (kv.length != 2) {
+          throw new IllegalArgumentException("Expected name=value: " + setting);
+        }
+        switch (kv[0]) {
+          case "executor": s.executor = kv[1]; break;
+          case "boss": s.boss = Integer.parseInt(kv[1]); break;
+          case "workers": s.workers = Integer.parseInt(kv[1]); break;
+          case "maxInbound": s.maxInbound = Integer.parseInt(kv[1]); break;
+          case "keepAlive": s.keepAlive = Long.parseLong(kv[1]); break;
+          case "keepAliveTimeout": s.keepAliveTimeout = Long.parseLong(kv[1]); break;
+          case "window": s.window = Integer.parseInt(kv[1]); break;
+          case "log": s.log = Boolean.parseBoolean(kv[1]); break;
+          case "maxConcurrent": s.maxConcurrent = Integer.parseInt(kv[1]); break;
+          case "deadline": s.deadline = Long.parseLong(kv[1]); break;
+          case "metrics": s.metrics = Long.parseLong(kv[1]); break;
+          default: throw new IllegalArgumentException("Unknown setting: " + kv[0]);
         }
-        System.err.println("*** server shut down");
       }
-    });
+      return s;
+    }
+
+    void apply(NettyServerBuilder builder) {
+      if (executor.equals("direct")) {
+        builder.directExecutor();
+      } else if (executor.startsWith("fixed:")) {
+        executorService = Executors.newFixedThreadPool(Integer.parseInt(executor.substring(6)));
+        builder.executor(executorService);
+      } else if (executor.equals("virtual")) {
+        executorService = virtualThreads();
+        builder.executor(executorService);
+      } else if (!executor.equals("default")) {
+        throw new IllegalArgumentException("Unknown executor: " + executor);
+      }
+      if (boss > 0 || workers > 0) {
+        // Netty takes both groups and the channel type or none of them
+        bossGroup = new NioEventLoopGroup(Math.max(boss, 1));
+        workerGroup = new NioEventLoopGroup(workers); // 0 is Netty's default
+        builder.bossEventLoopGroup(bossGroup)
+            .workerEventLoopGroup(workerGroup)
+            .channelType(NioServerSocketChannel.class);
+      }
+      if (maxInbound > 0) {
+        builder.maxInboundMessageSize(maxInbound);
+      }
+      if (keepAlive > 0) {
+        builder.keepAliveTime(keepAlive, TimeUnit.SECONDS);
+      }
+      if (keepAliveTimeout > 0) {
+        builder.keepAliveTimeout(keepAliveTimeout, TimeUnit.SECONDS);
+      }
+      if (window > 0) {
+        builder.flowControlWindow(window);
+      }
+    }
+
+    static ExecutorService virtualThreads() {
+      try {
+        Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        return (ExecutorService) m.invoke(null);
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalArgumentException("Virtual threads need Java 21 or later");
+      }
+    }
+
+    // the threads created by apply(), once the server is down
+    void close() {
+      if (executorService != null) {
+        executorService.shutdown();
+      }
+      if (bossGroup != null) {
+        bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully();
+      }
+    }
   }
 
-  private void stop() throws InterruptedException {
+  void start() throws IOException {
+    /* The port on which the server should run */
+    // the interceptor added last sees a call first: metrics, load shedding, deadlines
+    ServerServiceDefinition service = new EchoImpl(settings.log).definition();
+    if (settings.deadline > 0) {
+      service = ServerInterceptors.intercept(service, new EchoInterceptors.Deadlines(settings.deadline));
+    }
+    if (settings.maxConcurrent > 0) {
+      service = ServerInterceptors.intercept(service,
+          new EchoInterceptors.LoadShedding(settings.maxConcurrent, PUSHBACK_MILLIS));
+    }
+    service = ServerInterceptors.intercept(service, metrics);
+    NettyServerBuilder builder = NettyServerBuilder.forPort(port)
+        .addService(service);
+    settings.apply(builder);
+    server = builder.build().start();
+    port = server.getPort(); // the one chosen when started on port 0
+    if (settings.metrics > 0) {
+      reporter = Executors.newSingleThreadScheduledExecutor();
+      reporter.scheduleAtFixedRate(() -> System.out.print(metrics.report()), settings.metrics, settings.metrics,
+          TimeUnit.SECONDS);
+    }
+
+    System.out.println("Server running ...");
+  }
+
+  void stop() throws InterruptedException {
     if (server != null) {
       server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
+      settings.close();
+      if (reporter != null) {
+        reporter.shutdown();
+      }
     }
   }
 
@@ -60,8 +207,8 @@ public class EchoServer {
    * Main launches the server from the command line.
    */
   public static void main(String[] args) throws IOException, InterruptedException {
-    if (args.length != 1) {
-      System.out.println("Expected arguments: <port(int)>");
+    if (args.length < 1) {
+      System.out.println("Expected arguments: <port(int)> [setting=value ...]");
       System.exit(1);
     }
     int port = 9099;
@@ -71,19 +218,23 @@ public class EchoServer {
       System.out.println("[Port] must be an integer");
       System.exit(2);
     }
-    final EchoServer server = new EchoServer(port);
+    final EchoServer server = new EchoServer(port, Settings.parse(Arrays.copyOfRange(args, 1, args.length)));
     server.start();
+    // only for the command line, servers started by EchoSweep are stopped by it
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        // Use stderr here since the logger may have been reset by its JVM shutdown hook.
+        System.err.println("*** shutting down gRPC server since JVM is shutting down");
+        try {
+          server.stop();
+        } catch (InterruptedException e) {
+          e.printStackTrace(System.err);
+        }
+        System.err.println("*** server shut down");
+        System.err.print(server.metrics.report());
+      }
+    });
     server.blockUntilShutdown();
   }
-
-  static class EchoImpl extends EchoGrpc.EchoImplBase {
-
-    @Override
-    public void parrot(ClientRequest req, StreamObserver<ServerResponse> responseObserver) {
-      System.out.println("Received from client: " + req.getMessage());
-      ServerResponse response = ServerResponse.newBuilder().setMessage(req.getMessage()).build();
-      responseObserver.onNext(response);
-      responseObserver.onCompleted();
-    }
-  }
 }
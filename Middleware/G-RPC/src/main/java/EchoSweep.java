@@ -0,0 +1,59 @@
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts an `EchoServer` in this JVM for each group of settings (see
+ * EchoServer.Settings, comma separated, e.g. `executor=direct,workers=2`)
+ * and runs unary `parrot` calls and bidi `parrotStream` streams against it
+ * over loopback, with EchoLoadTest. Without settings it sweeps the
+ * executors, the worker event loop count and the flow-control window, one
+ * at a time from the defaults. Per-message logging is always off.
+ *
+ * gradle runSweep -Pcalls=100000 -PinFlight=1000 -Pmessages=100 -Psettings='executor=direct,workers=1 window=65536'
+ */
+public class EchoSweep {
+  private static final String[] DEFAULT_SWEEP = { "executor=default", "executor=direct", "executor=fixed:4",
+      "executor=virtual", "workers=1", "workers=2", "workers=4", "window=65536", "window=4194304" };
+
+  private static void measure(String settings, int calls, int inFlight, int messages) throws Exception {
+    EchoServer.Settings parsed = EchoServer.Settings.parse(settings.isEmpty() ? new String[0] : settings.split(","));
+    parsed.log = false;
+    EchoServer server = new EchoServer(0, parsed);
+    try {
+      server.start();
+    } catch (IllegalArgumentException e) {
+      System.out.println(settings + ": skipped, " + e.getMessage());
+      return;
+    }
+    ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", server.port).usePlaintext().build();
+    try {
+      EchoClient client = new EchoClient(channel);
+      int streams = Math.max(1, calls / messages);
+      // warm up
+      EchoLoadTest.parrot(client, null, Math.max(1, calls / 10), inFlight);
+      EchoLoadTest.parrotStream(client, null, Math.max(1, streams / 10), inFlight, messages);
+      System.out.println("--- " + settings);
+      EchoLoadTest.parrot(client, "parrot", calls, inFlight);
+      EchoLoadTest.parrotStream(client, "parrotStream", streams, inFlight, messages);
+    } finally {
+      channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+      server.stop();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 3) {
+      System.out.println("Expected arguments: <calls(int)> <inFlight(int)> <messages(int)> [settings ...]");
+      System.exit(1);
+    }
+    int calls = Integer.parseInt(args[0]);
+    int inFlight = Integer.parseInt(args[1]);
+    int messages = Integer.parseInt(args[2]);
+    String[] sweep = args.length > 3 ? Arrays.copyOfRange(args, 3, args.length) : DEFAULT_SWEEP;
+    for (String settings : sweep) {
+      measure(settings, calls, inFlight, messages);
+    }
+  }
+}
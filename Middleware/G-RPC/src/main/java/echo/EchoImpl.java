@@ -0,0 +1,165 @@
+package echo;
+
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * The Echo service, used by `EchoServer` and the benchmarks.
+ */
+public class EchoImpl extends EchoGrpc.EchoImplBase {
+  private final boolean log;
+  private final ZeroCopyMarshaller payloads; // null: parrotBytes with the generated marshaller
+
+  /** log: print every parrot message. */
+  public EchoImpl(boolean log) {
+    this(log, true);
+  }
+
+  /** zeroCopy: parrotBytes answers with the buffers the request arrived in (see ZeroCopyMarshaller). */
+  public EchoImpl(boolean log, boolean zeroCopy) {
+    this.log = log;
+    this.payloads = zeroCopy ? new ZeroCopyMarshaller() : null;
+  }
+
+  /** Payloads of zero-copy parrotBytes calls not released yet, 0 without zero copy. */
+  public int held() {
+    return payloads == null ? 0 : payloads.held();
+  }
+
+  /** What to add to a server: bindService(), with parrotBytes zero-copy if asked for. */
+  public ServerServiceDefinition definition() {
+    ServerServiceDefinition generated = bindService();
+    if (payloads == null) {
+      return generated;
+    }
+    // the generated definition, with parrotBytes using the zero-copy marshaller
+    ServerServiceDefinition.Builder service =
+        ServerServiceDefinition.builder(generated.getServiceDescriptor().getName());
+    for (ServerMethodDefinition<?, ?> method : generated.getMethods()) {
+      if (method.getMethodDescriptor() != EchoGrpc.getParrotBytesMethod()) {
+        service.addMethod(method);
+      }
+    }
+    return service.addMethod(payloads.parrotBytes(), payloads.releasing(ServerCalls.asyncUnaryCall(this::parrotBytes)))
+        .build();
+  }
+
+  @Override
+  public void parrot(ClientRequest req, StreamObserver<ServerResponse> responseObserver) {
+    if (log) {
+      System.out.println("Received from client: " + req.getMessage());
+    }
+    ServerResponse response = ServerResponse.newBuilder().setMessage(req.getMessage()).build();
+    responseObserver.onNext(response);
+    responseObserver.onCompleted();
+  }
+
+  @Override
+  public void parrotBytes(Payload req, StreamObserver<Payload> responseObserver) {
+    // the response shares the data of the request
+    responseObserver.onNext(Payload.newBuilder().setData(req.getData()).build());
+    responseObserver.onCompleted();
+    if (payloads != null) {
+      payloads.release(req); // onNext has written the response to the transport; the end of the call would too
+    }
+  }
+
+  @Override
+  public StreamObserver<ClientRequest> parrotAll(StreamObserver<ServerResponse> responseObserver) {
+    return new StreamObserver<ClientRequest>() {
+      private final StringBuilder messages = new StringBuilder();
+      private int count;
+
+      @Override
+      public void onNext(ClientRequest req) {
+        if (count++ > 0) {
+          messages.append(' ');
+        }
+        messages.append(req.getMessage());
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        // the client cancelled or the connection is gone, nobody to answer
+      }
+
+      @Override
+      public void onCompleted() {
+        responseObserver.onNext(ServerResponse.newBuilder().setMessage(messages.toString()).setCount(count).build());
+        responseObserver.onCompleted();
+      }
+    };
+  }
+
+  /*
+   * Sends only while the transport can take more (isReady) and continues
+   * from the onReadyHandler, so a slow client does not make the server
+   * buffer all the responses.
+   */
+  @Override
+  public void parrotRepeat(ClientRequest req, StreamObserver<ServerResponse> responseObserver) {
+    ServerCallStreamObserver<ServerResponse> call = (ServerCallStreamObserver<ServerResponse>) responseObserver;
+    Runnable drain = new Runnable() {
+      private int sent;
+      private boolean done;
+
+      @Override
+      public void run() {
+        while (!done && sent < req.getTimes() && call.isReady()) {
+          call.onNext(ServerResponse.newBuilder().setMessage(req.getMessage()).setCount(++sent).build());
+        }
+        if (!done && sent >= req.getTimes()) {
+          done = true;
+          call.onCompleted();
+        }
+      }
+    };
+    call.setOnCancelHandler(() -> { }); // drain stops once the call is no longer ready
+    call.setOnReadyHandler(drain);
+    drain.run();
+  }
+
+  /*
+   * Asks for the next message only when the response to the last one could
+   * be sent right away, or later from the onReadyHandler, so neither side
+   * buffers more than one message per call.
+   */
+  @Override
+  public StreamObserver<ClientRequest> parrotStream(StreamObserver<ServerResponse> responseObserver) {
+    ServerCallStreamObserver<ServerResponse> call = (ServerCallStreamObserver<ServerResponse>) responseObserver;
+    call.disableAutoRequest();
+    boolean[] waiting = { true }; // no request(1) outstanding, waiting for the call to be ready
+    call.setOnReadyHandler(() -> {
+      if (waiting[0] && call.isReady()) {
+        waiting[0] = false;
+        call.request(1);
+      }
+    });
+    return new StreamObserver<ClientRequest>() {
+      private int count;
+
+      @Override
+      public void onNext(ClientRequest req) {
+        call.onNext(ServerResponse.newBuilder().setMessage(req.getMessage()).setCount(++count).build());
+        if (call.isReady()) {
+          call.request(1);
+        } else {
+          waiting[0] = true;
+        }
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        // the client cancelled or the connection is gone, nobody to answer
+      }
+
+      @Override
+      public void onCompleted() {
+        call.onCompleted();
+      }
+    };
+  }
+}
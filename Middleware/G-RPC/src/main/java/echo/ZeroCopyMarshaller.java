@@ -0,0 +1,163 @@
+package echo;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.UnsafeByteOperations;
+import com.google.protobuf.WireFormat;
+import io.grpc.Detachable;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.HasByteBuffer;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.Status;
+import io.grpc.protobuf.lite.ProtoLiteUtils;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a Payload without copying its data, when the transport allows it
+ * (Netty does, the in-process transport does not need it). The stream is
+ * detached from grpc, its buffers are wrapped with UnsafeByteOperations
+ * into one ByteString, and data is a substring of that: a view of the
+ * buffers the bytes arrived in, even when it spans many of them. Protobuf's
+ * own aliasing would copy any field that is not inside one buffer. The
+ * stream is marked first, so it keeps the buffers it has been read past
+ * until it is closed.
+ *
+ * The buffers belong to the Payload until release(payload), which must only
+ * come once nothing uses its data any more (for an echo: after the response
+ * holding it has been sent). A service wraps its handler with releasing(),
+ * so whatever it was given is released when the call ends, also when the
+ * call never gets as far as a response. Writing is protobuf's usual, the
+ * data is copied once into the outgoing frames.
+ */
+public final class ZeroCopyMarshaller implements MethodDescriptor.Marshaller<Payload> {
+  private static final int DATA_TAG = Payload.DATA_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+
+  private final MethodDescriptor.Marshaller<Payload> standard = ProtoLiteUtils.marshaller(Payload.getDefaultInstance());
+  private final Map<Payload, InputStream> detached = Collections.synchronizedMap(new IdentityHashMap<>());
+
+  /** parrotBytes with this marshaller for requests and responses. */
+  public MethodDescriptor<Payload, Payload> parrotBytes() {
+    return EchoGrpc.getParrotBytesMethod().toBuilder(this, this).build();
+  }
+
+  /**
+   * handler, with every Payload it receives released when the call ends
+   * (onComplete or onCancel, which come after the handler is done with
+   * them): cancelled by the client, closed by an interceptor or a deadline,
+   * or a second request on a unary call. Releasing sooner stays allowed.
+   */
+  public ServerCallHandler<Payload, Payload> releasing(ServerCallHandler<Payload, Payload> handler) {
+    return (call, headers) -> new ForwardingServerCallListener.SimpleForwardingServerCallListener<Payload>(
+        handler.startCall(call, headers)) {
+      private final List<Payload> received = new ArrayList<>(1); // listener methods run one at a time
+
+      @Override
+      public void onMessage(Payload message) {
+        received.add(message);
+        super.onMessage(message);
+      }
+
+      @Override
+      public void onComplete() {
+        try {
+          super.onComplete();
+        } finally {
+          releaseAll();
+        }
+      }
+
+      @Override
+      public void onCancel() {
+        try {
+          super.onCancel();
+        } finally {
+          releaseAll();
+        }
+      }
+
+      private void releaseAll() {
+        for (Payload payload : received) {
+          release(payload);
+        }
+        received.clear();
+      }
+    };
+  }
+
+  @Override
+  public InputStream stream(Payload value) {
+    return standard.stream(value);
+  }
+
+  @Override
+  public Payload parse(InputStream stream) {
+    if (!(stream instanceof Detachable && stream instanceof HasByteBuffer
+        && ((HasByteBuffer) stream).byteBufferSupported() && stream.markSupported())) {
+      return standard.parse(stream);
+    }
+    InputStream buffers = ((Detachable) stream).detach();
+    // without a mark the stream closes every buffer it has been read past
+    buffers.mark(Integer.MAX_VALUE);
+    try {
+      ByteString message = ByteString.EMPTY;
+      while (buffers.available() > 0) {
+        ByteBuffer buffer = ((HasByteBuffer) buffers).getByteBuffer();
+        message = message.concat(UnsafeByteOperations.unsafeWrap(buffer));
+        buffers.skip(buffer.remaining());
+      }
+      // only the tags and lengths are read, data itself is cut out of message
+      Payload.Builder payload = Payload.newBuilder();
+      CodedInputStream input = message.newCodedInput();
+      for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+        if (tag == DATA_TAG) {
+          int length = input.readRawVarint32();
+          int start = input.getTotalBytesRead();
+          payload.setData(message.substring(start, start + length));
+          input.skipRawBytes(length);
+        } else {
+          input.skipField(tag); // unknown fields are dropped
+        }
+      }
+      Payload result = payload.build();
+      detached.put(result, buffers);
+      buffers = null;
+      return result;
+    } catch (IOException | IndexOutOfBoundsException e) {
+      throw Status.INTERNAL.withDescription("Invalid protobuf byte sequence").withCause(e).asRuntimeException();
+    } finally {
+      close(buffers);
+    }
+  }
+
+  /**
+   * Gives the buffers behind payload back to the transport; its data must
+   * not be used after this. Releasing twice does nothing.
+   */
+  public void release(Payload payload) {
+    close(detached.remove(payload));
+  }
+
+  /** Payloads parsed and not released yet. */
+  public int held() {
+    return detached.size();
+  }
+
+  private static void close(InputStream buffers) {
+    if (buffers != null) {
+      try {
+        buffers.close();
+      } catch (IOException e) {
+        // nothing to do, the buffers are gone either way
+      }
+    }
+  }
+}
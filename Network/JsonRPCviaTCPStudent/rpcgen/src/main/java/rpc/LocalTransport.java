@@ -0,0 +1,27 @@
+package rpc;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Purpose: RpcTransport that hands the frame straight to a skeleton in the
+ * same JVM. Useful for measuring marshalling cost without a socket.
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ * @author Tim Lindquist Tim.Lindquist@asu.edu
+ *         Software Engineering, CIDSE, IAFSE, ASU Poly
+ * @version April 2020
+ */
+public class LocalTransport implements RpcTransport {
+   private final RpcSkeleton skeleton;
+
+   public LocalTransport(RpcSkeleton skeleton) {
+      this.skeleton = skeleton;
+   }
+
+   public byte[] exchange(byte[] requestFrame) throws IOException {
+      int header = RpcSkeleton.headerLength(requestFrame);
+      byte[] response = skeleton.call(requestFrame, header, requestFrame.length - header);
+      return Arrays.copyOfRange(response, RpcSkeleton.headerLength(response), response.length);
+   }
+}
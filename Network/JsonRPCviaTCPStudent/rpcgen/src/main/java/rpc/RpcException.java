@@ -0,0 +1,23 @@
+package rpc;
+
+/**
+ * Purpose: Thrown by a generated proxy when a call can not be completed,
+ * either because of the connection or because the server reported an
+ * error.
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ * @author Tim Lindquist Tim.Lindquist@asu.edu
+ *         Software Engineering, CIDSE, IAFSE, ASU Poly
+ * @version April 2020
+ */
+public class RpcException extends RuntimeException {
+   private static final long serialVersionUID = 1L;
+
+   public RpcException(String message) {
+      super(message);
+   }
+
+   public RpcException(String message, Throwable cause) {
+      super(message, cause);
+   }
+}
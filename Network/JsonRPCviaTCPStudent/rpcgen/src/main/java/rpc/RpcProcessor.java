@@ -0,0 +1,306 @@
+package rpc;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Purpose: Generates a skeleton and a proxy for every interface marked
+ * with @RpcService, so the server dispatch and client marshalling can no
+ * longer drift away from the interface.
+ *
+ * For an interface server.StudentCollection it writes
+ *   server.StudentCollectionRpcSkeleton  extends RpcSkeleton, switches on
+ *                                        the method id and decodes each
+ *                                        parameter straight off the frame
+ *   server.StudentCollectionRpcProxy     extends RpcProxy, implements the
+ *                                        interface
+ * Neither uses reflection or boxes parameters into an Object[].
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ * @author Tim Lindquist Tim.Lindquist@asu.edu
+ *         Software Engineering, CIDSE, IAFSE, ASU Poly
+ * @version April 2020
+ */
+@SupportedAnnotationTypes("rpc.RpcService")
+public class RpcProcessor extends AbstractProcessor {
+
+   private static final String wireTypeName = "rpc.WireType";
+
+   @Override
+   public SourceVersion getSupportedSourceVersion() {
+      return SourceVersion.latestSupported();
+   }
+
+   @Override
+   public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+      for (Element e : roundEnv.getElementsAnnotatedWith(RpcService.class)) {
+         if (e.getKind() != ElementKind.INTERFACE) {
+            error(e, "@RpcService can only be used on an interface");
+            continue;
+         }
+         TypeElement iface = (TypeElement)e;
+         try {
+            new Service(iface).generate();
+         } catch (IOException ex) {
+            error(e, "could not write generated source: "+ex.getMessage());
+         }
+      }
+      return true;
+   }
+
+   private void error(Element e, String message) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, e);
+   }
+
+   /** How one parameter or result type is written and read. */
+   private static class Codec {
+      final String write;   // %s is the value
+      final String read;
+
+      Codec(String write, String read) {
+         this.write = write;
+         this.read = read;
+      }
+   }
+
+   /** Everything needed to generate the two classes of one interface. */
+   private class Service {
+      private final TypeElement iface;
+      private final String pkg;
+      private final String simpleName;
+      private final String ifaceName;
+      private final List<ExecutableElement> methods = new ArrayList<ExecutableElement>();
+      // erased type name -> field holding its WireType
+      private final Map<String,String> customFields = new HashMap<String,String>();
+      private final List<String> fieldDecls = new ArrayList<String>();
+      private boolean failed = false;
+
+      Service(TypeElement iface) {
+         this.iface = iface;
+         PackageElement p = processingEnv.getElementUtils().getPackageOf(iface);
+         this.pkg = p.isUnnamed() ? "" : p.getQualifiedName().toString();
+         this.simpleName = iface.getSimpleName().toString();
+         this.ifaceName = iface.getQualifiedName().toString();
+         for (ExecutableElement m : ElementFilter.methodsIn(iface.getEnclosedElements())) {
+            if (m.getModifiers().contains(Modifier.ABSTRACT)) {
+               methods.add(m);
+            }
+         }
+         collectWireTypes();
+      }
+
+      private void collectWireTypes() {
+         for (AnnotationMirror am : iface.getAnnotationMirrors()) {
+            if (!am.getAnnotationType().toString().equals(RpcService.class.getName())) continue;
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                    : am.getElementValues().entrySet()) {
+               if (!entry.getKey().getSimpleName().contentEquals("types")) continue;
+               @SuppressWarnings("unchecked")
+               List<? extends AnnotationValue> values = (List<? extends AnnotationValue>)entry.getValue().getValue();
+               for (AnnotationValue v : values) {
+                  addWireType((TypeMirror)v.getValue());
+               }
+            }
+         }
+      }
+
+      private void addWireType(TypeMirror wireType) {
+         TypeElement te = (TypeElement)processingEnv.getTypeUtils().asElement(wireType);
+         for (TypeMirror itf : te.getInterfaces()) {
+            DeclaredType dt = (DeclaredType)itf;
+            if (!processingEnv.getTypeUtils().erasure(dt).toString().equals(wireTypeName)) continue;
+            if (dt.getTypeArguments().size() != 1) continue;
+            String handled = processingEnv.getTypeUtils().erasure(dt.getTypeArguments().get(0)).toString();
+            String field = "T" + customFields.size();
+            customFields.put(handled, field);
+            fieldDecls.add("   private static final " + te.getQualifiedName() + " " + field
+                           + " = new " + te.getQualifiedName() + "();");
+            return;
+         }
+         error(iface, te.getQualifiedName() + " does not implement " + wireTypeName + " directly");
+         failed = true;
+      }
+
+      private Codec codecFor(TypeMirror t, Element where) {
+         switch (t.getKind()) {
+         case BOOLEAN: return new Codec("out.writeBoolean(%s);", "in.readBoolean()");
+         case INT:     return new Codec("out.writeInt(%s);", "in.readInt()");
+         case LONG:    return new Codec("out.writeLong(%s);", "in.readLong()");
+         case DOUBLE:  return new Codec("out.writeDouble(%s);", "in.readDouble()");
+         case VOID:    return new Codec("", "");
+         default:
+            break;
+         }
+         String name = processingEnv.getTypeUtils().erasure(t).toString();
+         if (name.equals("java.lang.String")) {
+            return new Codec("out.writeString(%s);", "in.readString()");
+         }
+         if (name.equals("java.lang.String[]")) {
+            return new Codec("out.writeStrings(%s);", "in.readStrings()");
+         }
+         String field = customFields.get(name);
+         if (field != null) {
+            return new Codec(field + ".write(out, %s);", field + ".read(in)");
+         }
+         error(where, "no wire encoding for " + t + "; list a WireType for it in @RpcService(types=...)");
+         failed = true;
+         return new Codec("", "null");
+      }
+
+      void generate() throws IOException {
+         // resolve every codec first so all errors are reported before writing anything
+         List<Codec[]> params = new ArrayList<Codec[]>();
+         List<Codec> results = new ArrayList<Codec>();
+         for (ExecutableElement m : methods) {
+            Codec[] pc = new Codec[m.getParameters().size()];
+            for (int i = 0; i < pc.length; i++) {
+               pc[i] = codecFor(m.getParameters().get(i).asType(), m.getParameters().get(i));
+            }
+            params.add(pc);
+            results.add(codecFor(m.getReturnType(), m));
+         }
+         if (failed) return;
+         writeSkeleton(params, results);
+         writeProxy(params, results);
+      }
+
+      private PrintWriter open(String className) throws IOException {
+         String qualified = pkg.isEmpty() ? className : pkg + "." + className;
+         JavaFileObject file = processingEnv.getFiler().createSourceFile(qualified, iface);
+         PrintWriter out = new PrintWriter(file.openWriter());
+         if (!pkg.isEmpty()) {
+            out.println("package " + pkg + ";");
+            out.println();
+         }
+         out.println("// Generated by rpc.RpcProcessor from " + ifaceName + ". Do not edit.");
+         return out;
+      }
+
+      private void writeMethodNames(PrintWriter out) {
+         out.print("   private static final String[] methodNames = {");
+         for (int i = 0; i < methods.size(); i++) {
+            out.print((i == 0 ? "" : ", ") + "\"" + methods.get(i).getSimpleName() + "\"");
+         }
+         out.println("};");
+      }
+
+      private void writeSkeleton(List<Codec[]> params, List<Codec> results) throws IOException {
+         String cls = simpleName + "RpcSkeleton";
+         try (PrintWriter out = open(cls)) {
+            out.println("public final class " + cls + " extends rpc.RpcSkeleton {");
+            for (String f : fieldDecls) out.println(f);
+            writeMethodNames(out);
+            out.println("   private final " + ifaceName + " impl;");
+            out.println();
+            out.println("   public " + cls + "(" + ifaceName + " impl) {");
+            out.println("      this.impl = impl;");
+            out.println("   }");
+            out.println();
+            out.println("   public String[] methodNames() {");
+            out.println("      return methodNames.clone();");
+            out.println("   }");
+            out.println();
+            out.println("   protected void dispatch(int method, rpc.WireReader in, rpc.WireWriter out) throws Exception {");
+            out.println("      switch (method) {");
+            for (int i = 0; i < methods.size(); i++) {
+               ExecutableElement m = methods.get(i);
+               Codec[] pc = params.get(i);
+               out.println("      case " + i + ": { // " + m.getSimpleName());
+               StringBuilder args = new StringBuilder();
+               for (int j = 0; j < pc.length; j++) {
+                  out.println("         " + m.getParameters().get(j).asType() + " p" + j + " = " + pc[j].read + ";");
+                  args.append(j == 0 ? "" : ", ").append("p").append(j);
+               }
+               String invocation = "impl." + m.getSimpleName() + "(" + args + ")";
+               if (m.getReturnType().getKind() == TypeKind.VOID) {
+                  out.println("         " + invocation + ";");
+               } else {
+                  out.println("         " + String.format(results.get(i).write, invocation));
+               }
+               out.println("         return;");
+               out.println("      }");
+            }
+            out.println("      default:");
+            out.println("         throw new rpc.RpcException(\"unknown method id \" + method);");
+            out.println("      }");
+            out.println("   }");
+            out.println("}");
+         }
+      }
+
+      private void writeProxy(List<Codec[]> params, List<Codec> results) throws IOException {
+         String cls = simpleName + "RpcProxy";
+         try (PrintWriter out = open(cls)) {
+            out.println("public final class " + cls + " extends rpc.RpcProxy implements " + ifaceName + " {");
+            for (String f : fieldDecls) out.println(f);
+            out.println();
+            out.println("   public " + cls + "(rpc.RpcTransport transport) {");
+            out.println("      super(transport);");
+            out.println("   }");
+            out.println();
+            out.println("   public " + cls + "(String host, int port) {");
+            out.println("      super(new rpc.TcpTransport(host, port));");
+            out.println("   }");
+            for (int i = 0; i < methods.size(); i++) {
+               ExecutableElement m = methods.get(i);
+               Codec[] pc = params.get(i);
+               StringBuilder sig = new StringBuilder();
+               for (int j = 0; j < pc.length; j++) {
+                  VariableElement p = m.getParameters().get(j);
+                  sig.append(j == 0 ? "" : ", ").append(p.asType()).append(" p").append(j);
+               }
+               StringBuilder throwsClause = new StringBuilder();
+               for (TypeMirror t : m.getThrownTypes()) {
+                  throwsClause.append(throwsClause.length() == 0 ? " throws " : ", ").append(t);
+               }
+               out.println();
+               out.println("   @Override");
+               out.println("   public " + m.getReturnType() + " " + m.getSimpleName() + "(" + sig + ")"
+                           + throwsClause + " {");
+               out.println("      rpc.WireWriter out = begin(" + i + ");");
+               for (int j = 0; j < pc.length; j++) {
+                  out.println("      " + String.format(pc[j].write, "p" + j));
+               }
+               if (m.getReturnType().getKind() == TypeKind.VOID) {
+                  out.println("      invoke(out);");
+               } else {
+                  out.println("      rpc.WireReader in = invoke(out);");
+                  out.println("      try {");
+                  out.println("         return " + results.get(i).read + ";");
+                  out.println("      } catch (java.io.IOException ex) {");
+                  out.println("         throw new rpc.RpcException(\"bad reply to " + m.getSimpleName()
+                              + ": \" + ex.getMessage(), ex);");
+                  out.println("      }");
+               }
+               out.println("   }");
+            }
+            out.println("}");
+         }
+      }
+   }
+}
@@ -0,0 +1,45 @@
+package rpc;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Purpose: Base class of the generated proxies. A generated method starts
+ * a call with begin(), writes its parameters and decodes the result from
+ * the reader invoke() returns.
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ * @author Tim Lindquist Tim.Lindquist@asu.edu
+ *         Software Engineering, CIDSE, IAFSE, ASU Poly
+ * @version April 2020
+ */
+public abstract class RpcProxy {
+
+   private static final AtomicInteger ids = new AtomicInteger();
+   private final RpcTransport transport;
+
+   protected RpcProxy(RpcTransport transport) {
+      this.transport = transport;
+   }
+
+   protected WireWriter begin(int method) {
+      WireWriter out = new WireWriter();
+      out.writeVarint(ids.incrementAndGet() & 0x7fffffff);
+      out.writeVarint(method);
+      return out;
+   }
+
+   protected WireReader invoke(WireWriter call) {
+      try {
+         byte[] body = transport.exchange(call.toFrame());
+         WireReader in = new WireReader(body);
+         in.readVarint(); // id
+         if (in.readByte() != RpcSkeleton.OK) {
+            throw new RpcException(in.readString());
+         }
+         return in;
+      } catch (IOException ex) {
+         throw new RpcException("call failed: "+ex.getMessage(), ex);
+      }
+   }
+}
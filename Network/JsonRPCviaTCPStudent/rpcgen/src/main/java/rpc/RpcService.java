@@ -0,0 +1,27 @@
+package rpc;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Purpose: Marks an interface as a remote service. RpcProcessor generates
+ * <Name>RpcSkeleton and <Name>RpcProxy next to the interface when it is
+ * compiled.
+ *
+ * Method ids are the position of the method in the interface, so adding
+ * a method at the end keeps old clients working. Parameters and results
+ * may be boolean, int, long, double, String, String[], void or any type
+ * handled by one of the WireType classes listed in types.
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ * @author Tim Lindquist Tim.Lindquist@asu.edu
+ *         Software Engineering, CIDSE, IAFSE, ASU Poly
+ * @version April 2020
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface RpcService {
+   Class<? extends WireType<?>>[] types() default {};
+}
@@ -0,0 +1,68 @@
+package rpc;
+
+/**
+ * Purpose: Base class of the generated skeletons. call() reads the request
+ * id and method id of a frame body, lets the generated dispatch decode the
+ * parameters and invoke the implementation, and returns the response
+ * frame: id, status and either the result or an error message.
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ * @author Tim Lindquist Tim.Lindquist@asu.edu
+ *         Software Engineering, CIDSE, IAFSE, ASU Poly
+ * @version April 2020
+ */
+public abstract class RpcSkeleton {
+
+   public static final int OK = 0;
+   public static final int ERROR = 1;
+
+   // one reader and writer per thread, so a call allocates only its result frame
+   private static final ThreadLocal<WireReader> readers =
+      ThreadLocal.withInitial(() -> new WireReader(new byte[0]));
+   private static final ThreadLocal<WireWriter> writers =
+      ThreadLocal.withInitial(() -> new WireWriter(256));
+
+   /** method names indexed by method id */
+   public abstract String[] methodNames();
+
+   /**
+    * Decodes the parameters of the method, calls it and writes the result.
+    */
+   protected abstract void dispatch(int method, WireReader in, WireWriter out) throws Exception;
+
+   public byte[] call(byte[] body) {
+      return call(body, 0, body.length);
+   }
+
+   public byte[] call(byte[] buf, int off, int len) {
+      WireReader in = readers.get();
+      WireWriter out = writers.get();
+      in.reset(buf, off, len);
+      out.reset();
+      int id = 0;
+      try {
+         id = in.readVarint();
+         int method = in.readVarint();
+         out.writeVarint(id);
+         out.writeByte(OK);
+         dispatch(method, in, out);
+      } catch (Exception ex) {
+         out.reset();
+         out.writeVarint(id);
+         out.writeByte(ERROR);
+         out.writeString(String.valueOf(ex.getMessage()));
+      }
+      byte[] frame = out.toFrame();
+      if (out.size() > 1 << 16) {
+         writers.remove(); // do not keep a huge buffer around for every thread
+      }
+      return frame;
+   }
+
+   /** number of bytes of MAGIC and varint length in front of a frame body */
+   public static int headerLength(byte[] frame) {
+      int p = 1;
+      while (p < frame.length && (frame[p] & 0x80) != 0) p++;
+      return p + 1;
+   }
+}
@@ -0,0 +1,17 @@
+package rpc;
+
+import java.io.IOException;
+
+/**
+ * Purpose: Carries one request frame to a skeleton and brings back the
+ * body of the response frame. TcpTransport opens a connection per call like the
+ * JsonRPC proxy, LocalTransport calls a skeleton in the same JVM.
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ * @author Tim Lindquist Tim.Lindquist@asu.edu
+ *         Software Engineering, CIDSE, IAFSE, ASU Poly
+ * @version April 2020
+ */
+public interface RpcTransport {
+   public byte[] exchange(byte[] requestFrame) throws IOException;
+}
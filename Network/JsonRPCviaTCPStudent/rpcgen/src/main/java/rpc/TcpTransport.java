@@ -0,0 +1,37 @@
+package rpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Purpose: RpcTransport that sends each call on its own TCP connection,
+ * the same way the JsonRPC calls of StudentTcpProxy do.
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ * @author Tim Lindquist Tim.Lindquist@asu.edu
+ *         Software Engineering, CIDSE, IAFSE, ASU Poly
+ * @version April 2020
+ */
+public class TcpTransport implements RpcTransport {
+   private final String host;
+   private final int port;
+
+   public TcpTransport(String host, int port) {
+      this.host = host;
+      this.port = port;
+   }
+
+   public byte[] exchange(byte[] requestFrame) throws IOException {
+      try (Socket sock = new Socket(host, port)) {
+         OutputStream os = sock.getOutputStream();
+         InputStream is = sock.getInputStream();
+         os.write(requestFrame);
+         if (is.read() != WireWriter.MAGIC) {
+            throw new IOException("server did not answer with a binary frame");
+         }
+         return WireReader.readFrame(is);
+      }
+   }
+}
@@ -0,0 +1,144 @@
+package rpc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Purpose: Reads values of the binary RPC encoding straight out of a frame
+ * body, without copying it first. See WireWriter for the layout.
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ * @author Tim Lindquist Tim.Lindquist@asu.edu
+ *         Software Engineering, CIDSE, IAFSE, ASU Poly
+ * @version April 2020
+ */
+public final class WireReader {
+
+   public static final int maxFrame = 16 << 20;
+
+   private byte[] buf;
+   private int end;
+   private int pos;
+
+   public WireReader(byte[] buf) {
+      this(buf, 0, buf.length);
+   }
+
+   public WireReader(byte[] buf, int off, int len) {
+      reset(buf, off, len);
+   }
+
+   /** points the reader at a new body so one reader serves many calls */
+   public void reset(byte[] buf, int off, int len) {
+      this.buf = buf;
+      this.pos = off;
+      this.end = off + len;
+   }
+
+   public int remaining() {
+      return end - pos;
+   }
+
+   /**
+    * Reads the rest of a frame whose MAGIC byte has already been consumed.
+    */
+   public static byte[] readFrame(InputStream in) throws IOException {
+      int length = 0;
+      for (int shift = 0; ; shift += 7) {
+         int b = in.read();
+         if (b < 0) throw new EOFException("connection closed in frame header");
+         length |= (b & 0x7f) << shift;
+         if ((b & 0x80) == 0) break;
+         if (shift > 28) throw new IOException("bad frame length");
+      }
+      if (length < 0 || length > maxFrame) {
+         throw new IOException("frame of "+length+" bytes is too large");
+      }
+      byte[] body = new byte[length];
+      int off = 0;
+      while (off < length) {
+         int n = in.read(body, off, length - off);
+         if (n < 0) throw new EOFException("connection closed in frame body");
+         off += n;
+      }
+      return body;
+   }
+
+   private void need(int n) throws IOException {
+      if (pos + n > end) throw new EOFException("truncated frame");
+   }
+
+   public int readByte() throws IOException {
+      need(1);
+      return buf[pos++] & 0xff;
+   }
+
+   public int readVarint() throws IOException {
+      int v = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+         int b = readByte();
+         v |= (b & 0x7f) << shift;
+         if ((b & 0x80) == 0) return v;
+      }
+      throw new IOException("malformed varint");
+   }
+
+   public long readVarlong() throws IOException {
+      long v = 0;
+      for (int shift = 0; shift < 70; shift += 7) {
+         int b = readByte();
+         v |= (long)(b & 0x7f) << shift;
+         if ((b & 0x80) == 0) return v;
+      }
+      throw new IOException("malformed varint");
+   }
+
+   public int readInt() throws IOException {
+      int v = readVarint();
+      return (v >>> 1) ^ -(v & 1);
+   }
+
+   public long readLong() throws IOException {
+      long v = readVarlong();
+      return (v >>> 1) ^ -(v & 1);
+   }
+
+   public double readDouble() throws IOException {
+      need(8);
+      long bits = 0;
+      for (int i = 0; i < 8; i++) {
+         bits = (bits << 8) | (buf[pos++] & 0xff);
+      }
+      return Double.longBitsToDouble(bits);
+   }
+
+   public boolean readBoolean() throws IOException {
+      return readByte() != 0;
+   }
+
+   public String readString() throws IOException {
+      int n = readVarint();
+      if (n < 0) throw new IOException("bad string length");
+      need(n);
+      String s = new String(buf, pos, n, StandardCharsets.UTF_8);
+      pos += n;
+      return s;
+   }
+
+   /** element count of a list, checked against the bytes left */
+   public int readCount() throws IOException {
+      int count = readVarint();
+      if (count < 0 || count > end - pos) throw new IOException("bad element count");
+      return count;
+   }
+
+   public String[] readStrings() throws IOException {
+      String[] ret = new String[readCount()];
+      for (int i = 0; i < ret.length; i++) {
+         ret[i] = readString();
+      }
+      return ret;
+   }
+}
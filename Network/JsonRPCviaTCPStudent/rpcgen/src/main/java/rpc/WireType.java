@@ -0,0 +1,18 @@
+package rpc;
+
+import java.io.IOException;
+
+/**
+ * Purpose: Encodes one user-defined parameter or result type for the
+ * generated skeletons and proxies. Implementations need a public no
+ * argument constructor.
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ * @author Tim Lindquist Tim.Lindquist@asu.edu
+ *         Software Engineering, CIDSE, IAFSE, ASU Poly
+ * @version April 2020
+ */
+public interface WireType<T> {
+   public void write(WireWriter out, T value);
+   public T read(WireReader in) throws IOException;
+}
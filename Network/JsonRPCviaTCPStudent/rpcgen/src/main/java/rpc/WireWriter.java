@@ -0,0 +1,148 @@
+package rpc;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Purpose: Growable output buffer for the binary RPC encoding.
+ * ints and longs are zigzag varints, strings a varint byte length and
+ * UTF-8, a boolean a single byte and a String[] a count and the strings.
+ *
+ * frame:    MAGIC(1) length(varint) body
+ * request:  id(varint) method(varint) params
+ * response: id(varint) status(1) result | error message
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ * @author Tim Lindquist Tim.Lindquist@asu.edu
+ *         Software Engineering, CIDSE, IAFSE, ASU Poly
+ * @version April 2020
+ */
+public final class WireWriter {
+
+   /** first byte of every frame */
+   public static final int MAGIC = 0xB1;
+
+   private byte[] buf;
+   private int len;
+
+   public WireWriter() {
+      this(64);
+   }
+
+   public WireWriter(int capacity) {
+      buf = new byte[Math.max(8, capacity)];
+   }
+
+   public int size() {
+      return len;
+   }
+
+   public void reset() {
+      len = 0;
+   }
+
+   private void ensure(int n) {
+      if (len + n > buf.length) {
+         byte[] bigger = new byte[Math.max(buf.length * 2, len + n)];
+         System.arraycopy(buf, 0, bigger, 0, len);
+         buf = bigger;
+      }
+   }
+
+   public void writeByte(int b) {
+      ensure(1);
+      buf[len++] = (byte)b;
+   }
+
+   public void writeVarint(int v) {
+      ensure(5);
+      while ((v & ~0x7f) != 0) {
+         buf[len++] = (byte)((v & 0x7f) | 0x80);
+         v >>>= 7;
+      }
+      buf[len++] = (byte)v;
+   }
+
+   public void writeVarlong(long v) {
+      ensure(10);
+      while ((v & ~0x7fL) != 0) {
+         buf[len++] = (byte)((v & 0x7f) | 0x80);
+         v >>>= 7;
+      }
+      buf[len++] = (byte)v;
+   }
+
+   public void writeInt(int v) {
+      writeVarint((v << 1) ^ (v >> 31));
+   }
+
+   public void writeLong(long v) {
+      writeVarlong((v << 1) ^ (v >> 63));
+   }
+
+   public void writeDouble(double d) {
+      long bits = Double.doubleToRawLongBits(d);
+      ensure(8);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+         buf[len++] = (byte)(bits >>> shift);
+      }
+   }
+
+   public void writeBoolean(boolean b) {
+      writeByte(b ? 1 : 0);
+   }
+
+   public void writeString(String s) {
+      int n = s.length();
+      boolean ascii = true;
+      for (int i = 0; i < n && ascii; i++) {
+         ascii = s.charAt(i) < 0x80;
+      }
+      if (ascii) {
+         writeVarint(n);
+         ensure(n);
+         for (int i = 0; i < n; i++) {
+            buf[len++] = (byte)s.charAt(i);
+         }
+      } else {
+         byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+         writeVarint(bytes.length);
+         ensure(bytes.length);
+         System.arraycopy(bytes, 0, buf, len, bytes.length);
+         len += bytes.length;
+      }
+   }
+
+   public void writeStrings(String[] strs) {
+      writeVarint(strs.length);
+      for (String s : strs) {
+         writeString(s);
+      }
+   }
+
+   /**
+    * MAGIC, the varint length and the body in one array, ready for a
+    * single write.
+    */
+   public byte[] toFrame() {
+      int header = 2;
+      for (int v = len >>> 7; v != 0; v >>>= 7) header++;
+      byte[] frame = new byte[header + len];
+      frame[0] = (byte)MAGIC;
+      int p = 1;
+      int v = len;
+      while ((v & ~0x7f) != 0) {
+         frame[p++] = (byte)((v & 0x7f) | 0x80);
+         v >>>= 7;
+      }
+      frame[p++] = (byte)v;
+      System.arraycopy(buf, 0, frame, p, len);
+      return frame;
+   }
+
+   /** copy of the body without a frame header */
+   public byte[] toByteArray() {
+      byte[] ret = new byte[len];
+      System.arraycopy(buf, 0, ret, 0, len);
+      return ret;
+   }
+}
@@ -0,0 +1,88 @@
+package client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import rpc.LocalTransport;
+import server.Student;
+import server.StudentCollectionRpcProxy;
+import server.StudentCollectionRpcSkeleton;
+import server.StudentCollectionSkeleton;
+
+/**
+ * Purpose: Compares a full in-process call (client marshalling, server
+ * dispatch, client unmarshalling) through the handwritten JsonRPC path
+ * and through the binary proxy and skeleton generated from
+ * StudentCollection.
+ *
+ * gradle jmh
+ *
+ * @author Tim Lindquist ASU Polytechnic Department of Engineering
+ * @version April 2020
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DispatchBenchmark {
+
+   private StudentCollectionSkeleton handwritten;
+   private StudentCollectionRpcProxy generated;
+   private Student sample;
+
+   @Setup
+   public void setup() {
+      MemoryStudentCollection col = new MemoryStudentCollection();
+      for (int i = 0; i < 100; i++) {
+         col.add(new Student("Student"+i, i, new String[]{"Ser321","Ser423"}));
+      }
+      sample = new Student("JimBuffett", 50, new String[]{"Ser423","Ser321","Cse494","Ser598"});
+      col.add(sample);
+      handwritten = new StudentCollectionSkeleton(col);
+      generated = new StudentCollectionRpcProxy(
+         new LocalTransport(new StudentCollectionRpcSkeleton(col)));
+   }
+
+   @Benchmark
+   public Student getJson() {
+      String req = StudentTcpProxy.marshal("get", new Object[]{"JimBuffett"});
+      String resp = handwritten.callMethod(req);
+      return new Student(new JSONObject(resp).optJSONObject("result"));
+   }
+
+   @Benchmark
+   public Student getGenerated() {
+      return generated.get("JimBuffett");
+   }
+
+   @Benchmark
+   public String getNameByIdJson() {
+      String req = StudentTcpProxy.marshal("getNameById", new Object[]{99});
+      String resp = handwritten.callMethod(req);
+      return new JSONObject(resp).optString("result","unknown");
+   }
+
+   @Benchmark
+   public String getNameByIdGenerated() {
+      return generated.getNameById(99);
+   }
+
+   @Benchmark
+   public boolean addJson() {
+      String req = StudentTcpProxy.marshal("add", new Object[]{sample.toJson()});
+      String resp = handwritten.callMethod(req);
+      return new JSONObject(resp).optBoolean("result",false);
+   }
+
+   @Benchmark
+   public boolean addGenerated() {
+      return generated.add(sample);
+   }
+}
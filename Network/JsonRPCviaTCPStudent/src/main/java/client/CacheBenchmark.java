@@ -0,0 +1,74 @@
+package client;
+
+import java.util.Random;
+
+import server.Student;
+
+/**
+ * Purpose: Measures the StudentTcpProxy client cache against a running
+ * server. The same mix of reads (get, getNames, getNameById) with an
+ * occasional add is run once without and once with the cache, and the
+ * mean latency per call and the cache hit rate are printed.
+ *
+ * start the server, then:
+ * gradle runCacheBenchmark --args 'localhost 9099 5000 1000 50'
+ *
+ * @author Tim Lindquist ASU Polytechnic Department of Engineering
+ * @version April 2020
+ */
+public class CacheBenchmark extends Object {
+
+   private static double run(StudentTcpProxy sc, String[] names, int calls, int writeEvery) {
+      Random rand = new Random(42);
+      long start = System.nanoTime();
+      for (int i = 1; i <= calls; i++) {
+         int pick = rand.nextInt(10);
+         if (writeEvery > 0 && i % writeEvery == 0) {
+            sc.add(new Student("CacheWriter", 9000 + i, new String[]{"Ser321"}));
+         } else if (pick < 7) {
+            sc.get(names[rand.nextInt(names.length)]);
+         } else if (pick < 9) {
+            sc.getNames();
+         } else {
+            sc.getNameById(rand.nextInt(200));
+         }
+      }
+      return (System.nanoTime() - start) / 1e3 / calls;
+   }
+
+   public static void main(String args[]) {
+      String host = "localhost";
+      int port = 9099;
+      int calls = 5000;
+      long ttl = 1000;
+      int writeEvery = 50;
+      try {
+         if (args.length > 0) host = args[0];
+         if (args.length > 1) port = Integer.parseInt(args[1]);
+         if (args.length > 2) calls = Integer.parseInt(args[2]);
+         if (args.length > 3) ttl = Long.parseLong(args[3]);
+         if (args.length > 4) writeEvery = Integer.parseInt(args[4]);
+      } catch (NumberFormatException nfe) {
+         System.out.println("Expected Arguments: <host> <port(int)> [calls(int)] [ttlMillis(long)] [writeEvery(int)]");
+         System.exit(1);
+      }
+
+      StudentTcpProxy plain = new StudentTcpProxy(host, port);
+      // JsonRPC replies are read into 1024 bytes, so keep getNames small
+      for (int i = plain.getNames().length; i < 20; i++) {
+         plain.add(new Student("CacheStudent"+i, 100+i, new String[]{"Ser321","Ser423"}));
+      }
+      String[] names = plain.getNames();
+
+      double uncached = run(plain, names, calls, writeEvery);
+      System.out.printf("no cache:   %.1f us/call%n", uncached);
+
+      StudentTcpProxy cached = new StudentTcpProxy(host, port);
+      cached.enableCache(1000, ttl);
+      double withCache = run(cached, names, calls, writeEvery);
+      System.out.printf("with cache: %.1f us/call (%.0f%% less), ttl %d ms, a write every %d calls%n",
+                        withCache, (1 - withCache / uncached) * 100, ttl, writeEvery);
+      System.out.println("cache: "+cached.getCache().stats());
+      plain.remove("CacheWriter");
+   }
+}
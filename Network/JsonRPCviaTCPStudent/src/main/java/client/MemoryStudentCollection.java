@@ -0,0 +1,52 @@
+package client;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import server.Student;
+import server.StudentCollection;
+
+/**
+ * Purpose: Plain map backed StudentCollection for the benchmarks, so they
+ * measure marshalling and dispatch without touching the disk.
+ *
+ * @author Tim Lindquist ASU Polytechnic Department of Engineering
+ * @version April 2020
+ */
+class MemoryStudentCollection extends Object implements StudentCollection {
+
+   private final Map<String,Student> students = new HashMap<String,Student>();
+
+   public boolean saveToJsonFile() { return true; }
+
+   public boolean resetFromJsonFile() { return true; }
+
+   public boolean add(Student stud) {
+      students.put(stud.name, stud);
+      return true;
+   }
+
+   public boolean remove(String aName) {
+      return students.remove(aName) != null;
+   }
+
+   public Student get(String aName) {
+      Student s = students.get(aName);
+      return (s == null) ? new Student("unknown",0,new String[]{"empty"}) : s;
+   }
+
+   public String getNameById(int id) {
+      for (Student s : students.values()) {
+         if (s.studentid == id) return s.name;
+      }
+      return "unknown";
+   }
+
+   public String[] getNames() {
+      return students.keySet().toArray(new String[0]);
+   }
+
+   public long getVersion() {
+      return 0;
+   }
+}
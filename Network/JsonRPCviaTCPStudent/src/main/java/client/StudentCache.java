@@ -0,0 +1,148 @@
+package client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Purpose: Bounded read-through cache for StudentTcpProxy results.
+ * Every entry is stamped with the collection version the server reported
+ * when it was loaded. Entries are served without contacting the server
+ * for ttlMillis after the last validation; after that one getVersion call
+ * validates the whole cache, and a changed version drops every entry.
+ * So a cached value is never older than ttlMillis behind the server.
+ * Neither the validation nor a load holds the cache lock, so a slow call
+ * only delays its own caller. Cached Students are shared between callers
+ * and must not be modified.
+ *
+ * @author Tim Lindquist ASU Polytechnic Department of Engineering
+ * @version April 2020
+ */
+public class StudentCache extends Object {
+
+   /** Loads a value from the server on a miss, null if the call failed. */
+   public interface Loader<T> {
+      public T load();
+   }
+
+   private static class Entry {
+      final Object value;
+      final long version;
+
+      Entry(Object value, long version) {
+         this.value = value;
+         this.version = version;
+      }
+   }
+
+   private final int maxEntries;
+   private final long ttlNanos;
+   private final LongSupplier versionSource;
+   private final LinkedHashMap<String,Entry> entries;
+
+   // guarded by this
+   private long version = -1;
+   private long validatedAt = 0;
+   private long expirations = 0;
+   private long hits = 0;
+   private long misses = 0;
+   private long validations = 0;
+   private long invalidations = 0;
+
+   /**
+    * @param maxEntries    entries kept, least recently used are evicted
+    * @param ttlMillis     how long entries are trusted without asking the server
+    * @param versionSource asks the server for the current collection version
+    */
+   public StudentCache(int maxEntries, long ttlMillis, LongSupplier versionSource) {
+      this.maxEntries = maxEntries;
+      this.ttlNanos = ttlMillis * 1000000L;
+      this.versionSource = versionSource;
+      this.entries = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest) {
+            return size() > StudentCache.this.maxEntries;
+         }
+      };
+   }
+
+   /**
+    * The cached value for key, or what the loader returns. A null from the
+    * loader (a failed call) is returned but not cached.
+    */
+   @SuppressWarnings("unchecked")
+   public <T> T get(String key, Loader<T> loader) {
+      validate();
+      long stamp;
+      synchronized (this) {
+         Entry e = entries.get(key);
+         if (e != null && e.version == version && version >= 0) {
+            hits++;
+            return (T)e.value;
+         }
+         misses++;
+         stamp = version;
+      }
+      // load outside the lock so one slow call does not block other hits;
+      // the stamp is the version seen before loading, so a change that
+      // races with the load makes the next validation drop this entry
+      T value = loader.load();
+      synchronized (this) {
+         if (value != null && stamp == version && stamp >= 0) {
+            entries.put(key, new Entry(value, stamp));
+         }
+      }
+      return value;
+   }
+
+   // asks the server for the version once the ttl is up; the call is made
+   // without holding the lock, so hits go on while it is under way
+   private void validate() {
+      long now = System.nanoTime();
+      long expired;
+      synchronized (this) {
+         if (version >= 0 && now - validatedAt < ttlNanos) return;
+         expired = expirations;
+      }
+      long current = versionSource.getAsLong();
+      synchronized (this) {
+         validations++;
+         if (current < 0) {
+            // server version unknown (call failed), cache nothing until it answers
+            entries.clear();
+            version = -1;
+            return;
+         }
+         // versions only grow, an answer older than one another caller
+         // already applied changes nothing
+         if (current < version) return;
+         if (current != version) {
+            if (!entries.isEmpty()) invalidations++;
+            entries.clear();
+            version = current;
+         }
+         // an expire() while we asked may be a write our answer predates
+         if (expired == expirations) validatedAt = now;
+      }
+   }
+
+   /** drops one key, used after a write made through the same proxy */
+   public synchronized void invalidate(String key) {
+      entries.remove(key);
+   }
+
+   /** forces the next lookup to validate with the server */
+   public synchronized void expire() {
+      expirations++;
+      validatedAt = System.nanoTime() - ttlNanos;
+   }
+
+   public synchronized double hitRate() {
+      long total = hits + misses;
+      return (total == 0) ? 0.0 : (double)hits / total;
+   }
+
+   public synchronized String stats() {
+      return String.format("%d hits, %d misses (%.1f%% hit rate), %d validations, %d invalidations, %d entries",
+                           hits, misses, hitRate() * 100, validations, invalidations, entries.size());
+   }
+}
@@ -40,9 +40,11 @@ public class StudentCollectionClient extends Object {
             host = args[0];
             port = args[1];
          }
+         // optional third argument selects the compact binary encoding
+         boolean binary = args.length >= 3 && args[2].equalsIgnoreCase("binary");
          String url = "http://"+host+":"+port+"/";
-         System.out.println("Opening connection to: "+url);
-         StudentTcpProxy sc = (StudentTcpProxy)new StudentTcpProxy(host, Integer.parseInt(port));
+         System.out.println("Opening connection to: "+url+(binary ? " (binary)" : ""));
+         StudentTcpProxy sc = (StudentTcpProxy)new StudentTcpProxy(host, Integer.parseInt(port), binary);
 
          // get input
          BufferedReader stdin = new BufferedReader(
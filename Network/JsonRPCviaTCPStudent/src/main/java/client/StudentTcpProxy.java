@@ -2,6 +2,8 @@ package client;
 
 import server.Student;
 import server.StudentCollection;
+import server.StudentCollectionRpcProxy;
+import rpc.RpcException;
 import java.net.*;
 import java.io.*;
 import java.util.ArrayList;
@@ -14,6 +16,9 @@ import org.json.JSONArray;
  * by marshalling/unmarshalling parameters and results and using a TCP
  * connection to request the method be executed on the server.
  * Byte arrays are used for communication to support multiple langs.
+ * Calls are JsonRPC by default; a proxy created with binary set sends the
+ * more compact binary frames through the StudentCollectionRpcProxy that is
+ * generated from StudentCollection, so there is nothing to keep in sync.
  *
  * @author Tim Lindquist ASU Polytechnic Department of Engineering
  * @version April 2020
@@ -25,10 +30,31 @@ public class StudentTcpProxy extends Object implements StudentCollection {
    private static int id = 0;
    private String host;
    private int port;
+   private StudentCollectionRpcProxy binary = null;
+   private StudentCache cache = null;
    
    public StudentTcpProxy (String host, int port){
+      this(host, port, false);
+   }
+
+   public StudentTcpProxy (String host, int port, boolean binary){
       this.host = host;
       this.port = port;
+      if (binary) this.binary = new StudentCollectionRpcProxy(host, port);
+   }
+
+   /**
+    * Turns on the client cache for get, getNameById and getNames.
+    * @param maxEntries most entries kept
+    * @param ttlMillis  how long results are used before checking the
+    *                   collection version with the server again
+    */
+   public void enableCache(int maxEntries, long ttlMillis) {
+      cache = new StudentCache(maxEntries, ttlMillis, this::getVersion);
+   }
+
+   public StudentCache getCache() {
+      return cache;
    }
 
    private void debug(String message) {
@@ -36,6 +62,24 @@ public class StudentTcpProxy extends Object implements StudentCollection {
          System.out.println("debug: "+message);
    }
 
+   /**
+    * Builds the JsonRPC request string for a call
+    */
+   static String marshal(String method, Object[] params){
+      // create JSON RPC message
+      JSONObject theCall = new JSONObject();
+      theCall.put("method",method);
+      theCall.put("id",id);
+      theCall.put("jsonrpc","2.0");
+      ArrayList<Object> al = new ArrayList();
+      for (int i=0; i<params.length; i++){
+         al.add(params[i]);
+      }
+      JSONArray paramsJson = new JSONArray(al);
+      theCall.put("params",paramsJson);
+      return theCall.toString();
+   }
+
    /**
     * Generic method caller using TCP
     * @param method
@@ -43,20 +87,10 @@ public class StudentTcpProxy extends Object implements StudentCollection {
     * @return
     */
    public String callMethod(String method, Object[] params){
-      // create JSON RPC message
-      JSONObject theCall = new JSONObject();
       String ret = "{}";
       try{
-         debug("Request is: "+theCall.toString());
-         theCall.put("method",method);
-         theCall.put("id",id);
-         theCall.put("jsonrpc","2.0");
-         ArrayList<Object> al = new ArrayList();
-         for (int i=0; i<params.length; i++){
-            al.add(params[i]);
-         }
-         JSONArray paramsJson = new JSONArray(al);
-         theCall.put("params",paramsJson);
+         String strToSend = marshal(method, params);
+         debug("Request is: "+strToSend);
 
          // prep connection and the byte array
          Socket sock = new Socket(host,port);
@@ -64,7 +98,6 @@ public class StudentTcpProxy extends Object implements StudentCollection {
          InputStream is = sock.getInputStream();
          int numBytesReceived;
          int bufLen = 1024;
-         String strToSend = theCall.toString();
          byte bytesReceived[] = new byte[buffSize];
          byte bytesToSend[] = strToSend.getBytes();
 
@@ -85,7 +118,19 @@ public class StudentTcpProxy extends Object implements StudentCollection {
       return ret;
    }
 
+   private void binaryFailed(RpcException ex){
+      System.out.println("exception in binary call: "+ex.getMessage());
+   }
+
    public boolean saveToJsonFile() {
+      if (binary != null) {
+         try{
+            return binary.saveToJsonFile();
+         }catch(RpcException ex){
+            binaryFailed(ex);
+            return false;
+         }
+      }
       boolean ret = false;
       String result = callMethod("saveToJsonFile", new Object[]{});
       JSONObject res = new JSONObject(result);
@@ -94,6 +139,14 @@ public class StudentTcpProxy extends Object implements StudentCollection {
    }
    
    public boolean resetFromJsonFile() {
+      if (binary != null) {
+         try{
+            return binary.resetFromJsonFile();
+         }catch(RpcException ex){
+            binaryFailed(ex);
+            return false;
+         }
+      }
       boolean ret = false;
       String result = callMethod("resetFromJsonFile", new Object[]{});
       JSONObject res = new JSONObject(result);
@@ -102,6 +155,21 @@ public class StudentTcpProxy extends Object implements StudentCollection {
    }
    
    public boolean add(Student stud) {
+      boolean ret = remoteAdd(stud);
+      // our own write changed the version, the next read revalidates
+      if (cache != null) cache.expire();
+      return ret;
+   }
+
+   private boolean remoteAdd(Student stud) {
+      if (binary != null) {
+         try{
+            return binary.add(stud);
+         }catch(RpcException ex){
+            binaryFailed(ex);
+            return false;
+         }
+      }
       boolean ret = false;
       String result = callMethod("add", new Object[]{stud.toJson()});
       JSONObject res = new JSONObject(result);
@@ -110,6 +178,20 @@ public class StudentTcpProxy extends Object implements StudentCollection {
    }
    
    public boolean remove(String aName) {
+      boolean ret = remoteRemove(aName);
+      if (cache != null) cache.expire();
+      return ret;
+   }
+
+   private boolean remoteRemove(String aName) {
+      if (binary != null) {
+         try{
+            return binary.remove(aName);
+         }catch(RpcException ex){
+            binaryFailed(ex);
+            return false;
+         }
+      }
       boolean ret = false;
       String result = callMethod("remove", new Object[]{aName});
       JSONObject res = new JSONObject(result);
@@ -118,33 +200,91 @@ public class StudentTcpProxy extends Object implements StudentCollection {
    }
    
    public Student get(String aName) {
-      Student ret = new Student("unknown",-999, new String[]{"unknown"});
+      Student ret = (cache != null) ? cache.get("get\0"+aName, () -> remoteGet(aName))
+                                    : remoteGet(aName);
+      return (ret != null) ? ret : new Student("unknown",-999, new String[]{"unknown"});
+   }
+
+   // null when the call failed, so the cache does not keep it
+   private Student remoteGet(String aName) {
+      Student ret = null;
+      if (binary != null) {
+         try{
+            ret = binary.get(aName);
+         }catch(RpcException ex){
+            binaryFailed(ex);
+         }
+         return ret;
+      }
       String result = callMethod("get", new Object[]{aName});
       JSONObject res = new JSONObject(result);
       JSONObject studJson = res.optJSONObject("result");
-      ret = new Student(studJson);
+      if (studJson != null) ret = new Student(studJson);
       return ret;
    }
    
    public String getNameById(int id) {
-      String ret = "unknown";
+      String ret = (cache != null) ? cache.get("getNameById\0"+id, () -> remoteGetNameById(id))
+                                   : remoteGetNameById(id);
+      return (ret != null) ? ret : "unknown";
+   }
+
+   private String remoteGetNameById(int id) {
+      String ret = null;
+      if (binary != null) {
+         try{
+            ret = binary.getNameById(id);
+         }catch(RpcException ex){
+            binaryFailed(ex);
+         }
+         return ret;
+      }
       String result = callMethod("getNameById", new Object[]{id});
       JSONObject res = new JSONObject(result);
-      ret = res.optString("result","unknown");
+      ret = res.optString("result",null);
       return ret;
    }
    
    public String[] getNames() {
-      String[] ret = new String[]{};
+      String[] ret = (cache != null) ? cache.get("getNames", this::remoteGetNames) : remoteGetNames();
+      return (ret != null) ? ret.clone() : new String[]{};
+   }
+
+   private String[] remoteGetNames() {
+      String[] ret = null;
+      if (binary != null) {
+         try{
+            ret = binary.getNames();
+         }catch(RpcException ex){
+            binaryFailed(ex);
+         }
+         return ret;
+      }
       String result = callMethod("getNames", new Object[0]);
       debug("result of getNames is: "+result);
       JSONObject res = new JSONObject(result);
       JSONArray namesJson = res.optJSONArray("result");
+      if (namesJson == null) return null;
       ret = new String[namesJson.length()];
       for (int i=0; i<namesJson.length(); i++){
          ret[i] = namesJson.optString(i,"unknown");
       }
       return ret;
    }
-}
 
+   public long getVersion() {
+      long ret = -1;
+      if (binary != null) {
+         try{
+            ret = binary.getVersion();
+         }catch(RpcException ex){
+            binaryFailed(ex);
+         }
+         return ret;
+      }
+      String result = callMethod("getVersion", new Object[0]);
+      JSONObject res = new JSONObject(result);
+      ret = res.optLong("result",-1);
+      return ret;
+   }
+}
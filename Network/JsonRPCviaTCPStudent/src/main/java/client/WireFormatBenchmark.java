@@ -0,0 +1,135 @@
+package client;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import rpc.LocalTransport;
+import rpc.RpcTransport;
+import server.Student;
+import server.StudentCollectionRpcProxy;
+import server.StudentCollectionRpcSkeleton;
+import server.StudentCollectionSkeleton;
+
+/**
+ * Purpose: Compares the JsonRPC and binary encodings of StudentCollection
+ * calls. Each call is marshalled the way StudentTcpProxy does it, run
+ * through the JsonRPC StudentCollectionSkeleton or the generated
+ * StudentCollectionRpcSkeleton against an in-memory collection and
+ * unmarshalled again, without a socket, so the numbers are the bytes on
+ * the wire and the CPU spent encoding and decoding per call.
+ *
+ * gradle runWireBenchmark --args '200000 100'
+ *
+ * @author Tim Lindquist ASU Polytechnic Department of Engineering
+ * @version April 2020
+ */
+public class WireFormatBenchmark extends Object {
+
+   private interface Call {
+      long run(int i) throws Exception; // returns bytes on the wire
+   }
+
+   // hands frames to the skeleton like LocalTransport and counts the bytes
+   // both frames would take on the wire
+   private static class CountingTransport implements RpcTransport {
+      private final LocalTransport local;
+      long bytes;
+
+      CountingTransport(LocalTransport local) {
+         this.local = local;
+      }
+
+      public byte[] exchange(byte[] requestFrame) throws IOException {
+         byte[] body = local.exchange(requestFrame);
+         int header = 2; // MAGIC and the varint length
+         for (int v = body.length >>> 7; v != 0; v >>>= 7) header++;
+         bytes += requestFrame.length + header + body.length;
+         return body;
+      }
+   }
+
+   private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+   private static void measure(String label, int iterations, Call call) throws Exception {
+      for (int i = 0; i < iterations / 10; i++) call.run(i);   // warm up
+      long bytes = 0;
+      long cpu = threadBean.getCurrentThreadCpuTime();
+      for (int i = 0; i < iterations; i++) bytes += call.run(i);
+      cpu = threadBean.getCurrentThreadCpuTime() - cpu;
+      System.out.printf("%-22s %8d bytes/call %10.0f ns cpu/call%n",
+                        label, bytes / iterations, (double)cpu / iterations);
+   }
+
+   public static void main(String args[]) throws Exception {
+      int iterations = 200000;
+      int names = 100;
+      if (args.length > 0) iterations = Integer.parseInt(args[0]);
+      if (args.length > 1) names = Integer.parseInt(args[1]);
+
+      MemoryStudentCollection col = new MemoryStudentCollection();
+      for (int i = 0; i < names; i++) {
+         col.add(new Student("Student"+i, i, new String[]{"Ser321","Ser423"}));
+      }
+      StudentCollectionSkeleton skel = new StudentCollectionSkeleton(col);
+      final Student sample = new Student("JimBuffett", 50,
+                                         new String[]{"Ser423","Ser321","Cse494","Ser598"});
+      final int lastId = names - 1;
+
+      // JsonRPC, marshalled like StudentTcpProxy.callMethod
+      measure("json add", iterations, i -> {
+         byte[] req = StudentTcpProxy.marshal("add", new Object[]{sample.toJson()}).getBytes();
+         byte[] resp = skel.callMethod(new String(req)).getBytes();
+         new JSONObject(new String(resp)).optBoolean("result", false);
+         return req.length + resp.length;
+      });
+      measure("json get", iterations, i -> {
+         byte[] req = StudentTcpProxy.marshal("get", new Object[]{"JimBuffett"}).getBytes();
+         byte[] resp = skel.callMethod(new String(req)).getBytes();
+         new Student(new JSONObject(new String(resp)).optJSONObject("result"));
+         return req.length + resp.length;
+      });
+      measure("json getNameById", iterations, i -> {
+         byte[] req = StudentTcpProxy.marshal("getNameById", new Object[]{lastId}).getBytes();
+         byte[] resp = skel.callMethod(new String(req)).getBytes();
+         new JSONObject(new String(resp)).optString("result", "unknown");
+         return req.length + resp.length;
+      });
+      measure("json getNames", iterations / 10, i -> {
+         byte[] req = StudentTcpProxy.marshal("getNames", new Object[0]).getBytes();
+         byte[] resp = skel.callMethod(new String(req)).getBytes();
+         JSONArray arr = new JSONObject(new String(resp)).optJSONArray("result");
+         String[] ret = new String[arr.length()];
+         for (int j = 0; j < ret.length; j++) ret[j] = arr.optString(j, "unknown");
+         return req.length + resp.length;
+      });
+
+      // binary frames, through the generated proxy as StudentTcpProxy uses it
+      CountingTransport wire = new CountingTransport(
+         new LocalTransport(new StudentCollectionRpcSkeleton(col)));
+      StudentCollectionRpcProxy proxy = new StudentCollectionRpcProxy(wire);
+      measure("binary add", iterations, i -> {
+         wire.bytes = 0;
+         proxy.add(sample);
+         return wire.bytes;
+      });
+      measure("binary get", iterations, i -> {
+         wire.bytes = 0;
+         proxy.get("JimBuffett");
+         return wire.bytes;
+      });
+      measure("binary getNameById", iterations, i -> {
+         wire.bytes = 0;
+         proxy.getNameById(lastId);
+         return wire.bytes;
+      });
+      measure("binary getNames", iterations / 10, i -> {
+         wire.bytes = 0;
+         proxy.getNames();
+         return wire.bytes;
+      });
+   }
+}
@@ -1,13 +1,19 @@
 package server;
 
+import rpc.RpcService;
+
 /**
- * Purpose: StudentCollection defines the interface to the server operations
+ * Purpose: StudentCollection defines the interface to the server operations.
+ * The binary StudentCollectionRpcSkeleton and StudentCollectionRpcProxy are
+ * generated from it at compile time; keep new methods at the end so the
+ * method ids of existing clients do not change.
  *
  * Ser321 Distributed Apps, and Ser423 Mobile Apps
  * @author Tim Lindquist Tim.Lindquist@asu.edu
  *         Software Engineering, CIDSE, IAFSE, ASU Poly
  * @version April 2020
  */
+@RpcService(types = {StudentWireType.class})
 public interface StudentCollection {
    public boolean saveToJsonFile();
    public boolean resetFromJsonFile();
@@ -16,4 +22,5 @@ public interface StudentCollection {
    public Student get(String aName);
    public String getNameById(int id);
    public String[] getNames();
+   public long getVersion();
 }
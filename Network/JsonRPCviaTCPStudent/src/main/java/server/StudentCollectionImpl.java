@@ -1,138 +1,280 @@
-package server;
-
-import java.util.Hashtable;
-import java.util.Iterator;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.PrintWriter;
-import java.util.Vector;
-import java.util.Enumeration;
-
-import org.json.JSONObject;
-import org.json.JSONTokener;
-
-import java.io.IOException;
-
-/**
- * Purpose: This class is part of an example developed to demonstrate distributed
- * and mobile apps connecting to a JsonRPC server where the client and server
- * communicate using TCP/IP stream-based sockets.
- *
- * @author Tim Lindquist
- * @version April 2020
- *
- **/
-class StudentCollectionImpl extends Object implements StudentCollection{
-
-   public Hashtable<String,Student> students;
-   private static final boolean debugOn = false;
-   private static final String studentJsonFileName = "students.json";
-
-   public StudentCollectionImpl() {
-      debug("creating a new student collection");
-      students = new Hashtable<String,Student>();
-      try{
-         this.resetFromJsonFile();
-      }catch(Exception ex){
-         System.out.println("error resetting from students json file"+
-                            ex.getMessage());
-      }
-   }
-
-   private void debug(String message) {
-      if (debugOn)
-         System.out.println("debug: "+message);
-   }
-
-   public boolean resetFromJsonFile() {
-      boolean ret = true;
-      try{
-         students.clear();
-         String fileName = studentJsonFileName;
-         File f = new File(fileName);
-         FileInputStream is = new FileInputStream(f);
-         JSONObject studentMap = new JSONObject(new JSONTokener(is));
-         Iterator<String> it = studentMap.keys();
-         while (it.hasNext()){
-            String mType = it.next();
-            JSONObject studentJson = studentMap.optJSONObject(mType);
-            Student stud = new Student(studentJson);
-            students.put(stud.name, stud);
-            debug("added "+stud.name+" : "+stud.toJsonString()+
-                  "\nstudents.size() is: " + students.size());
-         }
-      }catch (Exception ex){
-         System.out.println("Exception reading json file: "+ex.getMessage());
-         ret = false;
-      }
-      return ret;
-   }
-
-   public boolean saveToJsonFile() {
-      boolean ret = true;
-      try {
-         String jsonStr;
-         JSONObject obj = new JSONObject();
-         for (Enumeration<String> e = students.keys(); e.hasMoreElements();){
-            Student aStud = students.get((String)e.nextElement());
-            obj.put(aStud.name,aStud.toJson());
-         }
-         PrintWriter out = new PrintWriter(studentJsonFileName);
-         out.println(obj.toString(2));
-         out.close();
-      }catch(Exception ex){
-         ret = false;
-      }
-      return ret;
-   }
-   
-   public boolean add(Student aStud) {
-      boolean ret = true;
-      debug("adding student named: "+((aStud==null)?"unknown":aStud.name));
-      try{
-         students.put(aStud.name,aStud);
-      }catch(Exception ex){
-         ret = false;
-      }
-      return ret;
-   }
-
-   public boolean remove(String aName) {
-      debug("removing student named: "+aName);
-      return ((students.remove(aName)==null)?false:true);
-   }
-
-   public String[] getNames() {
-      String[] ret = {};
-      debug("getting "+students.size()+" student names.");
-      if(students.size()>0){
-         ret = (String[])(students.keySet()).toArray(new String[0]);
-      }
-      return ret;
-   }
-   
-   public String getNameById(int id) {
-      String ret = "unknown";
-      String[] keys = (String[])(students.keySet()).toArray(new String[0]);
-      for (int i=0; i< keys.length; i++){
-         Student aStud = students.get(keys[i]);
-         if (aStud.studentid==id){
-            ret = aStud.name;
-            break;
-         }
-      }
-      return ret;
-   }
-   
-   public Student get(String aName) {
-      Student ret = new Student("unknown",0,new String[]{"empty"});
-      Student aStud = students.get(aName);
-      if (aStud != null) {
-         ret = aStud;
-      }
-      return ret;
-   }
-
-}
+package server;
+
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.PrintWriter;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Purpose: This class is part of an example developed to demonstrate distributed
+ * and mobile apps connecting to a JsonRPC server where the client and server
+ * communicate using TCP/IP stream-based sockets.
+ *
+ * Changes are made durable through an append-only StudentLog. students.json
+ * is the compacted snapshot: saveToJsonFile writes a new snapshot and starts
+ * an empty log, resetFromJsonFile loads the snapshot (with the streaming
+ * StudentJsonLoader) and replays the log.
+ * A compaction also runs in the background once the log reaches
+ * compactThreshold records.
+ *
+ * @author Tim Lindquist
+ * @version April 2020
+ *
+ **/
+class StudentCollectionImpl extends Object implements StudentCollection{
+
+   public Hashtable<String,Student> students;
+   private static final boolean debugOn = false;
+   private static final String studentJsonFileName = "students.json";
+   private static final String studentLogFileName = "students.log";
+   private static final long defaultCompactThreshold = 100000;
+
+   private final String snapshotFileName;
+   private final StudentLog log;
+   private final long compactThreshold;
+   private final AtomicBoolean compacting = new AtomicBoolean(false);
+   // held for a whole compaction or reset, taken before the students lock;
+   // add and remove only need the students lock, so they are not held up
+   private final Object compactionLock = new Object();
+   // bumped on every change so clients can tell whether their cache is current.
+   // Seeded from the start time, so a restarted server never hands out a
+   // version an earlier run already used (that would take over a million
+   // changes per millisecond of uptime)
+   private final AtomicLong version = new AtomicLong(System.currentTimeMillis() << 20);
+
+   public StudentCollectionImpl() {
+      this(studentJsonFileName, studentLogFileName, defaultCompactThreshold);
+   }
+
+   public StudentCollectionImpl(String snapshotFileName, String logFileName,
+                                long compactThreshold) {
+      debug("creating a new student collection");
+      this.snapshotFileName = snapshotFileName;
+      this.compactThreshold = compactThreshold;
+      students = new Hashtable<String,Student>();
+      log = new StudentLog(logFileName);
+      if (!this.resetFromJsonFile()) {
+         System.out.println("error resetting from students json file");
+      }
+      try{
+         log.open();
+      }catch(IOException ex){
+         // without the log no change could ever be acknowledged
+         throw new UncheckedIOException("cannot open student log "+logFileName, ex);
+      }
+   }
+
+   private void debug(String message) {
+      if (debugOn)
+         System.out.println("debug: "+message);
+   }
+
+   public boolean resetFromJsonFile() {
+      boolean ret = true;
+      synchronized (compactionLock) {
+         synchronized (students) {
+            version.incrementAndGet();
+            students.clear();
+            ret = loadSnapshot();
+            try{
+               // everything acknowledged so far has to be on disk before replay
+               log.sync();
+               long n = log.replay(students);
+               debug("replayed "+n+" log records, students.size() is: "+students.size());
+            }catch (Exception ex){
+               System.out.println("Exception replaying student log: "+ex.getMessage());
+               ret = false;
+            }
+         }
+      }
+      return ret;
+   }
+
+   private boolean loadSnapshot() {
+      boolean ret = true;
+      File f = new File(snapshotFileName);
+      if (!f.exists()) {
+         debug("no snapshot "+snapshotFileName+", starting empty");
+         return ret;
+      }
+      try {
+         StudentJsonLoader loader = new StudentJsonLoader();
+         loader.load(f, students);
+         System.out.println("Loaded "+loader.stats());
+      }catch (Exception ex){
+         System.out.println("Exception reading json file: "+ex.getMessage());
+         ret = false;
+      }
+      return ret;
+   }
+
+   /**
+    * Compacts the log: copies the collection and starts an empty log at the
+    * same instant, writes the copy as the new students.json snapshot and
+    * then drops the old log. Clients keep adding and removing while the
+    * snapshot is written; other compactions and resets wait for it.
+    */
+   public boolean saveToJsonFile() {
+      boolean ret = true;
+      synchronized (compactionLock) {
+         try {
+            Map<String,Student> copy;
+            synchronized (students) {
+               copy = new HashMap<String,Student>(students);
+               log.rotate();
+            }
+            writeSnapshot(copy);
+            log.discardRotated();
+         }catch(Exception ex){
+            System.out.println("Exception writing snapshot: "+ex.getMessage());
+            ret = false;
+         }
+      }
+      return ret;
+   }
+
+   // one compact student per line, written to a temp file, forced and then
+   // renamed over the previous snapshot so a crash never leaves half a file
+   private void writeSnapshot(Map<String,Student> copy) throws IOException {
+      File tmp = new File(snapshotFileName + ".tmp");
+      FileOutputStream fos = new FileOutputStream(tmp);
+      try (BufferedWriter out = new BufferedWriter(
+              new OutputStreamWriter(fos, StandardCharsets.UTF_8), 1 << 16)) {
+         out.write("{");
+         boolean first = true;
+         for (Student aStud : copy.values()) {
+            if (!first) out.write(",");
+            first = false;
+            out.newLine();
+            out.write(JSONObject.quote(aStud.name));
+            out.write(":");
+            out.write(aStud.toJsonString());
+         }
+         out.newLine();
+         out.write("}");
+         out.newLine();
+         out.flush();
+         fos.getFD().sync();
+      }
+      Files.move(tmp.toPath(), new File(snapshotFileName).toPath(),
+                 StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   }
+
+   private void compactIfNeeded() {
+      if (log.recordCount() < compactThreshold || !compacting.compareAndSet(false, true)) {
+         return;
+      }
+      Thread t = new Thread(() -> {
+         try {
+            debug("compacting "+log.recordCount()+" log records");
+            saveToJsonFile();
+         } finally {
+            compacting.set(false);
+         }
+      }, "student-log-compactor");
+      t.setDaemon(true);
+      t.start();
+   }
+
+   public boolean add(Student aStud) {
+      boolean ret = true;
+      debug("adding student named: "+((aStud==null)?"unknown":aStud.name));
+      try{
+         long seq;
+         synchronized (students) {
+            // logged first, a failed append leaves the map as it was
+            seq = log.appendAdd(aStud);
+            students.put(aStud.name,aStud);
+            version.incrementAndGet();
+         }
+         log.awaitDurable(seq);
+         compactIfNeeded();
+      }catch(Exception ex){
+         ret = false;
+      }
+      return ret;
+   }
+
+   public boolean remove(String aName) {
+      debug("removing student named: "+aName);
+      boolean ret = false;
+      try{
+         long seq;
+         synchronized (students) {
+            if (!students.containsKey(aName)) {
+               return false;
+            }
+            seq = log.appendRemove(aName);
+            students.remove(aName);
+            version.incrementAndGet();
+         }
+         log.awaitDurable(seq);
+         compactIfNeeded();
+         ret = true;
+      }catch(Exception ex){
+         ret = false;
+      }
+      return ret;
+   }
+
+   public void close() throws IOException {
+      log.close();
+   }
+
+   public String[] getNames() {
+      String[] ret = {};
+      debug("getting "+students.size()+" student names.");
+      if(students.size()>0){
+         ret = (String[])(students.keySet()).toArray(new String[0]);
+      }
+      return ret;
+   }
+   
+   public String getNameById(int id) {
+      String ret = "unknown";
+      String[] keys = (String[])(students.keySet()).toArray(new String[0]);
+      for (int i=0; i< keys.length; i++){
+         Student aStud = students.get(keys[i]);
+         if (aStud.studentid==id){
+            ret = aStud.name;
+            break;
+         }
+      }
+      return ret;
+   }
+   
+   public long getVersion() {
+      return version.get();
+   }
+
+   public Student get(String aName) {
+      Student ret = new Student("unknown",0,new String[]{"empty"});
+      Student aStud = students.get(aName);
+      if (aStud != null) {
+         ret = aStud;
+      }
+      return ret;
+   }
+
+}
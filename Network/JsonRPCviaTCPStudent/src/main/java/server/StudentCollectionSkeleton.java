@@ -73,6 +73,8 @@ public class StudentCollectionSkeleton extends Object {
             }
             debug("getNames request found: "+resArr.toString());
             result.put("result",resArr);
+         }else if(method.equals("getVersion")){
+            result.put("result",studLib.getVersion());
          }else{
             debug("Unable to match method: "+method+". Returning 0.");
             result.put("result",0.0);
@@ -83,4 +85,3 @@ public class StudentCollectionSkeleton extends Object {
       return result.toString();
    }
 }
-
@@ -0,0 +1,404 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Purpose: Streaming loader for students.json.
+ * The file is memory mapped and Student records are built straight from the
+ * bytes with a small pull parser, so no JSONObject tree is held in memory
+ * next to the students. Large files are cut into chunks at record
+ * boundaries and the chunks are parsed in parallel.
+ *
+ * A record boundary is a newline followed by "key" : { . JSON strings can
+ * not hold a raw newline and a student holds no nested objects, so in a
+ * students file that pattern only matches at the start of a top level
+ * entry. Both the compact snapshot (one student per line) and the old
+ * pretty printed file split this way; a file on a single line is parsed
+ * as one chunk.
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ * @author Tim Lindquist Tim.Lindquist@asu.edu
+ *         Software Engineering, CIDSE, IAFSE, ASU Poly
+ * @version April 2020
+ */
+class StudentJsonLoader {
+
+   private static final boolean debugOn = false;
+   private static final int minChunkSize = 4 << 20;
+
+   private final int threads;
+
+   // statistics of the last load
+   private long bytes;
+   private long records;
+   private long nanos;
+
+   public StudentJsonLoader() {
+      this(Runtime.getRuntime().availableProcessors());
+   }
+
+   public StudentJsonLoader(int threads) {
+      this.threads = Math.max(1, threads);
+   }
+
+   private void debug(String message) {
+      if (debugOn)
+         System.out.println("debug: "+message);
+   }
+
+   /**
+    * Loads every student in the file into the map, keyed by name.
+    * @return number of records read
+    */
+   public long load(File f, Map<String,Student> into) throws IOException {
+      long start = System.nanoTime();
+      try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+         long size = ch.size();
+         if (size > Integer.MAX_VALUE) {
+            throw new IOException(f.getName()+" is larger than 2GB");
+         }
+         MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+         int len = (int)size;
+         int open = skipWs(buf, 0, len);
+         if (open >= len) {
+            throw new IOException("empty students file");
+         }
+         if (buf.get(open) != '{') {
+            throw new IOException("expected { at offset "+open);
+         }
+         int[] cuts = chunkStarts(buf, open + 1, len);
+         debug("parsing "+f.getName()+" in "+(cuts.length-1)+" chunks");
+
+         List<List<Student>> parts = new ArrayList<List<Student>>();
+         if (cuts.length == 2) {
+            parts.add(new Chunk(buf, cuts[0], cuts[1]).parse());
+         } else {
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, cuts.length-1));
+            try {
+               List<Future<List<Student>>> futures = new ArrayList<Future<List<Student>>>();
+               for (int i = 0; i < cuts.length-1; i++) {
+                  // absolute gets only, so the chunks can share one buffer
+                  final Chunk c = new Chunk(buf, cuts[i], cuts[i+1]);
+                  futures.add(pool.submit(c::parse));
+               }
+               for (Future<List<Student>> fut : futures) {
+                  parts.add(fut.get());
+               }
+            } catch (Exception ex) {
+               Throwable cause = (ex.getCause() != null) ? ex.getCause() : ex;
+               if (cause instanceof IOException) throw (IOException)cause;
+               throw new IOException(cause.getMessage(), cause);
+            } finally {
+               pool.shutdown();
+            }
+         }
+         // merge in file order so a repeated name keeps its last entry
+         long n = 0;
+         for (List<Student> part : parts) {
+            for (Student s : part) {
+               into.put(s.name, s);
+            }
+            n += part.size();
+         }
+         bytes = len;
+         records = n;
+         nanos = System.nanoTime() - start;
+         return n;
+      }
+   }
+
+   public String stats() {
+      double secs = nanos / 1e9;
+      return String.format("%d students, %.1f MB in %.0f ms (%.1f MB/s, %.0f records/s)",
+                           records, bytes / 1e6, nanos / 1e6,
+                           (secs > 0) ? bytes / 1e6 / secs : 0.0,
+                           (secs > 0) ? records / secs : 0.0);
+   }
+
+   // offsets where each chunk begins, plus the end of the file
+   private int[] chunkStarts(ByteBuffer buf, int from, int len) {
+      List<Integer> cuts = new ArrayList<Integer>();
+      cuts.add(from);
+      int chunks = (len < 2 * minChunkSize) ? 1 : Math.min(threads * 4, len / minChunkSize);
+      int step = len / chunks;
+      for (int i = 1; i < chunks; i++) {
+         int pos = Math.max(step * i, cuts.get(cuts.size()-1) + 1);
+         int cut = nextRecordStart(buf, pos, len);
+         if (cut < 0) break;
+         if (cut > cuts.get(cuts.size()-1)) cuts.add(cut);
+      }
+      cuts.add(len);
+      int[] ret = new int[cuts.size()];
+      for (int i = 0; i < ret.length; i++) ret[i] = cuts.get(i);
+      return ret;
+   }
+
+   // first newline at or after pos that is followed by  "key" : {
+   private static int nextRecordStart(ByteBuffer buf, int pos, int len) {
+      for (int i = pos; i < len; i++) {
+         if (buf.get(i) != '\n') continue;
+         int p = skipWs(buf, i + 1, len);
+         if (p >= len || buf.get(p) != '"') continue;
+         p++;
+         while (p < len && buf.get(p) != '"' && buf.get(p) != '\n') {
+            if (buf.get(p) == '\\') p++;
+            p++;
+         }
+         if (p >= len || buf.get(p) != '"') continue;
+         p = skipWs(buf, p + 1, len);
+         if (p >= len || buf.get(p) != ':') continue;
+         p = skipWs(buf, p + 1, len);
+         if (p < len && buf.get(p) == '{') return i;
+      }
+      return -1;
+   }
+
+   private static int skipWs(ByteBuffer buf, int p, int len) {
+      while (p < len) {
+         byte b = buf.get(p);
+         if (b != ' ' && b != '\n' && b != '\r' && b != '\t') break;
+         p++;
+      }
+      return p;
+   }
+
+   /**
+    * Parses the top level entries between start and end. The region begins
+    * just before a "key": entry (or just after the opening brace) and ends
+    * just before the next one (or at the end of the file).
+    */
+   private static class Chunk {
+      private final ByteBuffer buf;
+      private final int end;
+      private int pos;
+      private byte[] scratch = new byte[64];
+
+      Chunk(ByteBuffer buf, int start, int end) {
+         this.buf = buf;
+         this.pos = start;
+         this.end = end;
+      }
+
+      List<Student> parse() throws IOException {
+         List<Student> out = new ArrayList<Student>();
+         while (true) {
+            ws();
+            if (pos >= end) break;
+            byte b = buf.get(pos);
+            if (b == ',') {
+               pos++;
+               continue;
+            }
+            if (b == '}') {
+               pos++;
+               ws();
+               if (pos < end) throw error("trailing data after students object");
+               break;
+            }
+            string();           // the map key, the student carries its own name
+            expect(':');
+            out.add(student());
+         }
+         return out;
+      }
+
+      private Student student() throws IOException {
+         String name = "unknown";
+         int studentid = 0;
+         List<String> takes = new ArrayList<String>();
+         ws();
+         if (peek() == 'n' && matchLiteral("null")) {
+            return new Student(name, studentid, new String[0]);
+         }
+         expect('{');
+         ws();
+         if (peek() == '}') {
+            pos++;
+         } else {
+            while (true) {
+               String key = string();
+               expect(':');
+               ws();
+               if (key.equals("name") && peek() == '"') {
+                  name = string();
+               } else if (key.equals("studentid") && (peek() == '-' || isDigit(peek()))) {
+                  studentid = (int)number();
+               } else if (key.equals("takes") && peek() == '[') {
+                  pos++;
+                  ws();
+                  if (peek() == ']') {
+                     pos++;
+                  } else {
+                     while (true) {
+                        ws();
+                        takes.add(string());
+                        ws();
+                        byte b = next();
+                        if (b == ']') break;
+                        if (b != ',') throw error("expected , or ] in takes");
+                     }
+                  }
+               } else {
+                  skipValue();
+               }
+               ws();
+               byte b = next();
+               if (b == '}') break;
+               if (b != ',') throw error("expected , or } in student");
+               ws();
+            }
+         }
+         return new Student(name, studentid, takes.toArray(new String[0]));
+      }
+
+      private String string() throws IOException {
+         ws();
+         if (next() != '"') throw error("expected string");
+         int n = 0;
+         while (true) {
+            if (pos >= buf.limit()) throw error("unterminated string");
+            byte b = buf.get(pos++);
+            if (b == '"') break;
+            if (b == '\\') {
+               byte e = buf.get(pos++);
+               int c;
+               switch (e) {
+               case 'n': c = '\n'; break;
+               case 't': c = '\t'; break;
+               case 'r': c = '\r'; break;
+               case 'b': c = '\b'; break;
+               case 'f': c = '\f'; break;
+               case 'u':
+                  c = Integer.parseInt(ascii(pos, 4), 16);
+                  pos += 4;
+                  break;
+               default: c = e;
+               }
+               if (c < 0x80) {
+                  n = put(n, (byte)c);
+               } else {
+                  // escaped code unit: re-encode through a String to get the UTF-8 bytes
+                  String chars = String.valueOf((char)c);
+                  if (Character.isHighSurrogate((char)c) && pos + 6 <= buf.limit()
+                      && buf.get(pos) == '\\' && buf.get(pos + 1) == 'u') {
+                     chars += (char)Integer.parseInt(ascii(pos + 2, 4), 16);
+                     pos += 6;
+                  }
+                  for (byte u : chars.getBytes(StandardCharsets.UTF_8)) {
+                     n = put(n, u);
+                  }
+               }
+            } else {
+               n = put(n, b);
+            }
+         }
+         return new String(scratch, 0, n, StandardCharsets.UTF_8);
+      }
+
+      private int put(int n, byte b) {
+         if (n == scratch.length) {
+            byte[] bigger = new byte[scratch.length * 2];
+            System.arraycopy(scratch, 0, bigger, 0, n);
+            scratch = bigger;
+         }
+         scratch[n] = b;
+         return n + 1;
+      }
+
+      private long number() throws IOException {
+         int start = pos;
+         boolean neg = false;
+         if (peek() == '-') {
+            neg = true;
+            pos++;
+         }
+         long v = 0;
+         while (pos < buf.limit() && isDigit(buf.get(pos))) {
+            v = v * 10 + (buf.get(pos++) - '0');
+         }
+         // studentid is an int, but accept a fraction or exponent like JSONObject.optInt does
+         if (pos < buf.limit() && (buf.get(pos) == '.' || buf.get(pos) == 'e' || buf.get(pos) == 'E')) {
+            while (pos < buf.limit() && "+-.eE0123456789".indexOf(buf.get(pos)) >= 0) pos++;
+            return (long)Double.parseDouble(ascii(start, pos - start));
+         }
+         return neg ? -v : v;
+      }
+
+      private void skipValue() throws IOException {
+         ws();
+         byte b = peek();
+         if (b == '"') {
+            string();
+         } else if (b == '{' || b == '[') {
+            int depth = 0;
+            do {
+               b = next();
+               if (b == '"') {
+                  pos--;
+                  string();
+               } else if (b == '{' || b == '[') {
+                  depth++;
+               } else if (b == '}' || b == ']') {
+                  depth--;
+               }
+            } while (depth > 0);
+         } else {
+            while (pos < buf.limit() && ",}] \n\r\t".indexOf(buf.get(pos)) < 0) pos++;
+         }
+      }
+
+      private boolean matchLiteral(String lit) {
+         for (int i = 0; i < lit.length(); i++) {
+            if (pos + i >= buf.limit() || buf.get(pos + i) != lit.charAt(i)) return false;
+         }
+         pos += lit.length();
+         return true;
+      }
+
+      private String ascii(int at, int n) {
+         char[] c = new char[n];
+         for (int i = 0; i < n; i++) c[i] = (char)buf.get(at + i);
+         return new String(c);
+      }
+
+      private static boolean isDigit(byte b) {
+         return b >= '0' && b <= '9';
+      }
+
+      private void ws() {
+         pos = skipWs(buf, pos, buf.limit());
+      }
+
+      private byte peek() throws IOException {
+         if (pos >= buf.limit()) throw error("unexpected end of file");
+         return buf.get(pos);
+      }
+
+      private byte next() throws IOException {
+         byte b = peek();
+         pos++;
+         return b;
+      }
+
+      private void expect(char c) throws IOException {
+         ws();
+         if (next() != c) throw error("expected "+c);
+      }
+
+      private IOException error(String message) {
+         return new IOException(message+" at offset "+pos);
+      }
+   }
+}
@@ -0,0 +1,357 @@
+package server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Purpose: Append-only mutation log for the student collection.
+ * Every add and remove is appended as a small binary record so a save
+ * no longer has to rewrite the whole students.json file, and a crash
+ * between saves loses nothing that was acknowledged to a client.
+ *
+ * Record layout (all ints big-endian):
+ *   length(4) crc32(4) op(1) name(UTF) [studentid(4) count(4) course(UTF)*]
+ * length and crc cover the bytes from op to the end of the record.
+ *
+ * Appends are buffered in memory and a single flusher thread writes and
+ * fsyncs whatever has accumulated (group commit), so many concurrent
+ * callers share one force() instead of paying for one each.
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ * @author Tim Lindquist Tim.Lindquist@asu.edu
+ *         Software Engineering, CIDSE, IAFSE, ASU Poly
+ * @version April 2020
+ */
+class StudentLog {
+
+   private static final boolean debugOn = false;
+   private static final byte ADD = 1;
+   private static final byte REMOVE = 2;
+   private static final int headerSize = 8;
+   private static final int maxRecordSize = 1 << 24; // far above any real student
+
+   private final File logFile;
+   private final File oldLogFile;
+   private final Object ioLock = new Object();
+   private FileChannel channel;           // guarded by ioLock
+
+   // the fields below are guarded by this
+   private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+   private long appendedSeq = 0;
+   private long durableSeq = 0;
+   private long records = 0;
+   private IOException failure = null;
+   private boolean opened = false;
+   private boolean closed = false;
+   private Thread flusher;
+
+   public StudentLog(String logFileName) {
+      this.logFile = new File(logFileName);
+      this.oldLogFile = new File(logFileName + ".old");
+   }
+
+   private void debug(String message) {
+      if (debugOn)
+         System.out.println("debug: "+message);
+   }
+
+   /**
+    * Opens the log for appending and starts the flusher thread. Call
+    * replay first so a torn record at the end of the file is cut off
+    * before new records are written after it.
+    */
+   public void open() throws IOException {
+      synchronized (ioLock) {
+         channel = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE,
+                                    StandardOpenOption.WRITE);
+         channel.position(channel.size());
+      }
+      synchronized (this) {
+         opened = true;
+      }
+      flusher = new Thread(this::flushLoop, "student-log-flusher");
+      flusher.setDaemon(true);
+      flusher.start();
+   }
+
+   /**
+    * Replays the rotated log left by an interrupted compaction (if any)
+    * and then the current log into the given map.
+    * @return number of records applied
+    */
+   public long replay(Map<String,Student> into) throws IOException {
+      long n = 0;
+      if (oldLogFile.exists()) {
+         n += replay(oldLogFile, into);
+      }
+      if (logFile.exists()) {
+         long count = replay(logFile, into);
+         synchronized (this) {
+            records = count;
+         }
+         n += count;
+      }
+      return n;
+   }
+
+   private long replay(File f, Map<String,Student> into) throws IOException {
+      long count = 0;
+      long validLength = 0;
+      long fileLength = f.length();
+      CRC32 crc = new CRC32();
+      try (DataInputStream in = new DataInputStream(
+              new BufferedInputStream(new FileInputStream(f), 1 << 16))) {
+         byte[] body = new byte[256];
+         while (true) {
+            int length;
+            int sum;
+            try {
+               length = in.readInt();
+               sum = in.readInt();
+               // a torn or corrupt length must not make us allocate it
+               if (length <= 0 || length > maxRecordSize
+                   || length > fileLength - validLength - headerSize) break;
+               if (body.length < length) body = new byte[Math.max(length, body.length * 2)];
+               in.readFully(body, 0, length);
+            } catch (EOFException eof) {
+               break;
+            }
+            crc.reset();
+            crc.update(body, 0, length);
+            if ((int)crc.getValue() != sum) {
+               System.out.println("Corrupt record in "+f.getName()+" at offset "+validLength);
+               break;
+            }
+            apply(new DataInputStream(new ByteArrayInputStream(body, 0, length)), into);
+            validLength += headerSize + length;
+            count++;
+         }
+      }
+      if (validLength < fileLength) {
+         debug("truncating torn tail of "+f.getName()+" to "+validLength+" bytes");
+         try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(validLength);
+         }
+      }
+      return count;
+   }
+
+   private static void apply(DataInputStream in, Map<String,Student> into) throws IOException {
+      byte op = in.readByte();
+      String name = in.readUTF();
+      if (op == ADD) {
+         int studentid = in.readInt();
+         String[] takes = new String[in.readInt()];
+         for (int i=0; i<takes.length; i++) {
+            takes[i] = in.readUTF();
+         }
+         into.put(name, new Student(name, studentid, takes));
+      } else if (op == REMOVE) {
+         into.remove(name);
+      }
+   }
+
+   /**
+    * Appends an add record. Callers hold the collection lock so records are
+    * logged in the same order the map was changed.
+    * @return sequence number to pass to awaitDurable
+    */
+   public synchronized long appendAdd(Student stud) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeByte(ADD);
+      out.writeUTF(stud.name);
+      out.writeInt(stud.studentid);
+      out.writeInt(stud.takes.size());
+      for (String course : stud.takes) {
+         out.writeUTF(course);
+      }
+      return append(bytes);
+   }
+
+   public synchronized long appendRemove(String name) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeByte(REMOVE);
+      out.writeUTF(name);
+      return append(bytes);
+   }
+
+   private long append(ByteArrayOutputStream record) throws IOException {
+      if (failure != null) throw failure;
+      if (closed) throw new IOException("student log is closed");
+      // nobody would ever flush it and the caller would wait forever
+      if (!opened) throw new IOException("student log is not open");
+      byte[] body = record.toByteArray();
+      if (body.length > maxRecordSize) throw new IOException("student record too large: "+body.length);
+      CRC32 crc = new CRC32();
+      crc.update(body, 0, body.length);
+      DataOutputStream out = new DataOutputStream(pending);
+      out.writeInt(body.length);
+      out.writeInt((int)crc.getValue());
+      out.write(body);
+      records++;
+      appendedSeq++;
+      notifyAll();
+      return appendedSeq;
+   }
+
+   /**
+    * Blocks until the record with the given sequence number has been
+    * written and forced to disk.
+    */
+   public synchronized void awaitDurable(long seq) throws IOException {
+      while (durableSeq < seq && failure == null) {
+         try {
+            wait();
+         } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for student log");
+         }
+      }
+      if (durableSeq < seq) throw failure;
+   }
+
+   public synchronized long recordCount() {
+      return records;
+   }
+
+   private void flushLoop() {
+      while (true) {
+         synchronized (this) {
+            while (pending.size() == 0 && !closed) {
+               try {
+                  wait();
+               } catch (InterruptedException ie) {
+                  return;
+               }
+            }
+            if (pending.size() == 0) return;
+         }
+         try {
+            // the batch is taken under ioLock so a concurrent sync() or
+            // rotate() can never write a later batch ahead of this one
+            sync();
+         } catch (IOException ex) {
+            return;
+         }
+      }
+   }
+
+   // caller holds ioLock
+   private void write(ByteArrayOutputStream batch) throws IOException {
+      ByteBuffer buf = ByteBuffer.wrap(batch.toByteArray());
+      while (buf.hasRemaining()) {
+         channel.write(buf);
+      }
+      channel.force(false);
+      debug("group commit of "+batch.size()+" bytes");
+   }
+
+   private synchronized void markDurable(long upTo) {
+      if (upTo > durableSeq) durableSeq = upTo;
+      notifyAll();
+   }
+
+   /**
+    * Writes out anything still buffered so the file on disk matches the
+    * in-memory collection.
+    */
+   public void sync() throws IOException {
+      synchronized (ioLock) {
+         ByteArrayOutputStream batch;
+         long upTo;
+         synchronized (this) {
+            batch = pending;
+            pending = new ByteArrayOutputStream(Math.max(32, batch.size()));
+            upTo = appendedSeq;
+         }
+         try {
+            if (batch.size() > 0) write(batch);
+         } catch (IOException ex) {
+            synchronized (this) {
+               failure = ex;
+               notifyAll();
+            }
+            throw ex;
+         }
+         markDurable(upTo);
+      }
+   }
+
+   /**
+    * Starts a new, empty log for a compaction. The current log is synced
+    * and kept as the .old file until the snapshot that covers it has been
+    * written; call discardRotated after that. Callers hold the collection
+    * lock so the snapshot they copy matches the rotation point.
+    * A .old file that is still there (a compaction that failed or crashed
+    * before its snapshot was written) is not covered by any snapshot, so
+    * the current log is appended to it instead of replacing it.
+    */
+   public void rotate() throws IOException {
+      synchronized (ioLock) {
+         sync();
+         if (!oldLogFile.exists()) {
+            channel.close();
+            Files.move(logFile.toPath(), oldLogFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE,
+                                       StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+         } else {
+            // a crash before the truncate replays these records twice, which
+            // ends in the same state: the last add or remove of a name wins
+            try (FileChannel old = FileChannel.open(oldLogFile.toPath(), StandardOpenOption.WRITE,
+                                                    StandardOpenOption.APPEND)) {
+               long size = channel.size();
+               long done = 0;
+               try (FileChannel current = FileChannel.open(logFile.toPath(), StandardOpenOption.READ)) {
+                  while (done < size) {
+                     done += current.transferTo(done, size - done, old);
+                  }
+               }
+               old.force(false);
+            }
+            channel.truncate(0);
+            channel.position(0);
+            channel.force(false);
+         }
+         synchronized (this) {
+            records = 0;
+         }
+      }
+   }
+
+   public void discardRotated() throws IOException {
+      Files.deleteIfExists(oldLogFile.toPath());
+   }
+
+   public void close() throws IOException {
+      synchronized (this) {
+         closed = true;
+         notifyAll();
+      }
+      try {
+         if (flusher != null) flusher.join();
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+      }
+      synchronized (ioLock) {
+         sync();
+         if (channel != null) channel.close();
+      }
+   }
+}
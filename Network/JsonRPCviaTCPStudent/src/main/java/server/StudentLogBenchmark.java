@@ -0,0 +1,99 @@
+package server;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Purpose: Measures the cost of the StudentLog persistence path.
+ * Builds a snapshot of <records> students, appends a tail of <tail>
+ * adds/removes through the log from <threads> client threads, and then
+ * times recovery (snapshot load plus log replay) of the whole data set.
+ *
+ * gradle runLogBenchmark --args '2000000 100000 32'
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ * @author Tim Lindquist Tim.Lindquist@asu.edu
+ *         Software Engineering, CIDSE, IAFSE, ASU Poly
+ * @version April 2020
+ */
+public class StudentLogBenchmark {
+
+   private static final String[] courses = {"Ser321","Ser423","Cse494","Cse445","Ser598"};
+
+   private static Student student(long i) {
+      return new Student("Student"+i, (int)i,
+                         new String[]{courses[(int)(i % courses.length)],
+                                      courses[(int)((i+1) % courses.length)]});
+   }
+
+   public static void main(String args[]) throws Exception {
+      long records = 2000000;
+      long tail = 100000;
+      int threads = 32;
+      try {
+         if (args.length > 0) records = Long.parseLong(args[0]);
+         if (args.length > 1) tail = Long.parseLong(args[1]);
+         if (args.length > 2) threads = Integer.parseInt(args[2]);
+      } catch (NumberFormatException nfe) {
+         System.out.println("Expected Arguments: [records(long)] [tail(long)] [threads(int)]");
+         System.exit(1);
+      }
+      File dir = Files.createTempDirectory("studentlog").toFile();
+      String snapshot = new File(dir, "students.json").getPath();
+      String logName = new File(dir, "students.log").getPath();
+      System.out.println("Working in "+dir);
+
+      // snapshot of the base data set
+      StudentCollectionImpl col = new StudentCollectionImpl(snapshot, logName, Long.MAX_VALUE);
+      for (long i = 0; i < records; i++) {
+         Student s = student(i);
+         col.students.put(s.name, s);
+      }
+      long start = System.nanoTime();
+      col.saveToJsonFile();
+      long snapNanos = System.nanoTime() - start;
+      System.out.printf("snapshot: %d records, %.1f MB in %.2f s%n", records,
+                        new File(snapshot).length() / 1e6, snapNanos / 1e9);
+
+      // log tail through add/remove so every call waits for its group commit
+      final long tailCount = tail;
+      final long base = records;
+      final int nThreads = threads;
+      final AtomicLong next = new AtomicLong(0);
+      Thread[] workers = new Thread[nThreads];
+      start = System.nanoTime();
+      for (int t = 0; t < nThreads; t++) {
+         workers[t] = new Thread(() -> {
+            long i;
+            while ((i = next.getAndIncrement()) < tailCount) {
+               if (i % 10 == 9) {
+                  col.remove("Student"+(i * 7 % base));
+               } else {
+                  col.add(student(base + i));
+               }
+            }
+         });
+         workers[t].start();
+      }
+      for (Thread w : workers) w.join();
+      long tailNanos = System.nanoTime() - start;
+      int expected = col.students.size();
+      col.close();
+      System.out.printf("log tail: %d ops from %d threads in %.2f s (%.0f ops/s, %.1f MB log)%n",
+                        tail, nThreads, tailNanos / 1e9, tail / (tailNanos / 1e9),
+                        new File(logName).length() / 1e6);
+
+      // recovery: load snapshot and replay the log tail
+      System.gc();
+      start = System.nanoTime();
+      StudentCollectionImpl recovered = new StudentCollectionImpl(snapshot, logName, Long.MAX_VALUE);
+      long recoverNanos = System.nanoTime() - start;
+      System.out.printf("recovery: %d students in %.2f s (expected %d)%n",
+                        recovered.students.size(), recoverNanos / 1e9, expected);
+      recovered.close();
+
+      for (File f : dir.listFiles()) f.delete();
+      dir.delete();
+   }
+}
@@ -0,0 +1,39 @@
+package server;
+
+import java.io.IOException;
+
+import rpc.WireReader;
+import rpc.WireType;
+import rpc.WireWriter;
+
+/**
+ * Purpose: Tells the generated StudentCollection skeleton and proxy how a
+ * Student goes on the wire: name, studentid and the counted list of
+ * courses.
+ *
+ * Ser321 Foundations of Distributed Software Systems
+ * @author Tim Lindquist Tim.Lindquist@asu.edu
+ *         Software Engineering, CIDSE, IAFSE, ASU Poly
+ * @version April 2020
+ */
+public class StudentWireType implements WireType<Student> {
+
+   public void write(WireWriter out, Student stud) {
+      out.writeString(stud.name);
+      out.writeInt(stud.studentid);
+      out.writeVarint(stud.takes.size());
+      for (int i = 0; i < stud.takes.size(); i++) {
+         out.writeString(stud.takes.get(i));
+      }
+   }
+
+   public Student read(WireReader in) throws IOException {
+      String name = in.readString();
+      int studentid = in.readInt();
+      String[] takes = new String[in.readCount()];
+      for (int i = 0; i < takes.length; i++) {
+         takes[i] = in.readString();
+      }
+      return new Student(name, studentid, takes);
+   }
+}
@@ -0,0 +1,107 @@
+package server;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import buffers.OperationProtos.Operation;
+import buffers.ResponseProtos.Response;
+
+/*
+ * The cost of a Response on both ends for an ADD of two <digits> digit
+ * numbers, answered the old way (response type JSON: the result as
+ * {"result":"..."} in resultString, which the client parses with org.json)
+ * and TYPED (a long, or two's complement bytes when it does not fit):
+ *   encode*       the server: evaluate, build the Response and serialize it
+ *   decode*       the client: parse the bytes and get at the result
+ *   decodeTypedText  the same, but written back as digits like the JSON one
+ * 10 digits fit in a long in both bases, 40 do not.
+ *
+ * gradle jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResponseBenchmark {
+  @Param({ "10", "40" })
+  public int digits;
+
+  @Param({ "10", "16" })
+  public int base;
+
+  private final Base engine = new Base();
+  private Operation json;
+  private Operation typed;
+  private byte[] jsonBytes;
+  private byte[] typedBytes;
+
+  private static String number(Random rand, int digits, int base) {
+    char[] c = new char[digits];
+    for (int i = 0; i < digits; i++) {
+      c[i] = Character.toUpperCase(Character.forDigit((i == 0 ? 1 : 0) + rand.nextInt(base - (i == 0 ? 1 : 0)), base));
+    }
+    return new String(c);
+  }
+
+  @Setup
+  public void setup() {
+    Random rand = new Random(42);
+    json = Operation.newBuilder()
+        .setVal1(number(rand, digits, base))
+        .setVal2(number(rand, digits, base))
+        .setBase(base)
+        .setOperationType(Operation.OperationType.ADD)
+        .setResponseType(Operation.ResponseType.JSON)
+        .build();
+    typed = json.toBuilder().setResponseType(Operation.ResponseType.TYPED).build();
+    jsonBytes = SockBaseServer.respond(engine, json).toByteArray();
+    typedBytes = SockBaseServer.respond(engine, typed).toByteArray();
+  }
+
+  @Benchmark
+  public byte[] encodeJson() {
+    return SockBaseServer.respond(engine, json).toByteArray();
+  }
+
+  @Benchmark
+  public byte[] encodeTyped() {
+    return SockBaseServer.respond(engine, typed).toByteArray();
+  }
+
+  @Benchmark
+  public String decodeJson() throws InvalidProtocolBufferException {
+    return new JSONObject(Response.parseFrom(jsonBytes).getResultString()).getString("result");
+  }
+
+  @Benchmark
+  public void decodeTyped(Blackhole bh) throws InvalidProtocolBufferException {
+    Response response = Response.parseFrom(typedBytes);
+    if (response.getResultCase() == Response.ResultCase.VALUE) {
+      bh.consume(response.getValue());
+    } else {
+      bh.consume(new BigInteger(response.getTwosComplement().toByteArray()));
+    }
+  }
+
+  @Benchmark
+  public String decodeTypedText() throws InvalidProtocolBufferException {
+    Response response = Response.parseFrom(typedBytes);
+    if (response.getResultCase() == Response.ResultCase.VALUE) {
+      return Long.toString(response.getValue(), base).toUpperCase();
+    }
+    return new BigInteger(response.getTwosComplement().toByteArray()).toString(base).toUpperCase();
+  }
+}
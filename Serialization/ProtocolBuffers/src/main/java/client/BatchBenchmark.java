@@ -0,0 +1,184 @@
+package client;
+
+import java.net.*;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+
+import buffers.OperationProtos.BatchOperation;
+import buffers.OperationProtos.Operation;
+import buffers.OperationProtos.Request;
+import buffers.ResponseProtos.BatchResponse;
+import buffers.ResponseProtos.Response;
+
+/*
+ * Operations per second against a running SockBaseServer, for <count>
+ * random operations (all four types, bases 2 to 36, up to 40 digits):
+ *   connection/op  a new connection for every operation, like SockBaseClient
+ *                  (at most 5000 of them, the rest would only wait for ports)
+ *   session        one connection, every operation its own message, sent
+ *                  without waiting for the answers
+ *   batch          one connection, Requests with BatchOperations of <batch>
+ *                  operations, answered in chunks of <chunk> results
+ * Answers are TYPED (see response.proto). The answers of all three must agree.
+ *
+ * gradle runBatchBenchmark -Pcount=200000 -Pbatch=1000
+ */
+class BatchBenchmark {
+    private static final int BUFFER = 64 << 10;
+    private static final int MAX_CONNECTIONS = 5000;
+
+    private static String number(Random rand, int base) {
+        int digits = 1 + rand.nextInt(40);
+        StringBuilder sb = new StringBuilder(digits);
+        for (int i = 0; i < digits; i++) {
+            sb.append(Character.toUpperCase(Character.forDigit(rand.nextInt(base), base)));
+        }
+        return sb.toString();
+    }
+
+    private static List<Operation> operations(int count) {
+        Random rand = new Random(42);
+        Operation.OperationType[] types = Operation.OperationType.values();
+        List<Operation> ops = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int base = 2 + rand.nextInt(35);
+            ops.add(Operation.newBuilder()
+                .setVal1(number(rand, base))
+                .setVal2(number(rand, base))
+                .setBase(base)
+                .setOperationType(types[rand.nextInt(types.length)])
+                .setResponseType(Operation.ResponseType.TYPED)
+                .build());
+        }
+        return ops;
+    }
+
+    private static Response[] perConnection(String host, int port, List<Operation> ops) throws IOException {
+        Response[] results = new Response[ops.size()];
+        for (int i = 0; i < ops.size(); i++) {
+            try (Socket sock = new Socket(host, port)) {
+                ops.get(i).writeDelimitedTo(sock.getOutputStream());
+                results[i] = Response.parseDelimitedFrom(sock.getInputStream());
+            }
+        }
+        return results;
+    }
+
+    // writes the messages from another thread while this one reads the answers
+    private interface Reader {
+        void read(CodedInputStream input, Response[] results) throws IOException;
+    }
+
+    private static Response[] pipelined(String host, int port, List<? extends MessageLite> messages,
+        int answers, Reader reader) throws Exception {
+        try (Socket sock = new Socket(host, port)) {
+            sock.setTcpNoDelay(true);
+            Thread writer = new Thread(() -> {
+                try {
+                    CodedOutputStream output = CodedOutputStream.newInstance(sock.getOutputStream(), BUFFER);
+                    for (MessageLite m : messages) {
+                        output.writeUInt32NoTag(m.getSerializedSize());
+                        m.writeTo(output);
+                    }
+                    output.flush();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            writer.start();
+            Response[] results = new Response[answers];
+            reader.read(CodedInputStream.newInstance(sock.getInputStream(), BUFFER), results);
+            writer.join();
+            return results;
+        }
+    }
+
+    private static Response[] session(String host, int port, List<Operation> ops) throws Exception {
+        return pipelined(host, port, ops, ops.size(), (input, results) -> {
+            for (int i = 0; i < results.length; i++) {
+                input.resetSizeCounter();
+                int limit = input.pushLimit(input.readRawVarint32());
+                results[i] = Response.parseFrom(input);
+                input.popLimit(limit);
+            }
+        });
+    }
+
+    private static Response[] batched(String host, int port, List<Operation> ops, int size, int chunk) throws Exception {
+        List<Request> batches = new ArrayList<>();
+        for (int i = 0; i < ops.size(); i += size) {
+            batches.add(Request.newBuilder()
+                .setBatch(BatchOperation.newBuilder()
+                    .addAllOps(ops.subList(i, Math.min(ops.size(), i + size)))
+                    .setChunkSize(chunk))
+                .build());
+        }
+        return pipelined(host, port, batches, ops.size(), (input, results) -> {
+            int done = 0;
+            while (done < results.length) {
+                // the parts of one batch, until the last one
+                int start = done;
+                BatchResponse part;
+                do {
+                    input.resetSizeCounter();
+                    int limit = input.pushLimit(input.readRawVarint32());
+                    part = BatchResponse.parseFrom(input);
+                    input.popLimit(limit);
+                    if (part.getFirst() != done - start) {
+                        throw new IOException("part out of order: " + part.getFirst());
+                    }
+                    for (Response r : part.getResponsesList()) {
+                        results[done++] = r;
+                    }
+                } while (!part.getLast());
+            }
+        });
+    }
+
+    private interface Mode {
+        Response[] run(List<Operation> ops) throws Exception;
+    }
+
+    private static Response[] measure(String name, List<Operation> ops, Mode mode) throws Exception {
+        mode.run(ops.subList(0, ops.size() / 10)); // warm up
+        long start = System.nanoTime();
+        Response[] results = mode.run(ops);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-14s %8d operations %10.0f operations/s%n", name, ops.size(), ops.size() / seconds);
+        return results;
+    }
+
+    private static void compare(Response[] expected, Response[] got, String name) {
+        for (int i = 0; i < got.length; i++) {
+            if (!expected[i].equals(got[i])) {
+                throw new IllegalStateException(name + " answer " + i + ": " + got[i] + " instead of " + expected[i]);
+            }
+        }
+    }
+
+    public static void main (String args[]) throws Exception {
+        if (args.length != 5) {
+            System.out.println("Expected arguments: <host(String)> <port(int)> <count(int)> <batch(int)> <chunk(int)>");
+            System.exit(1);
+        }
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        int count = Integer.parseInt(args[2]);
+        int batch = Integer.parseInt(args[3]);
+        int chunk = Integer.parseInt(args[4]);
+        List<Operation> ops = operations(count);
+
+        Response[] session = measure("session", ops, o -> session(host, port, o));
+        Response[] batched = measure("batch x" + batch, ops, o -> batched(host, port, o, batch, chunk));
+        compare(session, batched, "batch");
+        List<Operation> few = ops.subList(0, Math.min(count, MAX_CONNECTIONS));
+        Response[] single = measure("connection/op", few, o -> perConnection(host, port, o));
+        compare(session, single, "connection/op");
+    }
+}
@@ -0,0 +1,72 @@
+package client;
+
+import java.net.*;
+import java.io.*;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+import buffers.OperationProtos.Operation;
+import buffers.ResponseProtos.Response;
+
+/*
+ * Sends the Operation from the data file <count> times on one connection
+ * without waiting for the answers, reads the answers in order and reports
+ * operations per second. The server keeps the connection open for as long
+ * as the client sends (see SockBaseServer). The answers are TYPED, only the
+ * first one is rendered as the data file asks.
+ *
+ * gradle runSessionClient -Pcount=100000
+ */
+class SessionClient {
+    private static final int BUFFER = 64 << 10;
+
+    public static void main (String args[]) throws Exception {
+        if (args.length != 4) {
+            System.out.println("Expected arguments: <host(String)> <port(int)> <data(json file)> <count(int)>");
+            System.exit(1);
+        }
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        Operation request = SockBaseClient.generateObjectFromPB(SockBaseClient.readJson(args[2]));
+        Operation op = request.toBuilder().setResponseType(Operation.ResponseType.TYPED).build();
+        int count = Integer.parseInt(args[3]);
+
+        try (Socket sock = new Socket(host, port)) {
+            sock.setTcpNoDelay(true);
+            long start = System.nanoTime();
+            Thread writer = new Thread(() -> {
+                try {
+                    CodedOutputStream output = CodedOutputStream.newInstance(sock.getOutputStream(), BUFFER);
+                    int size = op.getSerializedSize();
+                    for (int i = 0; i < count; i++) {
+                        output.writeUInt32NoTag(size);
+                        op.writeTo(output);
+                    }
+                    output.flush();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            writer.start();
+
+            CodedInputStream input = CodedInputStream.newInstance(sock.getInputStream(), BUFFER);
+            Response first = null;
+            for (int i = 0; i < count; i++) {
+                input.resetSizeCounter();
+                int limit = input.pushLimit(input.readRawVarint32());
+                Response response = Response.parseFrom(input);
+                input.popLimit(limit);
+                if (first == null) {
+                    first = response;
+                } else if (!first.equals(response)) {
+                    throw new IOException("answer " + i + " differs: " + response);
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            writer.join();
+            System.out.println("Result is " + SockBaseClient.render(first, op.getBase(), request.getResponseType()));
+            System.out.printf("%d operations in %.2f s, %.0f operations/s%n", count, seconds, count / seconds);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package client;
 
 import java.net.*;
 import java.io.*;
+import java.math.BigInteger;
 
 // import org.json.JSONObject;
 // import org.json.parser.JSONParser;
@@ -34,12 +35,16 @@ class SockBaseClient {
         }
         String filename = args[2];
         Operation op = null;
+        Operation.ResponseType format = null;
         
         // read JSON data from the file
         JSONObject data = null;
         try {
           data = readJson(filename);
           op = generateObjectFromPB(data);
+          // the server sends the typed result only, the text the file asks for is made here
+          format = op.getResponseType();
+          op = op.toBuilder().setResponseType(Operation.ResponseType.TYPED).build();
         } catch (IOException ex) {
           ex.printStackTrace();
         } catch (JSONException ex) {
@@ -58,7 +63,7 @@ class SockBaseClient {
             in = serverSock.getInputStream();
             Response response = Response.parseDelimitedFrom(in);
 
-            System.out.println("Result is " + response.getResultString());
+            System.out.println("Result is " + render(response, op.getBase(), format));
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
@@ -68,7 +73,31 @@ class SockBaseClient {
         }
     }
 
-    private static JSONObject readJson(String filename) throws IOException, JSONException {
+    // the result digits in the base of the operation, from whichever typed field the server set
+    static String digits(Response response, int base) {
+      switch (response.getResultCase()) {
+        case VALUE:
+          return Long.toString(response.getValue(), base).toUpperCase();
+        case DIGITS:
+          return response.getDigits();
+        case TWOSCOMPLEMENT:
+          return new BigInteger(response.getTwosComplement().toByteArray()).toString(base).toUpperCase();
+        default:
+          return null;
+      }
+    }
+
+    // a typed Response as the JSON or plain text the server used to send in resultString
+    static String render(Response response, int base, Operation.ResponseType format) {
+      boolean failed = response.getError() != Response.ErrorCode.NONE;
+      String text = failed ? response.getErrorMessage() : digits(response, base);
+      if (format == Operation.ResponseType.STRING) {
+        return failed ? "Error: " + text : text;
+      }
+      return new JSONObject().put(failed ? "error" : "result", text).toString();
+    }
+
+    static JSONObject readJson(String filename) throws IOException, JSONException {
       // read json from build directory, so the getResource is needed
       File file = new File(
         SockBaseClient.class.getResource("/"+filename).getFile()
@@ -78,7 +107,7 @@ class SockBaseClient {
       return new JSONObject(jsonTokener);
     }
 
-    private static Operation generateObjectFromPB(JSONObject data) {
+    static Operation generateObjectFromPB(JSONObject data) {
       JSONObject header = (JSONObject)data.get("header");
       JSONObject payload = (JSONObject)data.get("payload");
 
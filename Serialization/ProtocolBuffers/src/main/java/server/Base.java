@@ -1,58 +1,303 @@
 package server;
 
-class Base { 
+/*
+ * Arithmetic on whole numbers of any length written in base 2 to 36, with
+ * an optional leading '-' (or '+'). Digits are 0-9 and A-Z, lower case is
+ * accepted too; results are in upper case, without leading zeros, and "0"
+ * for zero.
+ *
+ * A number is kept as limbs in radix base^k, the largest power of the base
+ * below 2^31, least significant limb first. Operands and result share the
+ * base, so a string turns into limbs by grouping k digits at a time (looked
+ * up in a table) and back the same way, without converting between bases.
+ * Products of two limbs fit in a long, so multiplication is schoolbook and
+ * division is Knuth's long division (The Art of Computer Programming, vol. 2,
+ * 4.3.1, algorithm D) in that radix.
+ *
+ * divide() truncates toward zero like Java's /. Errors are runtime exceptions:
+ * NumberFormatException for a digit that does not fit the base,
+ * IllegalArgumentException for a base outside 2..36 and ArithmeticException
+ * for a division by zero.
+ */
+class Base {
+  private static final char[] DIGITS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+  private static final byte[] VALUE = new byte[128]; // digit value of an ASCII char, -1 if none
+  private static final int[] DIGITS_PER_LIMB = new int[37];
+  private static final int[] RADIX = new int[37];
 
-  private int convertToInt(char ch) {
-   if(ch >= '0' && ch <= '9')
-      return (int)ch - '0';
-   else
-      return (int)ch - 'A' + 10;
+  static {
+    java.util.Arrays.fill(VALUE, (byte) -1);
+    for (int i = 0; i < DIGITS.length; i++) {
+      VALUE[DIGITS[i]] = (byte) i;
+      VALUE[Character.toLowerCase(DIGITS[i])] = (byte) i;
+    }
+    for (int base = 2; base <= 36; base++) {
+      long radix = base;
+      int k = 1;
+      while (radix * base <= Integer.MAX_VALUE) {
+        radix *= base;
+        k++;
+      }
+      DIGITS_PER_LIMB[base] = k;
+      RADIX[base] = (int) radix;
+    }
+  }
+
+  // a signed number; mag[0, length) are the limbs, the top one is not zero
+  private static final class Num {
+    final boolean negative;
+    final int[] mag;
+    final int length;
+
+    Num(boolean negative, int[] mag, int length) {
+      while (length > 0 && mag[length - 1] == 0) {
+        length--;
+      }
+      this.negative = negative && length > 0; // no negative zero
+      this.mag = mag;
+      this.length = length;
+    }
   }
-  
-  private char convertToBase(int n) {
-    if (n >= 0 && n <= 9) 
-        return (char)(n + 48); 
-    else
-        return (char)(n - 10 + 65);
+
+  private static void checkBase(int base) {
+    if (base < 2 || base > 36) {
+      throw new IllegalArgumentException("Base must be between 2 and 36!");
+    }
   }
 
-  /* convert a number from base-N to base-10 */
-  private int toDecimal(String num, int base) {
+  /* parse a base-N string into limbs */
+  private static Num parse(String num, int base) {
     int len = num.length();
-    int exp = 1;
-    int decimalVal = 0;
+    int start = 0;
+    boolean negative = false;
+    if (len > 0 && (num.charAt(0) == '-' || num.charAt(0) == '+')) {
+      negative = num.charAt(0) == '-';
+      start = 1;
+    }
+    if (start == len) {
+      throw new NumberFormatException("Incorrect value provided for the given base!");
+    }
+    while (start < len - 1 && num.charAt(start) == '0') {
+      start++;
+    }
+    int k = DIGITS_PER_LIMB[base];
+    int[] mag = new int[(len - start + k - 1) / k];
+    int limb = 0;
+    // k digits per limb, the least significant ones first
+    for (int end = len; end > start; end -= k) {
+      int value = 0;
+      for (int i = Math.max(start, end - k); i < end; i++) {
+        char ch = num.charAt(i);
+        int digit = ch < 128 ? VALUE[ch] : -1;
+        if (digit < 0 || digit >= base) {
+          throw new NumberFormatException("Incorrect value provided for the given base!");
+        }
+        value = value * base + digit;
+      }
+      mag[limb++] = value;
+    }
+    return new Num(negative, mag, mag.length);
+  }
+
+  /* write limbs as a base-N string */
+  private static String format(Num n, int base) {
+    if (n.length == 0) {
+      return "0";
+    }
+    int k = DIGITS_PER_LIMB[base];
+    int top = n.mag[n.length - 1];
+    int topDigits = 0;
+    for (int v = top; v > 0; v /= base) {
+      topDigits++;
+    }
+    char[] out = new char[(n.negative ? 1 : 0) + topDigits + k * (n.length - 1)];
+    int p = out.length;
+    for (int i = 0; i < n.length - 1; i++) {
+      int v = n.mag[i];
+      for (int j = 0; j < k; j++) {
+        out[--p] = DIGITS[v % base];
+        v /= base;
+      }
+    }
+    for (int v = top; v > 0; v /= base) {
+      out[--p] = DIGITS[v % base];
+    }
+    if (n.negative) {
+      out[0] = '-';
+    }
+    return new String(out);
+  }
+
+  private static int compare(Num a, Num b) {
+    if (a.length != b.length) {
+      return a.length < b.length ? -1 : 1;
+    }
+    for (int i = a.length - 1; i >= 0; i--) {
+      if (a.mag[i] != b.mag[i]) {
+        return a.mag[i] < b.mag[i] ? -1 : 1;
+      }
+    }
+    return 0;
+  }
 
-    for(int i = len - 1; i >= 0; i--) {
-      int _tmp = convertToInt(num.charAt(i));
-      if(_tmp >= base) {
-         throw new java.lang.RuntimeException("Incorrect value provided for the given base!");
-       }
-       decimalVal += _tmp * exp;
-       exp *= base;
+  private static Num addMagnitudes(boolean negative, Num a, Num b, int radix) {
+    if (a.length < b.length) {
+      Num t = a;
+      a = b;
+      b = t;
     }
-    return decimalVal;
+    int[] sum = new int[a.length + 1];
+    int carry = 0;
+    for (int i = 0; i < a.length; i++) {
+      int s = a.mag[i] + (i < b.length ? b.mag[i] : 0) + carry; // below 2^32 - 1, see RADIX
+      carry = s >= radix || s < 0 ? 1 : 0;
+      sum[i] = carry == 0 ? s : s - radix;
+    }
+    sum[a.length] = carry;
+    return new Num(negative, sum, sum.length);
+  }
+
+  // |a| - |b|, with |a| >= |b|
+  private static Num subtractMagnitudes(boolean negative, Num a, Num b, int radix) {
+    int[] diff = new int[a.length];
+    int borrow = 0;
+    for (int i = 0; i < a.length; i++) {
+      int d = a.mag[i] - (i < b.length ? b.mag[i] : 0) - borrow;
+      borrow = d < 0 ? 1 : 0;
+      diff[i] = d < 0 ? d + radix : d;
+    }
+    return new Num(negative, diff, diff.length);
+  }
+
+  private static Num add(Num a, Num b, int radix) {
+    if (a.negative == b.negative) {
+      return addMagnitudes(a.negative, a, b, radix);
+    }
+    return compare(a, b) >= 0 ? subtractMagnitudes(a.negative, a, b, radix)
+        : subtractMagnitudes(b.negative, b, a, radix);
+  }
+
+  private static Num negate(Num a) {
+    return new Num(!a.negative, a.mag, a.length);
+  }
+
+  private static Num multiply(Num a, Num b, int radix) {
+    if (a.length == 0 || b.length == 0) {
+      return new Num(false, a.mag, 0);
+    }
+    int[] product = new int[a.length + b.length];
+    for (int i = 0; i < a.length; i++) {
+      long ai = a.mag[i];
+      long carry = 0;
+      for (int j = 0; j < b.length; j++) {
+        long t = ai * b.mag[j] + product[i + j] + carry; // below radix^2 < 2^62
+        carry = t / radix;
+        product[i + j] = (int) (t - carry * radix);
+      }
+      product[i + b.length] = (int) carry;
+    }
+    return new Num(a.negative != b.negative, product, product.length);
+  }
+
+  // u * m + carry in place over u[0, length), returns the carry out
+  private static int multiplySmall(int[] u, int length, int m, int radix) {
+    long carry = 0;
+    for (int i = 0; i < length; i++) {
+      long t = (long) u[i] * m + carry;
+      carry = t / radix;
+      u[i] = (int) (t - carry * radix);
+    }
+    return (int) carry;
   }
 
-  /* convert a number from base-10 to base-N */
-  private String toBaseN(int num, int base) {
-    StringBuilder baseN = new StringBuilder("");
-     while(num > 0) {
-        baseN.append(convertToBase(num % base));
-        num /= base;
-     }
-     return baseN.reverse().toString();
+  private static Num divide(Num a, Num b, int radix) {
+    if (b.length == 0) {
+      throw new ArithmeticException("Division by zero!");
+    }
+    boolean negative = a.negative != b.negative;
+    if (compare(a, b) < 0) {
+      return new Num(false, a.mag, 0);
+    }
+    int n = b.length;
+    int m = a.length - n;
+    int[] q = new int[m + 1];
+    if (n == 1) {
+      long divisor = b.mag[0];
+      long r = 0;
+      for (int i = a.length - 1; i >= 0; i--) {
+        long t = r * radix + a.mag[i];
+        q[i] = (int) (t / divisor);
+        r = t - q[i] * divisor;
+      }
+      return new Num(negative, q, q.length);
+    }
+    // normalize so the top limb of the divisor is at least radix / 2
+    int d = radix / (b.mag[n - 1] + 1);
+    int[] u = new int[a.length + 1];
+    System.arraycopy(a.mag, 0, u, 0, a.length);
+    u[a.length] = multiplySmall(u, a.length, d, radix);
+    int[] v = java.util.Arrays.copyOf(b.mag, n);
+    multiplySmall(v, n, d, radix);
+    long vTop = v[n - 1];
+    long vNext = v[n - 2];
+    for (int j = m; j >= 0; j--) {
+      long top = (long) u[j + n] * radix + u[j + n - 1];
+      long qhat = top / vTop;
+      long rhat = top - qhat * vTop;
+      while (qhat >= radix || qhat * vNext > rhat * radix + u[j + n - 2]) {
+        qhat--;
+        rhat += vTop;
+        if (rhat >= radix) {
+          break;
+        }
+      }
+      // u[j, j+n] -= qhat * v
+      long carry = 0;
+      long borrow = 0;
+      for (int i = 0; i < n; i++) {
+        long p = qhat * v[i] + carry;
+        carry = p / radix;
+        long t = u[i + j] - (p - carry * radix) - borrow;
+        borrow = t < 0 ? 1 : 0;
+        u[i + j] = (int) (t < 0 ? t + radix : t);
+      }
+      long t = u[j + n] - carry - borrow;
+      if (t < 0) {
+        // qhat was one too large (rare): add v back
+        u[j + n] = (int) (t + radix);
+        qhat--;
+        int c = 0;
+        for (int i = 0; i < n; i++) {
+          int s = u[i + j] + v[i] + c;
+          c = s >= radix || s < 0 ? 1 : 0;
+          u[i + j] = c == 0 ? s : s - radix;
+        }
+        u[j + n] = (u[j + n] + c) % radix;
+      } else {
+        u[j + n] = (int) t;
+      }
+      q[j] = (int) qhat;
+    }
+    return new Num(negative, q, q.length);
   }
 
   public String add(String num1, String num2, int base) {
-    int num1Int = toDecimal(num1, base);
-    int num2Int = toDecimal(num2, base);
-    return toBaseN(num1Int + num2Int, base);
+    checkBase(base);
+    return format(add(parse(num1, base), parse(num2, base), RADIX[base]), base);
   }
 
   public String substract(String num1, String num2, int base) {
-    int num1Int = toDecimal(num1, base);
-    int num2Int = toDecimal(num2, base);
-    return toBaseN(num1Int - num2Int, base);
+    checkBase(base);
+    return format(add(parse(num1, base), negate(parse(num2, base)), RADIX[base]), base);
+  }
+
+  public String multiply(String num1, String num2, int base) {
+    checkBase(base);
+    return format(multiply(parse(num1, base), parse(num2, base), RADIX[base]), base);
+  }
+
+  public String divide(String num1, String num2, int base) {
+    checkBase(base);
+    return format(divide(parse(num1, base), parse(num2, base), RADIX[base]), base);
   }
-	 
-} 
+}
@@ -2,27 +2,77 @@ package server;
 
 import java.net.*;
 import java.io.*;
+import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import org.json.JSONObject;
 
 import server.Base;
+import buffers.OperationProtos.BatchOperation;
 import buffers.OperationProtos.Operation;
+import buffers.OperationProtos.Request;
+import buffers.ResponseProtos.BatchResponse;
 import buffers.ResponseProtos.Response;
 
-
+/*
+ * Every connection is a session: the client sends delimited Operations, as
+ * many as it likes, and gets one delimited Response per Operation, in the
+ * same order, until it closes the connection. A client that sends a single
+ * Operation and closes (SockBaseClient, the Python client) is a session of
+ * one. A client may also send the next Operations without waiting for the
+ * answers (see SessionClient).
+ *
+ * Sessions run on virtual threads on Java 21 and later, on a cached thread
+ * pool before that. Each session reads and writes through one
+ * CodedInputStream and one CodedOutputStream for its whole life, and
+ * answers that are ready while more requests are waiting go out together.
+ *
+ * Instead of a bare Operation a client may send a Request (see
+ * operation.proto). The BatchOperation in one is evaluated on the fork/join
+ * pool, the operations of a chunk in parallel, and answered with one
+ * BatchResponse per chunk, in order, each sent as soon as it is ready, so
+ * the client can work on the first results while the server computes the
+ * rest. An empty batch is answered with one empty part that has last set.
+ *
+ * A Response carries the result typed (a long when it fits, digits or two's
+ * complement bytes otherwise) or an error code. The JSON ({"result": ...} or
+ * {"error": ...}, written with org.json) or plain text of resultString is
+ * only built for clients that ask for JSON or STRING.
+ */
 class SockBaseServer {
+    private static final int BUFFER = 8 << 10;
+    private static final int DEFAULT_CHUNK = 1024; // results per BatchResponse
+    private static final int MAX_CHUNK = 1 << 16;
+    private static final int SEQUENTIAL = 32; // fork/join tasks evaluate this many themselves
+    private static final Base BASE = new Base(); // no state, shared by all threads
+    private static final int[] LONG_DIGITS = new int[37]; // digits of Long.MAX_VALUE per base
+
+    static {
+        for (int base = 2; base <= 36; base++) {
+            LONG_DIGITS[base] = Long.toString(Long.MAX_VALUE, base).length();
+        }
+    }
+
     public static void main (String args[]) throws Exception {
 
-        int count = 0;
         ServerSocket    serv = null;
-        InputStream in = null;
-        OutputStream out = null;
-        Socket clientSocket = null;
         int port = 9099; // default port
         int sleepDelay = 10000; // default delay
         if (args.length != 2) {
           System.out.println("Expected arguments: <port(int)> <delay(int)>");
           System.exit(1);
 		}
-        
+
         try {
           port = Integer.parseInt(args[0]);
           sleepDelay = Integer.parseInt(args[1]);
@@ -36,48 +86,189 @@ class SockBaseServer {
           e.printStackTrace();
           System.exit(2);
         }
+        ExecutorService sessions = newExecutor();
+        System.out.println("Ready...");
         while (serv.isBound() && !serv.isClosed()) {
-            System.out.println("Ready...");
             try {
-                clientSocket = serv.accept();
-                in = clientSocket.getInputStream();
-                out = clientSocket.getOutputStream();
-                // read the proto object and put into new objct
-                Operation op = Operation.parseDelimitedFrom(in);
-                String result = null;
-                String num1 = op.getVal1();
-                String num2 = op.getVal2();
-                int baseN = op.getBase();
-
-                Base base = new Base();
-
-                if (op.getOperationType() == Operation.OperationType.ADD) {
-                  result = base.add(num1, num2, baseN);
-                  System.out.println("base " + baseN + ": " + num1 + " + " + num2 + " = " + result);
-                } else if (op.getOperationType() == Operation.OperationType.SUB) {
-                  result = base.substract(num1, num2, baseN);
-                  System.out.println("base " + baseN + ": " + num1 + " - " + num2 + " = " + result);
-                }
-                if (op.getResponseType() == Operation.ResponseType.JSON){
-                  //just building a JSON strinng
-                  result = "{'result':'" + result +"'}";
-                }
-                Response response = buildResponse(result);
-                response.writeDelimitedTo(out);
+                Socket clientSocket = serv.accept();
+                sessions.execute(() -> session(clientSocket));
             } catch (Exception ex) {
                 ex.printStackTrace();
-            } finally {
-                if (out != null)  out.close();
-                if (in != null)   in.close();
-                if (clientSocket != null) clientSocket.close();
             }
         }
     }
 
-    private static Response buildResponse(String result) {
-      Response.Builder response = Response.newBuilder();
-      response.setResultString(result);
-      return response.build();
+    // virtual threads where available (Java 21+), a cached thread pool otherwise
+    private static ExecutorService newExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // answers the Operations of one connection until the client closes it
+    static void session(Socket clientSocket) {
+        int count = 0;
+        SocketAddress client = clientSocket.getRemoteSocketAddress();
+        try (Socket sock = clientSocket) {
+            sock.setTcpNoDelay(true); // small answers, we flush them ourselves
+            InputStream in = sock.getInputStream();
+            CodedInputStream input = CodedInputStream.newInstance(in, BUFFER);
+            CodedOutputStream output = CodedOutputStream.newInstance(sock.getOutputStream(), BUFFER);
+            while (!input.isAtEnd()) {
+                // one delimited message, read once and parsed as what its first field says
+                input.resetSizeCounter();
+                ByteString message = input.readBytes();
+                Operation op;
+                if (isRequest(message)) {
+                    Request request = Request.parseFrom(message);
+                    if (request.hasBatch()) {
+                        batch(request.getBatch(), output);
+                        count += request.getBatch().getOpsCount();
+                        continue;
+                    }
+                    op = request.getOperation();
+                } else {
+                    op = Operation.parseFrom(message);
+                }
+                Response response = respond(BASE, op);
+                output.writeUInt32NoTag(response.getSerializedSize());
+                response.writeTo(output);
+                count++;
+                if (in.available() == 0) {
+                    output.flush(); // nothing else waiting, send what we have
+                }
+            }
+            output.flush();
+        } catch (IOException ex) {
+            System.out.println("Session with " + client + " failed: " + ex.getMessage());
+        }
+        System.out.println("Client " + client + " done after " + count + " operations");
+    }
+
+    // true when the first field is one of Request's, all numbered above Operation's
+    private static boolean isRequest(ByteString message) throws IOException {
+        return !message.isEmpty()
+            && WireFormat.getTagFieldNumber(message.newCodedInput().readTag()) >= Request.OPERATION_FIELD_NUMBER;
     }
-}
 
+    // answers a BatchOperation chunk by chunk, results in the order of the ops
+    static void batch(BatchOperation batch, CodedOutputStream output) throws IOException {
+        List<Operation> ops = batch.getOpsList();
+        int chunk = batch.getChunkSize() > 0 ? Math.min(batch.getChunkSize(), MAX_CHUNK) : DEFAULT_CHUNK;
+        Response[] results = new Response[Math.min(chunk, ops.size())];
+        int first = 0;
+        do {
+            int n = Math.min(chunk, ops.size() - first);
+            ForkJoinPool.commonPool().invoke(new Evaluate(ops, first, results, 0, n));
+            BatchResponse.Builder part = BatchResponse.newBuilder().setFirst(first).setLast(first + n == ops.size());
+            for (int i = 0; i < n; i++) {
+                part.addResponses(results[i]);
+            }
+            BatchResponse response = part.build();
+            output.writeUInt32NoTag(response.getSerializedSize());
+            response.writeTo(output);
+            output.flush(); // the client can start on this part
+            first += n;
+        } while (first < ops.size());
+    }
+
+    // evaluates ops[offset + from, offset + to) into results[from, to), split over the fork/join pool
+    private static final class Evaluate extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Operation> ops;
+        private final int offset;
+        private final Response[] results;
+        private final int from;
+        private final int to;
+
+        Evaluate(List<Operation> ops, int offset, Response[] results, int from, int to) {
+            this.ops = ops;
+            this.offset = offset;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL) {
+                for (int i = from; i < to; i++) {
+                    results[i] = respond(BASE, ops.get(offset + i));
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Evaluate(ops, offset, results, from, mid), new Evaluate(ops, offset, results, mid, to));
+        }
+    }
+
+    // the typed answer to one Operation, with the text rendering only if the client asked for JSON or STRING
+    static Response respond(Base base, Operation op) {
+        Response.Builder response = Response.newBuilder();
+        String result = null;
+        String num1 = op.getVal1();
+        String num2 = op.getVal2();
+        int baseN = op.getBase();
+        try {
+            switch (op.getOperationType()) {
+            case ADD:
+                result = base.add(num1, num2, baseN);
+                break;
+            case SUB:
+                result = base.substract(num1, num2, baseN);
+                break;
+            case MUL:
+                result = base.multiply(num1, num2, baseN);
+                break;
+            case DIV:
+                result = base.divide(num1, num2, baseN);
+                break;
+            }
+        } catch (RuntimeException ex) {
+            // NumberFormatException is an IllegalArgumentException, so it goes first
+            response.setError(ex instanceof NumberFormatException ? Response.ErrorCode.INVALID_NUMBER
+                : ex instanceof ArithmeticException ? Response.ErrorCode.DIVISION_BY_ZERO
+                : Response.ErrorCode.INVALID_BASE);
+            String message = ex.getMessage() != null ? ex.getMessage() : ex.toString();
+            response.setErrorMessage(message);
+            if (op.getResponseType() == Operation.ResponseType.JSON) {
+                response.setResultString(new JSONObject().put("error", message).toString());
+            } else if (op.getResponseType() == Operation.ResponseType.STRING) {
+                response.setResultString("Error: " + message);
+            }
+            return response.build();
+        }
+
+        Long value = longValue(result, baseN);
+        if (value != null) {
+            response.setValue(value);
+        } else if (op.getResponseType() == Operation.ResponseType.TYPED) {
+            response.setTwosComplement(ByteString.copyFrom(new BigInteger(result, baseN).toByteArray()));
+        } else {
+            response.setDigits(result);
+        }
+        if (op.getResponseType() == Operation.ResponseType.JSON) {
+            response.setResultString(new JSONObject().put("result", result).toString());
+        } else if (op.getResponseType() == Operation.ResponseType.STRING) {
+            response.setResultString(result);
+        }
+        return response.build();
+    }
+
+    // the digits as a long, or null if they do not fit in one
+    private static Long longValue(String digits, int base) {
+        int length = digits.length() - (digits.charAt(0) == '-' ? 1 : 0);
+        if (length > LONG_DIGITS[base]) {
+            return null;
+        }
+        try {
+            return Long.parseLong(digits, base);
+        } catch (NumberFormatException ex) {
+            return null; // as many digits as Long.MAX_VALUE, but larger
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package fauxSolution.tcp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Reads a stream of frames the way a socket delivers them, at most one
+ * 1460-byte segment per read, with the old recursive NetworkUtils.Read, the
+ * looping NetworkUtils.Receive and FrameReader. Run with the gc profiler
+ * (gradle jmh) to see the allocation per frame next to the time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FramingBenchmark {
+  private static final int SEGMENT = 1460;
+  private static final int STREAM_BYTES = 4 << 20;
+
+  @Param({ "64", "4096", "262144" })
+  public int payload;
+
+  private byte[] stream;
+  private int frames;
+  private final BufferPool pool = new BufferPool();
+
+  private static class Segments extends InputStream implements ReadableByteChannel {
+    private final byte[] data;
+    private int pos;
+
+    Segments(byte[] data) {
+      this.data = data;
+    }
+
+    public int read(ByteBuffer dst) {
+      if (pos == data.length) {
+        return -1;
+      }
+      int n = Math.min(Math.min(SEGMENT, dst.remaining()), data.length - pos);
+      dst.put(data, pos, n);
+      pos += n;
+      return n;
+    }
+
+    public int read(byte[] b, int off, int len) {
+      if (pos == data.length) {
+        return -1;
+      }
+      int n = Math.min(Math.min(SEGMENT, len), data.length - pos);
+      System.arraycopy(data, pos, b, off, n);
+      pos += n;
+      return n;
+    }
+
+    public int read() {
+      return pos == data.length ? -1 : data[pos++] & 0xff;
+    }
+
+    public boolean isOpen() {
+      return true;
+    }
+  }
+
+  @Setup
+  public void setup() throws IOException {
+    frames = Math.max(1, STREAM_BYTES / (payload + 4));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    FrameWriter writer = new FrameWriter(Channels.newChannel(out));
+    byte[] body = new byte[payload];
+    for (int i = 0; i < frames; i++) {
+      body[0] = (byte) i;
+      writer.write(body);
+    }
+    stream = out.toByteArray();
+  }
+
+  // the original NetworkUtils.Read, minus its println
+  private static byte[] recursiveRead(InputStream in, int length) throws IOException {
+    byte[] bytes = new byte[length];
+    int bytesRead = in.read(bytes, 0, length);
+    if (bytesRead < length && bytesRead > 0) {
+      byte[] newBytes = recursiveRead(in, length - bytesRead);
+      System.arraycopy(newBytes, 0, bytes, bytesRead, newBytes.length);
+    }
+    return bytes;
+  }
+
+  @Benchmark
+  public long recursive() throws IOException {
+    Segments in = new Segments(stream);
+    long sum = 0;
+    for (int i = 0; i < frames; i++) {
+      int length = NetworkUtils.bytesToInt(recursiveRead(in, 4));
+      sum += recursiveRead(in, length)[0];
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long networkUtils() throws IOException {
+    Segments in = new Segments(stream);
+    long sum = 0;
+    for (int i = 0; i < frames; i++) {
+      sum += NetworkUtils.Receive(in)[0];
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long frameReader() throws IOException {
+    long sum = 0;
+    try (FrameReader reader = new FrameReader(new Segments(stream), pool, FrameReader.DEFAULT_BUFFER,
+        FrameReader.DEFAULT_MAX_FRAME)) {
+      for (int i = 0; i < frames; i++) {
+        ByteBuffer frame = reader.read();
+        sum += frame.get(frame.position());
+      }
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,123 @@
+package fauxSolution.tcp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * The JSON work per message, the old way (new String, new JSONObject,
+ * toString, getBytes) against JsonCodec: reading a request on the server,
+ * reading a joke and a Base64 image response on the client, and writing a
+ * request and a joke response. Run with the gc profiler (gradle jmh) for
+ * the bytes allocated per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JsonCodecBenchmark {
+  private ByteBuffer request;
+  private ByteBuffer joke;
+  private ByteBuffer image;
+  private JSONObject requestJson;
+  private JSONObject jokeJson;
+  private String jokeText;
+  private final ByteBuffer out = ByteBuffer.allocate(1024);
+
+  // a frame the way FrameReader hands it out, a view into a larger buffer
+  private static ByteBuffer view(JSONObject json) {
+    byte[] bytes = json.toString().getBytes();
+    byte[] buffer = new byte[bytes.length + 64];
+    System.arraycopy(bytes, 0, buffer, 32, bytes.length);
+    return ByteBuffer.wrap(buffer, 32, bytes.length).slice();
+  }
+
+  @Setup
+  public void setup() throws IOException {
+    requestJson = new JSONObject().put("selected", 3).put("binary", true).put("id", 12345);
+    jokeJson = Server.joke();
+    jokeText = jokeJson.getString("data");
+    request = view(requestJson);
+    joke = view(jokeJson);
+    image = view(Server.image());
+  }
+
+  private static JSONObject oldRead(ByteBuffer b) {
+    return new JSONObject(new String(b.array(), b.arrayOffset() + b.position(), b.remaining()));
+  }
+
+  @Benchmark
+  public Object readRequestOrgJson() {
+    JSONObject json = oldRead(request);
+    return json.getInt("selected") + (json.optBoolean("binary") ? 1 : 0) + json.get("id").hashCode();
+  }
+
+  @Benchmark
+  public Object readRequestCodec() {
+    return JsonCodec.decode(request);
+  }
+
+  @Benchmark
+  public Object readRequestFields() {
+    return JsonCodec.readRequest(request);
+  }
+
+  @Benchmark
+  public Object readJokeOrgJson() {
+    return oldRead(joke);
+  }
+
+  @Benchmark
+  public Object readJokeCodec() {
+    return JsonCodec.decode(joke);
+  }
+
+  @Benchmark
+  public Object readImageOrgJson() {
+    return oldRead(image);
+  }
+
+  @Benchmark
+  public Object readImageCodec() {
+    return JsonCodec.decode(image);
+  }
+
+  @Benchmark
+  public Object writeRequestOrgJson() {
+    return requestJson.toString().getBytes();
+  }
+
+  @Benchmark
+  public Object writeRequestFields() {
+    out.clear();
+    JsonCodec.writeRequest(out, 3, true, 12345);
+    return out;
+  }
+
+  @Benchmark
+  public Object writeJokeOrgJson() {
+    return jokeJson.toString().getBytes();
+  }
+
+  @Benchmark
+  public Object writeJokeCodec() {
+    out.clear();
+    JsonCodec.write(jokeJson, out);
+    return out;
+  }
+
+  @Benchmark
+  public Object writeJokeFields() {
+    out.clear();
+    JsonCodec.writeResponse(out, 1, "joke", jokeText);
+    return out;
+  }
+}
@@ -0,0 +1,302 @@
+package fauxSolution.tcp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/*
+ * A client for programs rather than people: request() sends a request and
+ * returns at once with a future for the answer, so many requests can be on
+ * the wire of one connection at the same time (pipelining) instead of one
+ * round trip after the other.
+ *
+ * Every request gets an "id" that the server copies into its response, and
+ * the response completes the future with that id. Against a server that does
+ * not echo ids the responses are matched in order, which is how all servers
+ * here answer anyway.
+ *
+ * One thread writes: requests queue up and are flushed together when the
+ * queue runs empty, so a burst of requests goes out in a few large writes.
+ * One thread reads and completes the futures. At most <window> requests are
+ * unanswered; request() waits when that many are out.
+ *
+ * A binary image (datatype 3) is read completely and put into the response
+ * JSON as a byte[] under "bytes".
+ *
+ * With a compression algorithm or batching the client first asks the server
+ * for those options (see FrameCodec). If the server agrees, large frames are
+ * compressed both ways and, with batching, the requests queued at one flush
+ * go out as one batch frame and come back as one; otherwise the connection
+ * stays plain.
+ */
+public class AsyncClient implements AutoCloseable {
+  public static final int DEFAULT_WINDOW = 256;
+  private static final byte[] CLOSE = new byte[0];
+  private static final int MAX_BATCH = 64;
+
+  private final Socket sock;
+  private final Semaphore window;
+  private final AtomicLong nextId = new AtomicLong();
+  private final Map<Long, CompletableFuture<JSONObject>> pending = new ConcurrentHashMap<>();
+  private final ConcurrentLinkedQueue<Long> order = new ConcurrentLinkedQueue<>();
+  private final LinkedBlockingQueue<byte[]> outgoing = new LinkedBlockingQueue<>();
+  private final ArrayDeque<ByteBuffer> batched = new ArrayDeque<>(); // rest of a batch read
+  private final JSONObject options; // what the server agreed to, null for plain frames
+  private final FrameCodec writeCodec; // one each, a codec is not thread-safe
+  private final FrameCodec readCodec;
+  private volatile long bytesWritten;
+  private volatile long bytesRead;
+  private volatile IOException failure;
+
+  public AsyncClient(String host, int port) throws IOException {
+    this(host, port, DEFAULT_WINDOW);
+  }
+
+  public AsyncClient(String host, int port, int window) throws IOException {
+    this(host, port, window, FrameCodec.Algorithm.NONE, false);
+  }
+
+  public AsyncClient(String host, int port, int window, FrameCodec.Algorithm compress, boolean batch)
+      throws IOException {
+    sock = new Socket(host, port);
+    sock.setTcpNoDelay(true); // we do our own batching
+    this.window = new Semaphore(window);
+    JSONObject agreed = null;
+    if (compress != FrameCodec.Algorithm.NONE || batch) {
+      // nothing else is on the wire yet, so this answer is the first frame
+      byte[] ask = JsonUtils.toByteArray(new FrameCodec(compress, FrameCodec.DEFAULT_THRESHOLD, batch).options());
+      NetworkUtils.Send(sock.getOutputStream(), ask);
+      byte[] answer = NetworkUtils.Receive(sock.getInputStream());
+      bytesWritten += 4 + ask.length;
+      bytesRead += 4 + answer.length;
+      try {
+        agreed = JsonUtils.fromByteArray(answer).optJSONObject("options"); // an error from older servers
+      } catch (JSONException e) {
+        agreed = null;
+      }
+    }
+    options = agreed;
+    writeCodec = agreed == null ? null : FrameCodec.accept(agreed);
+    readCodec = agreed == null ? null : FrameCodec.accept(agreed);
+    Thread writer = new Thread(this::writeLoop, "async-client-writer");
+    writer.setDaemon(true);
+    writer.start();
+    Thread reader = new Thread(this::readLoop, "async-client-reader");
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  // sends request (a copy of it with an "id" added); the future fails if the
+  // connection breaks before the answer arrives
+  public CompletableFuture<JSONObject> request(JSONObject request) {
+    if (failure != null) {
+      return failed(failure);
+    }
+    try {
+      window.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return failed(new InterruptedIOException("interrupted while waiting for the window"));
+    }
+    long id = nextId.getAndIncrement();
+    JSONObject tagged = new JSONObject();
+    for (String key : request.keySet()) {
+      tagged.put(key, request.get(key));
+    }
+    tagged.put("id", id);
+    byte[] bytes = JsonUtils.toByteArray(tagged);
+    CompletableFuture<JSONObject> future = new CompletableFuture<>();
+    pending.put(id, future);
+    synchronized (order) { // order is the order on the wire
+      order.add(id);
+      outgoing.add(bytes);
+    }
+    if (failure != null) {
+      fail(id, failure); // the connection broke meanwhile
+    }
+    return future;
+  }
+
+  // requests sent and not answered yet
+  public int inFlight() {
+    return pending.size();
+  }
+
+  // the options the server agreed to, or null when the frames are plain
+  public JSONObject options() {
+    return options;
+  }
+
+  // bytes on the wire so far, length words included
+  public long bytesWritten() {
+    return bytesWritten;
+  }
+
+  public long bytesRead() {
+    return bytesRead;
+  }
+
+  private void writeLoop() {
+    try (OutputStream out = new BufferedOutputStream(sock.getOutputStream(), 64 << 10)) {
+      boolean closing = false;
+      while (!closing) {
+        byte[] request = outgoing.take();
+        if (request == CLOSE) {
+          break;
+        }
+        byte[] frame;
+        if (writeCodec == null) {
+          frame = null;
+          out.write(NetworkUtils.intToBytes(request.length));
+          out.write(request);
+          bytesWritten += 4 + request.length;
+        } else if (!writeCodec.batch || outgoing.isEmpty()) {
+          frame = writeCodec.frame(request, 0, request.length);
+        } else {
+          // plain frames inside, the batch is compressed as a whole
+          ByteArrayOutputStream frames = new ByteArrayOutputStream();
+          int n = 0;
+          while (request != null) {
+            if (request == CLOSE) {
+              closing = true;
+              break;
+            }
+            frames.write(NetworkUtils.intToBytes(request.length));
+            frames.write(request);
+            request = ++n < MAX_BATCH ? outgoing.poll() : null;
+          }
+          frame = writeCodec.batch(frames.toByteArray(), false);
+        }
+        if (frame != null) {
+          out.write(frame);
+          bytesWritten += frame.length;
+        }
+        if (outgoing.isEmpty() || closing) {
+          out.flush();
+        }
+      }
+    } catch (IOException e) {
+      failAll(e);
+    } catch (InterruptedException e) {
+      failAll(new InterruptedIOException("writer interrupted"));
+    }
+  }
+
+  private void readLoop() {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(sock.getInputStream(), 64 << 10))) {
+      while (true) {
+        JSONObject response = JsonCodec.decode(next(in));
+        if (response.optInt("datatype") == 3) {
+          response.put("bytes", image(in, response));
+        }
+        Long id = response.has("id") ? response.getLong("id") : order.peek();
+        CompletableFuture<JSONObject> future = id == null ? null : pending.remove(id);
+        if (future == null) {
+          throw new IOException("response to no request: " + response.opt("id"));
+        }
+        order.remove(id);
+        window.release();
+        future.complete(response);
+      }
+    } catch (IOException e) {
+      failAll(e);
+    } catch (JSONException e) {
+      failAll(new IOException("malformed response", e));
+    }
+  }
+
+  // the payload of the next frame, taken apart when compressed or a batch
+  private ByteBuffer next(DataInputStream in) throws IOException {
+    while (batched.isEmpty()) {
+      int word = in.readInt();
+      int length = readCodec == null ? word : word & FrameCodec.LENGTH;
+      if (length < 0 || length > FrameReader.DEFAULT_MAX_FRAME) {
+        throw new IOException("message of " + length + " bytes exceeds the limit of " + FrameReader.DEFAULT_MAX_FRAME);
+      }
+      byte[] payload = new byte[length];
+      in.readFully(payload);
+      bytesRead += 4 + length;
+      if (readCodec == null) {
+        return ByteBuffer.wrap(payload);
+      }
+      ByteBuffer frame = readCodec.payload(word, ByteBuffer.wrap(payload));
+      if ((word & FrameCodec.BATCH) == 0) {
+        return frame;
+      }
+      batched.addAll(readCodec.unbatch(frame));
+    }
+    return batched.poll();
+  }
+
+  // Client.receiveImage, for chunks that may come inside a batch
+  private byte[] image(DataInputStream in, JSONObject header) throws IOException {
+    byte[] bytes = new byte[header.getInt("size")];
+    int off = 0;
+    for (int i = 0; i < header.getInt("chunks"); i++) {
+      ByteBuffer chunk = next(in);
+      if (chunk.remaining() > bytes.length - off) {
+        throw new IOException("image is larger than announced");
+      }
+      int n = chunk.remaining();
+      chunk.get(bytes, off, n);
+      off += n;
+    }
+    if (off != bytes.length) {
+      throw new IOException("image is smaller than announced");
+    }
+    return bytes;
+  }
+
+  private void fail(long id, IOException e) {
+    CompletableFuture<JSONObject> future = pending.remove(id);
+    if (future != null) {
+      window.release();
+      future.completeExceptionally(e);
+    }
+  }
+
+  private void failAll(IOException e) {
+    if (failure == null) {
+      failure = e;
+    }
+    for (Long id : pending.keySet()) {
+      fail(id, failure);
+    }
+    try {
+      sock.close();
+    } catch (IOException ignored) {
+      // already closed
+    }
+  }
+
+  private static CompletableFuture<JSONObject> failed(IOException e) {
+    CompletableFuture<JSONObject> future = new CompletableFuture<>();
+    future.completeExceptionally(e);
+    return future;
+  }
+
+  // answers still outstanding fail
+  @Override
+  public void close() {
+    outgoing.add(CLOSE);
+    failAll(new SocketException("client closed"));
+  }
+}
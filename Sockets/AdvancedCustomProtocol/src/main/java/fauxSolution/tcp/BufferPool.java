@@ -0,0 +1,67 @@
+package fauxSolution.tcp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Pool of heap ByteBuffers in power-of-two size classes, so FrameReader and
+ * the servers reuse their buffers instead of allocating one per message.
+ * Heap buffers because every payload ends up parsed from its backing array.
+ * Each class keeps at most MAX_PER_CLASS idle buffers; anything beyond that
+ * is left to the garbage collector.
+ */
+public class BufferPool {
+  public static final BufferPool shared = new BufferPool();
+
+  private static final int MIN_SHIFT = 10; // 1KB
+  private static final int MAX_SHIFT = 30; // 1GB
+  private static final int MAX_PER_CLASS = 64;
+
+  private final ConcurrentLinkedQueue<ByteBuffer>[] free;
+  private final AtomicInteger[] idle;
+
+  @SuppressWarnings("unchecked")
+  public BufferPool() {
+    int classes = MAX_SHIFT - MIN_SHIFT + 1;
+    free = (ConcurrentLinkedQueue<ByteBuffer>[]) new ConcurrentLinkedQueue<?>[classes];
+    idle = new AtomicInteger[classes];
+    for (int i = 0; i < classes; i++) {
+      free[i] = new ConcurrentLinkedQueue<>();
+      idle[i] = new AtomicInteger();
+    }
+  }
+
+  private static int sizeClass(int size) {
+    int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+    return Math.max(shift, MIN_SHIFT) - MIN_SHIFT;
+  }
+
+  // a cleared buffer with at least size bytes of capacity
+  public ByteBuffer acquire(int size) {
+    int c = sizeClass(size);
+    if (c >= free.length) {
+      throw new IllegalArgumentException("buffer of " + size + " bytes is too large");
+    }
+    ByteBuffer buf = free[c].poll();
+    if (buf == null) {
+      return ByteBuffer.allocate(1 << (c + MIN_SHIFT));
+    }
+    idle[c].decrementAndGet();
+    buf.clear();
+    return buf;
+  }
+
+  // hands a buffer from acquire back; it must not be used afterwards
+  public void release(ByteBuffer buf) {
+    int c = sizeClass(buf.capacity());
+    if (c >= free.length || buf.capacity() != 1 << (c + MIN_SHIFT)) {
+      return; // not one of ours
+    }
+    if (idle[c].incrementAndGet() > MAX_PER_CLASS) {
+      idle[c].decrementAndGet();
+      return;
+    }
+    free[c].offer(buf);
+  }
+}
@@ -20,11 +20,16 @@ import org.json.*;
 public class Client {
   /*
    * request: { "selected": <int: 1=joke, 2=quote, 3=image, 4=random>,
-   * (optional)"min": <int>, (optional)"max":<int> }
+   * (optional)"min": <int>, (optional)"max":<int>, (optional)"binary": <bool>,
+   * (optional)"id": <correlation id, echoed in the response> }
    * 
    * response: {"datatype": <int: 1-string, 2-byte array>, "type": <"joke",
    * "quote", "image"> "data": <thing to return> }
    * 
+   * binary image response (when "binary" is true): {"datatype": 3, "type":
+   * "image", "size": <bytes>, "chunks": <frames>} and then the image file in
+   * <frames> raw frames
+   * 
    * error response: {"error": <error string> }
    */
   public static JSONObject joke() {
@@ -42,15 +47,51 @@ public class Client {
   public static JSONObject image() {
     JSONObject request = new JSONObject();
     request.put("selected", 3);
+    request.put("binary", true);
     return request;
   }
 
   public static JSONObject random() {
     JSONObject request = new JSONObject();
     request.put("selected", 4);
+    request.put("binary", true);
     return request;
   }
 
+  // reads the raw frames following a binary image header
+  public static byte[] receiveImage(InputStream in, JSONObject header) throws IOException {
+    byte[] bytes = new byte[header.getInt("size")];
+    int off = 0;
+    for (int i = 0; i < header.getInt("chunks"); i++) {
+      byte[] chunk = NetworkUtils.Receive(in);
+      if (chunk.length > bytes.length - off) {
+        throw new IOException("image is larger than announced");
+      }
+      System.arraycopy(chunk, 0, bytes, off, chunk.length);
+      off += chunk.length;
+    }
+    if (off != bytes.length) {
+      throw new IOException("image is smaller than announced");
+    }
+    return bytes;
+  }
+
+  public static void show(byte[] bytes) throws IOException {
+    ImageIcon icon = null;
+    try (ByteArrayInputStream bais = new ByteArrayInputStream(bytes)) {
+      BufferedImage image = ImageIO.read(bais);
+      icon = new ImageIcon(image);
+    }
+    if (icon != null) {
+      JFrame frame = new JFrame();
+      JLabel label = new JLabel();
+      label.setIcon(icon);
+      frame.add(label);
+      frame.setSize(icon.getIconWidth(), icon.getIconHeight());
+      frame.show();
+    }
+  }
+
   public static void main(String[] args) throws IOException {
     Socket sock;
     try {
@@ -106,22 +147,13 @@ public class Client {
             case (2): {
               System.out.println("Your image");
               Base64.Decoder decoder = Base64.getDecoder();
-              byte[] bytes = decoder.decode(response.getString("data"));
-              ImageIcon icon = null;
-              try (ByteArrayInputStream bais = new ByteArrayInputStream(bytes)) {
-                BufferedImage image = ImageIO.read(bais);
-                icon = new ImageIcon(image);
-              }
-              if (icon != null) {
-                JFrame frame = new JFrame();
-                JLabel label = new JLabel();
-                label.setIcon(icon);
-                frame.add(label);
-                frame.setSize(icon.getIconWidth(), icon.getIconHeight());
-                frame.show();
-              }
+              show(decoder.decode(response.getString("data")));
             }
               break;
+            case (3):
+              System.out.println("Your image");
+              show(receiveImage(in, response));
+              break;
             }
           }
         }
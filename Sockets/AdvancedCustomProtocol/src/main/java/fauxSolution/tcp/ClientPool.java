@@ -0,0 +1,51 @@
+package fauxSolution.tcp;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import org.json.JSONObject;
+
+/*
+ * A few AsyncClient connections to the same server for tools that fetch
+ * thousands of items. Each request goes to the connection with the fewest
+ * unanswered requests, so one slow answer (an image) does not hold up the
+ * requests queued behind it on the same connection.
+ */
+public class ClientPool implements AutoCloseable {
+  private final AsyncClient[] clients;
+
+  public ClientPool(String host, int port, int connections) throws IOException {
+    this(host, port, connections, AsyncClient.DEFAULT_WINDOW);
+  }
+
+  public ClientPool(String host, int port, int connections, int window) throws IOException {
+    clients = new AsyncClient[connections];
+    try {
+      for (int i = 0; i < connections; i++) {
+        clients[i] = new AsyncClient(host, port, window);
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  public CompletableFuture<JSONObject> request(JSONObject request) {
+    AsyncClient least = clients[0];
+    for (AsyncClient c : clients) {
+      if (c.inFlight() < least.inFlight()) {
+        least = c;
+      }
+    }
+    return least.request(request);
+  }
+
+  @Override
+  public void close() {
+    for (AsyncClient c : clients) {
+      if (c != null) {
+        c.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package fauxSolution.tcp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.json.JSONObject;
+
+/*
+ * Bytes on the wire and requests per second for the frame options (see
+ * FrameCodec), one pipelined AsyncClient against a NioServer started in
+ * this JVM:
+ *   plain        no options asked for, the frames of every other client
+ *   deflate/lz4  frames of at least 1KB compressed
+ *   batch        the requests of one flush in one frame, answered in one
+ *   batch+lz4    both; small messages compress well once they are batched
+ * for jokes (about 100 bytes) and Base64 images (about 15KB of JSON).
+ * Every answer is checked for the type that was asked for.
+ *
+ * gradle TCPCompressionBenchmark --args '20000 10000'
+ * <jokes> <images>
+ */
+public class CompressionBenchmark {
+
+  private static final Object[][] MODES = { { "plain", FrameCodec.Algorithm.NONE, false },
+      { "deflate", FrameCodec.Algorithm.DEFLATE, false }, { "lz4", FrameCodec.Algorithm.LZ4, false },
+      { "batch", FrameCodec.Algorithm.NONE, true }, { "batch+lz4", FrameCodec.Algorithm.LZ4, true } };
+
+  private static void run(AsyncClient client, JSONObject request, int requests, String type) throws Exception {
+    List<CompletableFuture<JSONObject>> answers = new ArrayList<>(requests);
+    for (int i = 0; i < requests; i++) {
+      answers.add(client.request(request));
+    }
+    for (CompletableFuture<JSONObject> answer : answers) {
+      JSONObject response = answer.get();
+      if (!type.equals(response.optString("type"))) {
+        throw new IOException("unexpected response " + response.optString("type", response.optString("error")));
+      }
+    }
+  }
+
+  private static void measure(int port, String type, int selected, int requests) throws Exception {
+    JSONObject request = new JSONObject().put("selected", selected);
+    for (Object[] mode : MODES) {
+      FrameCodec.Algorithm algorithm = (FrameCodec.Algorithm) mode[1];
+      boolean batch = (Boolean) mode[2];
+      try (AsyncClient warmup = new AsyncClient("localhost", port, AsyncClient.DEFAULT_WINDOW, algorithm, batch)) {
+        run(warmup, request, requests / 2, type); // the codecs need a while to get compiled
+      }
+      try (AsyncClient client = new AsyncClient("localhost", port, AsyncClient.DEFAULT_WINDOW, algorithm, batch)) {
+        long written = client.bytesWritten();
+        long read = client.bytesRead();
+        long start = System.nanoTime();
+        run(client, request, requests, type);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-6s %-10s %8.0f requests/s %8.1f bytes/request out %10.1f bytes/response in%n", type,
+            mode[0], requests / seconds, (client.bytesWritten() - written) / (double) requests,
+            (client.bytesRead() - read) / (double) requests);
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int jokes = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    int images = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+    ResponseCache.preload();
+    NioServer nio = new NioServer(0);
+    Thread loop = new Thread(() -> {
+      try {
+        nio.serve();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    });
+    loop.start();
+    measure(nio.getPort(), "joke", 1, jokes);
+    measure(nio.getPort(), "image", 3, images);
+    nio.close();
+  }
+}
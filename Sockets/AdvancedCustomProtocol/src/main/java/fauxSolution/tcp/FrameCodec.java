@@ -0,0 +1,323 @@
+package fauxSolution.tcp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.json.JSONObject;
+
+/*
+ * Compressed and batch frames, for connections that asked for them.
+ *
+ * Frames keep their 4-byte big-endian length; a real length never needs
+ * the top two bits (frames are at most 16MB), so those carry flags:
+ *   bit 31 COMPRESSED  payload is [original length (4 bytes), compressed
+ *                      bytes], with the algorithm agreed on for the connection
+ *   bit 30 BATCH       payload is several frames, each with its own length
+ *                      word (which may be COMPRESSED, but not BATCH)
+ * A compressed JSON frame may carry its "id" uncompressed, so a response
+ * shared by many requests is compressed once (see Responder): then bit 31 of
+ * the original length (ID) is set and [id length (4 bytes), "id":<value>]
+ * comes before the compressed bytes; payload() puts the field back into the
+ * object.
+ *
+ * A client that never asks gets plain frames only, so old clients and the
+ * simple Server are not affected.
+ *
+ * Asking: the client sends { "options": { "compress": "lz4"|"deflate"|"none",
+ * "threshold": <bytes>, "batch": true } } as an ordinary frame. A server that
+ * knows options answers { "options": { what it will use } } and from then on
+ * compresses frames of at least threshold bytes and answers a batch with a
+ * batch. Any other answer (the simple Server sends an error) means plain
+ * frames. Both sides only keep a compressed frame if it is smaller.
+ *
+ * One instance per connection and direction of use; not thread-safe.
+ */
+public final class FrameCodec {
+  public static final int COMPRESSED = 1 << 31;
+  public static final int BATCH = 1 << 30;
+  public static final int LENGTH = BATCH - 1;
+  public static final int ID = 1 << 31; // in the original length of a compressed frame
+  public static final int DEFAULT_THRESHOLD = 1024;
+
+  public enum Algorithm {
+    NONE, DEFLATE, LZ4;
+
+    public String wireName() {
+      return name().toLowerCase();
+    }
+
+    public static Algorithm of(String name) {
+      for (Algorithm a : values()) {
+        if (a.wireName().equals(name)) {
+          return a;
+        }
+      }
+      return NONE;
+    }
+  }
+
+  public final Algorithm algorithm;
+  public final int threshold;
+  public final boolean batch;
+  private final int maxFrame;
+  private Deflater deflater;
+  private Inflater inflater;
+  private Lz4 lz4;
+
+  public FrameCodec(Algorithm algorithm, int threshold, boolean batch) {
+    this(algorithm, threshold, batch, FrameReader.DEFAULT_MAX_FRAME);
+  }
+
+  public FrameCodec(Algorithm algorithm, int threshold, boolean batch, int maxFrame) {
+    this.algorithm = algorithm;
+    this.threshold = Math.max(threshold, 16);
+    this.batch = batch;
+    this.maxFrame = maxFrame;
+  }
+
+  // the options request or answer for this codec
+  public JSONObject options() {
+    JSONObject options = new JSONObject();
+    options.put("compress", algorithm.wireName());
+    options.put("threshold", threshold);
+    options.put("batch", batch);
+    return new JSONObject().put("options", options);
+  }
+
+  // what a server agrees to when a client asks for options
+  public static FrameCodec accept(JSONObject options) {
+    return new FrameCodec(Algorithm.of(options.optString("compress")),
+        options.optInt("threshold", DEFAULT_THRESHOLD), options.optBoolean("batch", false));
+  }
+
+  /* ---------------- writing ---------------- */
+
+  /*
+   * One frame (length word and payload) for payload[off, off+len),
+   * compressed when it is at least threshold bytes and that makes it smaller.
+   */
+  public byte[] frame(byte[] payload, int off, int len) {
+    if (algorithm != Algorithm.NONE && len >= threshold) {
+      byte[] packed = compress(payload, off, len);
+      if (packed != null) {
+        return packed;
+      }
+    }
+    byte[] frame = new byte[4 + len];
+    ByteBuffer.wrap(frame).putInt(len);
+    System.arraycopy(payload, off, frame, 4, len);
+    return frame;
+  }
+
+  /*
+   * Frames (each with its length word) one after the other, as written by
+   * NetworkUtils or held by a ResponseCache.Response, re-encoded: the first
+   * <text> frames (JSON) are compressed on their own when large enough, the
+   * rest (raw image chunks, which do not get smaller) are copied as they are.
+   */
+  public byte[] frames(byte[] wire, int text) {
+    List<byte[]> parts = new ArrayList<>();
+    int size = 0;
+    int p = 0;
+    for (int i = 0; p < wire.length; i++) {
+      int len = ByteBuffer.wrap(wire, p, 4).getInt();
+      byte[] frame = i < text ? frame(wire, p + 4, len) : Arrays.copyOfRange(wire, p, p + 4 + len);
+      parts.add(frame);
+      size += frame.length;
+      p += 4 + len;
+    }
+    byte[] out = new byte[size];
+    p = 0;
+    for (byte[] part : parts) {
+      System.arraycopy(part, 0, out, p, part.length);
+      p += part.length;
+    }
+    return out;
+  }
+
+  /*
+   * A batch frame holding frames (each with its length word, possibly
+   * compressed). When nothing inside is compressed yet the whole batch is
+   * compressed instead, which is where many small messages gain most.
+   */
+  public byte[] batch(byte[] frames, boolean innerCompressed) {
+    if (!innerCompressed && algorithm != Algorithm.NONE && frames.length >= threshold) {
+      byte[] packed = compress(frames, 0, frames.length);
+      if (packed != null) {
+        ByteBuffer.wrap(packed).putInt(0, packed.length - 4 | COMPRESSED | BATCH);
+        return packed;
+      }
+    }
+    byte[] frame = new byte[4 + frames.length];
+    ByteBuffer.wrap(frame).putInt(frames.length | BATCH);
+    System.arraycopy(frames, 0, frame, 4, frames.length);
+    return frame;
+  }
+
+  /*
+   * frames (as made by frames()) with "id": id added to the first one, which
+   * must be COMPRESSED, without compressing it again.
+   */
+  public static byte[] withId(byte[] frames, Object id) {
+    ByteBuffer in = ByteBuffer.wrap(frames);
+    int word = in.getInt();
+    int original = in.getInt();
+    if ((word & COMPRESSED) == 0 || (original & ID) != 0) {
+      throw new IllegalArgumentException("not a compressed frame without id");
+    }
+    byte[] field = ("\"id\":" + JSONObject.valueToString(id)).getBytes(StandardCharsets.UTF_8);
+    byte[] out = new byte[frames.length + 4 + field.length];
+    ByteBuffer.wrap(out).putInt((word & LENGTH) + 4 + field.length | COMPRESSED).putInt(original | ID)
+        .putInt(field.length).put(field).put(frames, 8, frames.length - 8);
+    return out;
+  }
+
+  // a COMPRESSED frame, or null if compressing does not make it smaller
+  private byte[] compress(byte[] src, int off, int len) {
+    byte[] out;
+    int n;
+    if (algorithm == Algorithm.LZ4) {
+      if (lz4 == null) {
+        lz4 = new Lz4();
+      }
+      out = new byte[8 + Lz4.maxCompressedLength(len)];
+      n = lz4.compress(src, off, len, out, 8);
+    } else {
+      if (deflater == null) {
+        deflater = new Deflater(Deflater.BEST_SPEED);
+      }
+      deflater.reset();
+      deflater.setInput(src, off, len);
+      deflater.finish();
+      out = new byte[8 + len];
+      n = 0;
+      while (!deflater.finished()) {
+        int room = out.length - 8 - n;
+        if (room == 0) {
+          return null; // larger than the original
+        }
+        n += deflater.deflate(out, 8 + n, room);
+      }
+    }
+    if (n + 4 >= len) {
+      return null;
+    }
+    ByteBuffer.wrap(out).putInt(4 + n | COMPRESSED).putInt(len);
+    return Arrays.copyOf(out, 8 + n);
+  }
+
+  /* ---------------- reading ---------------- */
+
+  // the payload of a frame read with the given length word's flags
+  public ByteBuffer payload(int flags, ByteBuffer payload) throws IOException {
+    if ((flags & COMPRESSED) == 0) {
+      return payload;
+    }
+    if (payload.remaining() < 4) {
+      throw new IOException("compressed frame without its length");
+    }
+    int original = payload.getInt(payload.position());
+    int length = original & ~ID;
+    int field = 0; // bytes of the "id" field ahead of the compressed ones
+    if ((original & ID) != 0) {
+      field = payload.remaining() < 8 ? -1 : payload.getInt(payload.position() + 4);
+      if (field <= 0 || field > payload.remaining() - 8) {
+        throw new IOException("compressed frame with a broken id");
+      }
+    }
+    // the id goes in after the '{', with a ',' after it
+    int head = field == 0 ? 0 : 1 + field;
+    if (length > maxFrame - head) {
+      throw new IOException("compressed frame of " + length + " bytes exceeds the limit of " + maxFrame);
+    }
+    byte[] src;
+    int off;
+    if (payload.hasArray()) {
+      src = payload.array();
+      off = payload.arrayOffset() + payload.position() + 4;
+    } else {
+      src = new byte[payload.remaining()];
+      payload.duplicate().get(src);
+      off = 4;
+    }
+    int len = payload.remaining() - 4;
+    byte[] out = new byte[head + length];
+    if (field > 0) {
+      off += 4 + field;
+      len -= 4 + field;
+    }
+    if (algorithm == Algorithm.LZ4) {
+      Lz4.decompress(src, off, len, out, head, length);
+    } else if (algorithm == Algorithm.DEFLATE) {
+      if (inflater == null) {
+        inflater = new Inflater();
+      }
+      inflater.reset();
+      inflater.setInput(src, off, len);
+      try {
+        int n = 0;
+        while (n < length && !inflater.finished()) {
+          int got = inflater.inflate(out, head + n, length - n);
+          if (got == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+            break;
+          }
+          n += got;
+        }
+        if (n != length || !inflater.finished()) {
+          throw new IOException("compressed frame does not match its length");
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("corrupt compressed frame", e);
+      }
+    } else {
+      throw new IOException("compressed frame, but no compression was agreed on");
+    }
+    if (field > 0) {
+      if (length < 2 || out[head] != '{') {
+        throw new IOException("compressed frame with an id is not a JSON object");
+      }
+      // '{' "id":<value> ',' and the rest; an empty object gets a space instead
+      out[0] = '{';
+      System.arraycopy(src, off - field, out, 1, field);
+      out[head] = out[head + 1] == '}' ? (byte) ' ' : (byte) ',';
+    }
+    return ByteBuffer.wrap(out);
+  }
+
+  // the frames inside a (decompressed) batch payload, each decompressed
+  public List<ByteBuffer> unbatch(ByteBuffer payload) throws IOException {
+    List<ByteBuffer> frames = new ArrayList<>();
+    ByteBuffer b = payload.duplicate();
+    while (b.hasRemaining()) {
+      if (b.remaining() < 4) {
+        throw new IOException("batch ends inside a length");
+      }
+      int word = b.getInt();
+      int len = word & LENGTH;
+      if ((word & BATCH) != 0 || len > b.remaining()) {
+        throw new IOException("malformed batch");
+      }
+      ByteBuffer inner = b.slice();
+      inner.limit(len);
+      b.position(b.position() + len);
+      frames.add(payload(word, inner));
+    }
+    return frames;
+  }
+
+  public void close() {
+    if (deflater != null) {
+      deflater.end();
+    }
+    if (inflater != null) {
+      inflater.end();
+    }
+  }
+}
@@ -0,0 +1,322 @@
+package fauxSolution.tcp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONObject;
+
+/*
+ * Fuzz check for the framing. Random frames are written with FrameWriter
+ * through a channel that accepts a random number of bytes per write, and
+ * read back with FrameReader and NetworkUtils.Receive through channels and
+ * streams that hand out random splits, including empty non-blocking reads.
+ * Also checks that a stream cut inside a frame and an oversized length are
+ * reported instead of returning garbage. The same frames, made compressible
+ * now and then, go through FrameCodec with LZ4 and Deflate, on their own and
+ * batched; damaged compressed frames must throw an IOException, and a
+ * compressed JSON frame given an id afterwards must read back with that id.
+ * Exits with 1 on the first mismatch.
+ *
+ * gradle TCPFrameFuzz --args '2000 42'
+ */
+public class FrameFuzz {
+
+  // hands out the data in random pieces; returns 0 now and then if nonBlocking
+  private static class SplitChannel extends InputStream implements ReadableByteChannel {
+    private final byte[] data;
+    private final Random rand;
+    private final boolean nonBlocking;
+    private int pos;
+
+    SplitChannel(byte[] data, Random rand, boolean nonBlocking) {
+      this.data = data;
+      this.rand = rand;
+      this.nonBlocking = nonBlocking;
+    }
+
+    private int chunk(int max) {
+      int n = rand.nextInt(4) == 0 ? 1 + rand.nextInt(3) : 1 + rand.nextInt(3000);
+      return Math.min(Math.min(n, max), data.length - pos);
+    }
+
+    public int read(ByteBuffer dst) {
+      if (pos == data.length) {
+        return -1;
+      }
+      if (nonBlocking && rand.nextInt(3) == 0) {
+        return 0;
+      }
+      int n = chunk(dst.remaining());
+      dst.put(data, pos, n);
+      pos += n;
+      return n;
+    }
+
+    public int read(byte[] b, int off, int len) {
+      if (pos == data.length) {
+        return -1;
+      }
+      int n = chunk(len);
+      System.arraycopy(data, pos, b, off, n);
+      pos += n;
+      return n;
+    }
+
+    public int read() {
+      return pos == data.length ? -1 : data[pos++] & 0xff;
+    }
+
+    public boolean isOpen() {
+      return true;
+    }
+
+    public void close() {
+    }
+  }
+
+  // accepts a random number of bytes per write, like a full socket buffer
+  private static class SplitSink implements GatheringByteChannel {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final Random rand;
+
+    SplitSink(Random rand) {
+      this.rand = rand;
+    }
+
+    public long write(ByteBuffer[] srcs, int offset, int length) {
+      int budget = 1 + rand.nextInt(5000);
+      long written = 0;
+      for (int i = offset; i < offset + length && budget > 0; i++) {
+        int n = Math.min(budget, srcs[i].remaining());
+        for (int j = 0; j < n; j++) {
+          out.write(srcs[i].get());
+        }
+        budget -= n;
+        written += n;
+      }
+      return written;
+    }
+
+    public long write(ByteBuffer[] srcs) {
+      return write(srcs, 0, srcs.length);
+    }
+
+    public int write(ByteBuffer src) {
+      return (int) write(new ByteBuffer[] { src });
+    }
+
+    public boolean isOpen() {
+      return true;
+    }
+
+    public void close() {
+    }
+  }
+
+  private static void check(boolean ok, String what) {
+    if (!ok) {
+      System.out.println("FAILED: " + what);
+      System.exit(1);
+    }
+  }
+
+  private static byte[][] randomFrames(Random rand) {
+    byte[][] frames = new byte[1 + rand.nextInt(20)][];
+    for (int i = 0; i < frames.length; i++) {
+      int size;
+      switch (rand.nextInt(4)) {
+      case (0):
+        size = 0;
+        break;
+      case (1):
+        size = rand.nextInt(100);
+        break;
+      case (2):
+        size = rand.nextInt(5000);
+        break;
+      default:
+        size = rand.nextInt(200000);
+      }
+      frames[i] = new byte[size];
+      rand.nextBytes(frames[i]);
+      if (rand.nextBoolean()) {
+        // repeats at random distances and lengths, so there is something to compress
+        for (int p = 0; p + 8 < size; p += 1 + rand.nextInt(64)) {
+          int from = rand.nextInt(p + 1);
+          int n = Math.min(1 + rand.nextInt(300), size - p);
+          System.arraycopy(frames[i], from, frames[i], p, n);
+        }
+      }
+    }
+    return frames;
+  }
+
+  // frames through a FrameCodec and FrameReader with flags, and damaged copies
+  private static void codec(Random rand, BufferPool pool, byte[][] sent, FrameCodec.Algorithm algorithm)
+      throws IOException {
+    FrameCodec codec = new FrameCodec(algorithm, 16 + rand.nextInt(2000), true);
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    ByteArrayOutputStream inner = new ByteArrayOutputStream();
+    for (byte[] f : sent) {
+      stream.write(codec.frame(f, 0, f.length));
+      inner.write(NetworkUtils.intToBytes(f.length));
+      inner.write(f);
+    }
+    stream.write(codec.batch(inner.toByteArray(), false));
+    byte[] bytes = stream.toByteArray();
+    try (FrameReader reader = new FrameReader(new SplitChannel(bytes, rand, false), pool, FrameReader.DEFAULT_BUFFER,
+        FrameReader.DEFAULT_MAX_FRAME)) {
+      reader.acceptFlags();
+      for (byte[] f : sent) {
+        ByteBuffer frame = readFrame(reader);
+        ByteBuffer got = codec.payload(reader.flags(), frame);
+        check(got.equals(ByteBuffer.wrap(f)), algorithm + " frame of " + f.length + " bytes");
+      }
+      ByteBuffer batch = readFrame(reader);
+      check((reader.flags() & FrameCodec.BATCH) != 0, "batch flag");
+      List<ByteBuffer> unbatched = codec.unbatch(codec.payload(reader.flags(), batch));
+      check(unbatched.size() == sent.length, algorithm + " batch of " + sent.length);
+      for (int i = 0; i < sent.length; i++) {
+        check(unbatched.get(i).equals(ByteBuffer.wrap(sent[i])), algorithm + " batched frame " + i);
+      }
+    }
+
+    // a compressed JSON frame with an id put in front, as Responder does
+    char[] text = new char[codec.threshold + rand.nextInt(4000)];
+    Arrays.fill(text, (char) ('a' + rand.nextInt(26)));
+    JSONObject json = new JSONObject().put("data", new String(text));
+    byte[] plain = JsonUtils.toByteArray(json);
+    byte[] compressed = codec.frame(plain, 0, plain.length);
+    if ((ByteBuffer.wrap(compressed).getInt() & FrameCodec.COMPRESSED) != 0) {
+      Object id = rand.nextBoolean() ? (Object) rand.nextLong() : "id \"" + rand.nextInt() + "\"";
+      byte[] tagged = FrameCodec.withId(compressed, id);
+      int flags = ByteBuffer.wrap(tagged).getInt();
+      JSONObject got = JsonCodec.decode(codec.payload(flags, ByteBuffer.wrap(tagged, 4, tagged.length - 4)));
+      check(got.similar(json.put("id", id)), algorithm + " frame with id " + id);
+    }
+
+    // a compressed frame with a byte changed or cut short
+    byte[] f = sent[rand.nextInt(sent.length)];
+    byte[] frame = codec.frame(f, 0, f.length);
+    int word = ByteBuffer.wrap(frame).getInt();
+    if ((word & FrameCodec.COMPRESSED) != 0 && frame.length > 8) {
+      byte[] broken = Arrays.copyOfRange(frame, 4, 8 + rand.nextInt(frame.length - 7));
+      if (broken.length > 4 && rand.nextBoolean()) {
+        broken[4 + rand.nextInt(broken.length - 4)] ^= 1 + rand.nextInt(255);
+      }
+      try {
+        codec.payload(word, ByteBuffer.wrap(broken));
+      } catch (IOException e) {
+        // expected, or the change happened to give valid data of the right length
+      } catch (RuntimeException e) {
+        check(false, algorithm + " damaged frame threw " + e);
+      }
+    }
+    codec.close();
+  }
+
+  private static ByteBuffer readFrame(FrameReader reader) throws IOException {
+    ByteBuffer frame;
+    while ((frame = reader.read()) == null) {
+      // non-blocking, try again
+    }
+    return frame;
+  }
+
+  public static void main(String[] args) throws IOException {
+    int iterations = 2000;
+    long seed = System.nanoTime();
+    if (args.length > 0) {
+      iterations = Integer.parseInt(args[0]);
+    }
+    if (args.length > 1) {
+      seed = Long.parseLong(args[1]);
+    }
+    System.out.println("seed " + seed);
+    Random rand = new Random(seed);
+    BufferPool pool = new BufferPool();
+    long frames = 0;
+
+    for (int it = 0; it < iterations; it++) {
+      byte[][] sent = randomFrames(rand);
+      SplitSink sink = new SplitSink(rand);
+      FrameWriter writer = new FrameWriter(sink);
+      for (byte[] f : sent) {
+        writer.write(f);
+      }
+      byte[] stream = sink.out.toByteArray();
+
+      // whole stream through FrameReader, blocking and non-blocking, with
+      // read buffers smaller and larger than the frames
+      int bufferSize = rand.nextBoolean() ? 16 + rand.nextInt(2000) : FrameReader.DEFAULT_BUFFER;
+      boolean nonBlocking = rand.nextBoolean();
+      try (FrameReader reader = new FrameReader(new SplitChannel(stream, rand, nonBlocking), pool, bufferSize,
+          FrameReader.DEFAULT_MAX_FRAME)) {
+        for (byte[] f : sent) {
+          ByteBuffer got = readFrame(reader);
+          byte[] bytes = new byte[got.remaining()];
+          got.get(bytes);
+          check(Arrays.equals(bytes, f), "frame of " + f.length + " bytes, buffer " + bufferSize);
+          frames++;
+        }
+        try {
+          readFrame(reader);
+          check(false, "no EOFException at end of stream");
+        } catch (EOFException e) {
+          // expected
+        }
+      }
+
+      codec(rand, pool, sent, FrameCodec.Algorithm.LZ4);
+      codec(rand, pool, sent, FrameCodec.Algorithm.DEFLATE);
+
+      // the same stream through NetworkUtils.Receive
+      SplitChannel in = new SplitChannel(stream, rand, false);
+      for (byte[] f : sent) {
+        check(Arrays.equals(NetworkUtils.Receive(in), f), "NetworkUtils.Receive of " + f.length + " bytes");
+      }
+
+      // cut inside the last frame: the complete ones come back, then EOF
+      int last = 4 + sent[sent.length - 1].length;
+      byte[] cut = Arrays.copyOf(stream, stream.length - 1 - rand.nextInt(last));
+      try (FrameReader reader = new FrameReader(new SplitChannel(cut, rand, nonBlocking), pool, bufferSize,
+          FrameReader.DEFAULT_MAX_FRAME)) {
+        for (int i = 0; i < sent.length - 1; i++) {
+          check(readFrame(reader).remaining() == sent[i].length, "frame before the cut");
+        }
+        readFrame(reader);
+        check(false, "truncated frame returned");
+      } catch (EOFException e) {
+        // expected
+      }
+    }
+
+    // a length beyond the limit is rejected before anything is allocated
+    byte[] huge = { 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff, 1, 2, 3 };
+    try (FrameReader reader = new FrameReader(new SplitChannel(huge, rand, false))) {
+      reader.read();
+      check(false, "oversized frame accepted");
+    } catch (EOFException e) {
+      check(false, "oversized frame read as EOF");
+    } catch (IOException e) {
+      // expected
+    }
+    try {
+      NetworkUtils.Receive(new SplitChannel(huge, rand, false));
+      check(false, "oversized message accepted by NetworkUtils");
+    } catch (EOFException e) {
+      check(false, "oversized message read as EOF by NetworkUtils");
+    } catch (IOException e) {
+      // expected
+    }
+    System.out.println("OK: " + iterations + " streams, " + frames + " frames");
+  }
+}
@@ -0,0 +1,160 @@
+package fauxSolution.tcp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/*
+ * Reads length-prefixed frames (4-byte big-endian length, then the payload,
+ * the framing of NetworkUtils) from a channel.
+ *
+ * Bytes are read in bulk into one pooled buffer, so a read usually picks up
+ * several small frames at once. A frame that fits in that buffer is returned
+ * as a view of it without copying; a larger one is read into a pooled buffer
+ * of its own. Either way the returned buffer is only valid until the next
+ * call to read() or close(), so nothing is allocated per frame.
+ *
+ * Works on blocking and non-blocking channels. On a non-blocking channel
+ * read() returns null when no complete frame has arrived yet and picks up
+ * where it left off on the next call.
+ *
+ * After acceptFlags() the top bits of the length word are the FrameCodec
+ * flags of the frame, available from flags(); before that they make the
+ * length negative and the frame is rejected, as for any plain connection.
+ */
+public class FrameReader implements AutoCloseable {
+  public static final int DEFAULT_MAX_FRAME = 16 << 20;
+  public static final int DEFAULT_BUFFER = 64 << 10;
+
+  private final ReadableByteChannel channel;
+  private final BufferPool pool;
+  private final int maxFrame;
+  private ByteBuffer buf; // bytes [start, end) are read but not yet returned
+  private ByteBuffer view; // buf.duplicate(), what read() hands out
+  private int start;
+  private int end;
+  private ByteBuffer large; // frame larger than buf, being filled or handed out
+  private boolean largeReady;
+  private boolean flagged;
+  private int flags;
+
+  public FrameReader(ReadableByteChannel channel) {
+    this(channel, BufferPool.shared, DEFAULT_BUFFER, DEFAULT_MAX_FRAME);
+  }
+
+  public FrameReader(ReadableByteChannel channel, BufferPool pool, int bufferSize, int maxFrame) {
+    this.channel = channel;
+    this.pool = pool;
+    this.maxFrame = maxFrame;
+    this.buf = pool.acquire(Math.max(bufferSize, 8));
+    this.view = buf.duplicate();
+  }
+
+  /*
+   * Returns the payload of the next frame between position and limit, or
+   * null if the channel is non-blocking and has no complete frame yet.
+   * Throws EOFException when the peer closed the connection.
+   */
+  public ByteBuffer read() throws IOException {
+    if (large != null) {
+      if (largeReady) {
+        pool.release(large);
+        large = null;
+        largeReady = false;
+      } else {
+        return fillLarge();
+      }
+    }
+    if (!fill(4)) {
+      return null;
+    }
+    int length = buf.getInt(start);
+    flags = flagged ? length & ~FrameCodec.LENGTH : 0;
+    length = flagged ? length & FrameCodec.LENGTH : length;
+    if (length < 0 || length > maxFrame) {
+      throw new IOException("frame of " + length + " bytes exceeds the limit of " + maxFrame);
+    }
+    if (4 + length > buf.capacity()) {
+      large = pool.acquire(length);
+      large.limit(length);
+      int have = Math.min(end - start - 4, length);
+      view.limit(start + 4 + have).position(start + 4);
+      large.put(view);
+      start = end = 0;
+      return fillLarge();
+    }
+    if (!fill(4 + length)) {
+      return null;
+    }
+    view.limit(start + 4 + length).position(start + 4);
+    start += 4 + length;
+    return view;
+  }
+
+  // from now on the length words carry FrameCodec flags
+  public void acceptFlags() {
+    flagged = true;
+  }
+
+  // the FrameCodec flags of the frame read() returned last
+  public int flags() {
+    return flags;
+  }
+
+  private ByteBuffer fillLarge() throws IOException {
+    while (large.hasRemaining()) {
+      int n = channel.read(large);
+      if (n < 0) {
+        throw new EOFException("connection closed in the middle of a frame");
+      }
+      if (n == 0) {
+        return null;
+      }
+    }
+    large.flip();
+    largeReady = true;
+    return large;
+  }
+
+  // makes sure at least need unreturned bytes are buffered
+  private boolean fill(int need) throws IOException {
+    if (end - start >= need) {
+      return true;
+    }
+    if (start + need > buf.capacity()) {
+      // move the partial frame to the front
+      view.limit(end).position(start);
+      buf.clear();
+      buf.put(view);
+      end -= start;
+      start = 0;
+    }
+    while (end - start < need) {
+      buf.limit(buf.capacity()).position(end);
+      int n = channel.read(buf);
+      if (n < 0) {
+        throw new EOFException(end == start ? "connection closed" : "connection closed in the middle of a frame");
+      }
+      if (n == 0) {
+        return false;
+      }
+      end += n;
+    }
+    return true;
+  }
+
+  // returns the buffers to the pool; the channel is left open
+  @Override
+  public void close() {
+    if (large != null) {
+      pool.release(large);
+      large = null;
+    }
+    if (buf != null) {
+      pool.release(buf);
+      buf = null;
+      view = null;
+    }
+  }
+}
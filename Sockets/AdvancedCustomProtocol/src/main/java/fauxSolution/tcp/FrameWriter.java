@@ -0,0 +1,52 @@
+package fauxSolution.tcp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/*
+ * Writes length-prefixed frames to a blocking channel. The 4-byte header and
+ * the payload go out in one gathering write (a single writev on a socket),
+ * so the peer never sees a lone header packet and the payload is not copied
+ * into a combined array first. The header buffer is reused for every frame.
+ * Not thread-safe; use one FrameWriter per connection.
+ */
+public class FrameWriter {
+  private final WritableByteChannel channel;
+  private final ByteBuffer header = ByteBuffer.allocate(4);
+  private final ByteBuffer[] frame = new ByteBuffer[2];
+
+  public FrameWriter(WritableByteChannel channel) {
+    this.channel = channel;
+    frame[0] = header;
+  }
+
+  // writes the bytes between position and limit of payload as one frame
+  public void write(ByteBuffer payload) throws IOException {
+    header.clear();
+    header.putInt(payload.remaining()).flip();
+    if (channel instanceof GatheringByteChannel) {
+      GatheringByteChannel gathering = (GatheringByteChannel) channel;
+      frame[1] = payload;
+      try {
+        while (payload.hasRemaining() || header.hasRemaining()) {
+          gathering.write(frame);
+        }
+      } finally {
+        frame[1] = null;
+      }
+    } else {
+      while (header.hasRemaining()) {
+        channel.write(header);
+      }
+      while (payload.hasRemaining()) {
+        channel.write(payload);
+      }
+    }
+  }
+
+  public void write(byte[] payload) throws IOException {
+    write(ByteBuffer.wrap(payload));
+  }
+}
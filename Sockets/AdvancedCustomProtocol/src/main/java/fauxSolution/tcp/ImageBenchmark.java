@@ -0,0 +1,82 @@
+package fauxSolution.tcp;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+import javax.imageio.ImageIO;
+
+import org.json.JSONObject;
+
+/*
+ * Bytes on the wire and server CPU per image request for the ways the image
+ * has been sent: the original (decode the png with ImageIO, encode it again,
+ * Base64 in the JSON), Base64 of the cached file, the binary response (JSON
+ * header and raw frames) and the same taken from ResponseCache. Frames are counted with their
+ * 4-byte length. Run from the project directory so img/ is found.
+ *
+ * gradle TCPImageBenchmark --args '2000'
+ */
+public class ImageBenchmark {
+  private interface Response {
+    long build() throws IOException; // returns bytes on the wire
+  }
+
+  private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+  private static void measure(String label, int iterations, Response response) throws IOException {
+    for (int i = 0; i < iterations / 10; i++) {
+      response.build(); // warm up
+    }
+    long bytes = 0;
+    long cpu = threadBean.getCurrentThreadCpuTime();
+    for (int i = 0; i < iterations; i++) {
+      bytes += response.build();
+    }
+    cpu = threadBean.getCurrentThreadCpuTime() - cpu;
+    System.out.printf("%-16s %8d bytes/request %10.1f us cpu/request%n", label, bytes / iterations,
+        cpu / 1e3 / iterations);
+  }
+
+  // Server.image() before the binary response existed
+  private static JSONObject originalImage() throws IOException {
+    JSONObject json = new JSONObject();
+    json.put("datatype", 2);
+    json.put("type", "image");
+    BufferedImage img = ImageIO.read(new File("img/To-Funny-For-Words1.png"));
+    byte[] bytes;
+    try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+      ImageIO.write(img, "png", out);
+      bytes = out.toByteArray();
+    }
+    json.put("data", Base64.getEncoder().encodeToString(bytes));
+    return json;
+  }
+
+  public static void main(String[] args) throws IOException {
+    int iterations = 2000;
+    if (args.length > 0) {
+      iterations = Integer.parseInt(args[0]);
+    }
+    System.out.println("image file: " + Server.imageBytes().length + " bytes");
+
+    measure("original", iterations / 10, () -> 4 + JsonUtils.toByteArray(originalImage()).length);
+    measure("base64 cached", iterations, () -> 4 + JsonUtils.toByteArray(Server.image()).length);
+    measure("binary", iterations, () -> {
+      long bytes = 0;
+      for (ByteBuffer frame : Server.frames(Server.imageHeader())) {
+        bytes += 4 + frame.remaining();
+      }
+      return bytes;
+    });
+    JSONObject request = new JSONObject();
+    request.put("selected", 3);
+    request.put("binary", true);
+    measure("binary cached", iterations, () -> ResponseCache.respond(request).size());
+  }
+}
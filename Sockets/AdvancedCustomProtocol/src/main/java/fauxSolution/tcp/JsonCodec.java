@@ -0,0 +1,782 @@
+package fauxSolution.tcp;
+
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/*
+ * JSON straight from and to UTF-8 bytes, without the String in between that
+ * new JSONObject(new String(bytes)) and toString().getBytes() need (and
+ * without depending on the platform charset).
+ *
+ * decode() parses a frame's bytes in place into the usual JSONObject;
+ * strings that are plain ASCII, which is almost all of them (Base64 images
+ * included), become a String with a single copy. readRequest() knows the
+ * request fields and pulls out only those, skipping anything else without
+ * building objects for it.
+ *
+ * toBytes(), frame() and write() measure a value first and then write its UTF-8 bytes
+ * directly into the buffer of the outgoing frame; the output is the same
+ * text JSONObject.toString() produces. writeResponse() and writeRequest()
+ * write the fixed message shapes of the protocol without a JSONObject.
+ *
+ * Malformed input throws a JSONException, as org.json does.
+ */
+public final class JsonCodec {
+  private static final int MAX_DEPTH = 512;
+  private static final byte[] SELECTED = ascii("selected");
+  private static final byte[] BINARY = ascii("binary");
+  private static final byte[] ID = ascii("id");
+  private static final byte[] OPTIONS = ascii("options");
+  private static final byte[] HEX = ascii("0123456789abcdef");
+
+  private JsonCodec() {
+  }
+
+  // what the server needs from a request: { "selected", "binary", "id", "options" }
+  public static final class Request {
+    public final Object selected; // Integer or Long when valid, null when missing
+    public final boolean binary;
+    public final Object id; // null when the request has none
+    public final JSONObject options; // frame options asked for (see FrameCodec), usually null
+
+    public Request(Object selected, boolean binary, Object id) {
+      this(selected, binary, id, null);
+    }
+
+    public Request(Object selected, boolean binary, Object id, JSONObject options) {
+      this.selected = selected;
+      this.binary = binary;
+      this.id = id;
+      this.options = options;
+    }
+
+    public static Request of(JSONObject message) {
+      return new Request(message.opt("selected"), message.optBoolean("binary", false), message.opt("id"),
+          message.optJSONObject("options"));
+    }
+
+    public boolean hasIntSelected() {
+      return selected instanceof Integer || selected instanceof Long;
+    }
+
+    public JSONObject toJSONObject() {
+      JSONObject json = new JSONObject();
+      json.putOpt("selected", selected);
+      if (binary) {
+        json.put("binary", true);
+      }
+      json.putOpt("id", id);
+      json.putOpt("options", options);
+      return json;
+    }
+  }
+
+  /* ---------------- reading ---------------- */
+
+  // the JSON object between position and limit; the buffer is not moved
+  public static JSONObject decode(ByteBuffer buffer) {
+    Parser p = new Parser(buffer);
+    JSONObject object = p.object(0);
+    p.end();
+    return object;
+  }
+
+  public static JSONObject decode(byte[] bytes) {
+    return decode(ByteBuffer.wrap(bytes));
+  }
+
+  // the request fields only, other fields are skipped; the buffer is not moved
+  public static Request readRequest(ByteBuffer buffer) {
+    Parser p = new Parser(buffer);
+    Object selected = null;
+    boolean binary = false;
+    Object id = null;
+    JSONObject options = null;
+    p.expect('{');
+    if (p.peek() == '}') {
+      p.pos++;
+    } else {
+      do {
+        int key = p.key();
+        p.expect(':');
+        if (key == 1) {
+          selected = p.value(1);
+        } else if (key == 2) {
+          Object b = p.value(1);
+          binary = Boolean.TRUE.equals(b) || (b instanceof String && ((String) b).equalsIgnoreCase("true"));
+        } else if (key == 3) {
+          id = p.value(1);
+        } else if (key == 4) {
+          Object o = p.value(1);
+          options = o instanceof JSONObject ? (JSONObject) o : null;
+        } else {
+          p.skip(1);
+        }
+      } while (p.comma());
+      p.expect('}');
+    }
+    p.end();
+    return new Request(selected, binary, id, options);
+  }
+
+  private static final class Parser {
+    final byte[] b;
+    final int end;
+    int pos;
+
+    Parser(ByteBuffer buffer) {
+      if (buffer.hasArray()) {
+        b = buffer.array();
+        pos = buffer.arrayOffset() + buffer.position();
+      } else {
+        b = new byte[buffer.remaining()];
+        buffer.duplicate().get(b);
+        pos = 0;
+      }
+      end = pos + buffer.remaining();
+    }
+
+    JSONException error(String message) {
+      return new JSONException(message + " at byte " + pos);
+    }
+
+    int peek() {
+      while (pos < end) {
+        byte c = b[pos];
+        if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+          return c & 0xff;
+        }
+        pos++;
+      }
+      throw error("unexpected end of message");
+    }
+
+    void expect(char c) {
+      if (peek() != c) {
+        throw error("expected '" + c + "'");
+      }
+      pos++;
+    }
+
+    boolean comma() {
+      if (peek() == ',') {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    void end() {
+      while (pos < end) {
+        byte c = b[pos];
+        if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+          throw error("unexpected text after the message");
+        }
+        pos++;
+      }
+    }
+
+    Object value(int depth) {
+      switch (peek()) {
+      case '{':
+        return object(depth + 1);
+      case '[':
+        return array(depth + 1);
+      case '"':
+        return string();
+      case 't':
+        literal("true");
+        return Boolean.TRUE;
+      case 'f':
+        literal("false");
+        return Boolean.FALSE;
+      case 'n':
+        literal("null");
+        return JSONObject.NULL;
+      default:
+        return number();
+      }
+    }
+
+    JSONObject object(int depth) {
+      if (depth > MAX_DEPTH) {
+        throw error("nested too deep");
+      }
+      expect('{');
+      JSONObject object = new JSONObject();
+      if (peek() == '}') {
+        pos++;
+        return object;
+      }
+      do {
+        if (peek() != '"') {
+          throw error("expected a key");
+        }
+        String key = string();
+        expect(':');
+        object.put(key, value(depth));
+      } while (comma());
+      expect('}');
+      return object;
+    }
+
+    JSONArray array(int depth) {
+      if (depth > MAX_DEPTH) {
+        throw error("nested too deep");
+      }
+      expect('[');
+      JSONArray array = new JSONArray();
+      if (peek() == ']') {
+        pos++;
+        return array;
+      }
+      do {
+        array.put(value(depth));
+      } while (comma());
+      expect(']');
+      return array;
+    }
+
+    void literal(String word) {
+      if (end - pos < word.length()) {
+        throw error("unexpected end of message");
+      }
+      for (int i = 0; i < word.length(); i++) {
+        if (b[pos + i] != word.charAt(i)) {
+          throw error("unknown value");
+        }
+      }
+      pos += word.length();
+    }
+
+    Object number() {
+      int start = pos;
+      if (pos < end && b[pos] == '-') {
+        pos++;
+      }
+      int digits = pos;
+      while (pos < end && b[pos] >= '0' && b[pos] <= '9') {
+        pos++;
+      }
+      if (pos == digits) {
+        throw error("unknown value");
+      }
+      boolean integral = true;
+      if (pos < end && b[pos] == '.') {
+        integral = false;
+        pos++;
+        int fraction = pos;
+        while (pos < end && b[pos] >= '0' && b[pos] <= '9') {
+          pos++;
+        }
+        if (pos == fraction) {
+          throw error("digits expected");
+        }
+      }
+      if (pos < end && (b[pos] == 'e' || b[pos] == 'E')) {
+        integral = false;
+        pos++;
+        if (pos < end && (b[pos] == '+' || b[pos] == '-')) {
+          pos++;
+        }
+        int exponent = pos;
+        while (pos < end && b[pos] >= '0' && b[pos] <= '9') {
+          pos++;
+        }
+        if (pos == exponent) {
+          throw error("digits expected");
+        }
+      }
+      // the same types org.json picks: Integer, Long, else Double, and the
+      // text itself for what does not fit those
+      if (integral && pos - digits <= 18 && !(digits > start && pos - digits == 1 && b[digits] == '0')) {
+        long n = 0;
+        for (int i = digits; i < pos; i++) {
+          n = n * 10 + (b[i] - '0');
+        }
+        if (digits > start) {
+          n = -n;
+        }
+        if (n == (int) n) {
+          return (int) n;
+        }
+        return n;
+      }
+      String text = new String(b, start, pos - start, StandardCharsets.ISO_8859_1);
+      if (integral && !text.equals("-0")) {
+        BigInteger n = new BigInteger(text);
+        return n.bitLength() < 64 ? (Object) n.longValue() : text;
+      }
+      Double d = Double.valueOf(text);
+      return d.isInfinite() ? text : d;
+    }
+
+    String string() {
+      expect('"');
+      int start = pos;
+      // plain ASCII without escapes: one copy into the String
+      while (pos < end) {
+        byte c = b[pos];
+        if (c == '"') {
+          return new String(b, start, pos++ - start, StandardCharsets.ISO_8859_1);
+        }
+        if (c == '\\' || c < 0x20) { // bytes from 0x80 up are negative
+          break;
+        }
+        pos++;
+      }
+      StringBuilder sb = new StringBuilder(pos - start + 16);
+      sb.append(new String(b, start, pos - start, StandardCharsets.ISO_8859_1));
+      while (pos < end) {
+        int c = b[pos++] & 0xff;
+        if (c == '"') {
+          return sb.toString();
+        } else if (c == '\\') {
+          escape(sb);
+        } else if (c < 0x20) {
+          throw error("control character in string");
+        } else if (c < 0x80) {
+          sb.append((char) c);
+        } else if ((c & 0xe0) == 0xc0) {
+          int cp = ((c & 0x1f) << 6) | next();
+          if (cp < 0x80) {
+            throw error("overlong UTF-8");
+          }
+          sb.append((char) cp);
+        } else if ((c & 0xf0) == 0xe0) {
+          int cp = ((c & 0x0f) << 12) | (next() << 6) | next();
+          if (cp < 0x800 || (cp >= 0xd800 && cp <= 0xdfff)) {
+            throw error("invalid UTF-8");
+          }
+          sb.append((char) cp);
+        } else if ((c & 0xf8) == 0xf0) {
+          int cp = ((c & 0x07) << 18) | (next() << 12) | (next() << 6) | next();
+          if (cp < 0x10000 || cp > 0x10ffff) {
+            throw error("invalid UTF-8");
+          }
+          sb.appendCodePoint(cp);
+        } else {
+          throw error("invalid UTF-8");
+        }
+      }
+      throw error("unterminated string");
+    }
+
+    // the low 6 bits of a UTF-8 continuation byte
+    int next() {
+      if (pos >= end) {
+        throw error("unterminated string");
+      }
+      int c = b[pos++] & 0xff;
+      if ((c & 0xc0) != 0x80) {
+        throw error("invalid UTF-8");
+      }
+      return c & 0x3f;
+    }
+
+    void escape(StringBuilder sb) {
+      if (pos >= end) {
+        throw error("unterminated string");
+      }
+      char c = (char) b[pos++];
+      switch (c) {
+      case '"':
+      case '\\':
+      case '/':
+        sb.append(c);
+        break;
+      case 'b':
+        sb.append('\b');
+        break;
+      case 'f':
+        sb.append('\f');
+        break;
+      case 'n':
+        sb.append('\n');
+        break;
+      case 'r':
+        sb.append('\r');
+        break;
+      case 't':
+        sb.append('\t');
+        break;
+      case 'u':
+        if (end - pos < 4) {
+          throw error("unterminated string");
+        }
+        int cp = 0;
+        for (int i = 0; i < 4; i++) {
+          int d = Character.digit(b[pos++], 16);
+          if (d < 0) {
+            throw error("bad \\u escape");
+          }
+          cp = cp << 4 | d;
+        }
+        sb.append((char) cp);
+        break;
+      default:
+        throw error("bad escape");
+      }
+    }
+
+    // a key of readRequest: 1 selected, 2 binary, 3 id, 4 options, 0 anything else
+    int key() {
+      if (peek() != '"') {
+        throw error("expected a key");
+      }
+      int start = pos + 1;
+      int i = start;
+      while (i < end && b[i] != '"' && b[i] != '\\') {
+        i++;
+      }
+      if (i >= end || b[i] == '\\') {
+        String key = string(); // escaped, compare the decoded key
+        return key.equals("selected") ? 1 : key.equals("binary") ? 2 : key.equals("id") ? 3
+            : key.equals("options") ? 4 : 0;
+      }
+      pos = i + 1;
+      int length = i - start;
+      return matches(start, length, SELECTED) ? 1 : matches(start, length, BINARY) ? 2
+          : matches(start, length, ID) ? 3 : matches(start, length, OPTIONS) ? 4 : 0;
+    }
+
+    boolean matches(int start, int length, byte[] name) {
+      if (length != name.length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (b[start + i] != name[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    // steps over a value without building it
+    void skip(int depth) {
+      if (depth > MAX_DEPTH) {
+        throw error("nested too deep");
+      }
+      int c = peek();
+      if (c == '{' || c == '[') {
+        char close = c == '{' ? '}' : ']';
+        pos++;
+        if (peek() == close) {
+          pos++;
+          return;
+        }
+        do {
+          if (close == '}') {
+            skipString();
+            expect(':');
+          }
+          skip(depth + 1);
+        } while (comma());
+        expect(close);
+      } else if (c == '"') {
+        skipString();
+      } else {
+        value(depth);
+      }
+    }
+
+    void skipString() {
+      expect('"');
+      while (pos < end) {
+        byte c = b[pos++];
+        if (c == '"') {
+          return;
+        }
+        if (c == '\\') {
+          pos++;
+        }
+      }
+      throw error("unterminated string");
+    }
+  }
+
+  /* ---------------- writing ---------------- */
+
+  // the UTF-8 bytes of value as JSON text
+  public static byte[] toBytes(Object value) {
+    byte[] bytes = new byte[length(value)];
+    int n = write(value, bytes, 0);
+    assert n == bytes.length;
+    return bytes;
+  }
+
+  // value with its 4-byte length in front, one frame ready to send
+  public static ByteBuffer frame(Object value) {
+    int length = length(value);
+    byte[] bytes = new byte[4 + length];
+    ByteBuffer.wrap(bytes).putInt(length);
+    write(value, bytes, 4);
+    return ByteBuffer.wrap(bytes);
+  }
+
+  // writes value at the buffer's position and moves it past the text
+  public static void write(Object value, ByteBuffer out) {
+    int length = length(value);
+    if (length > out.remaining()) {
+      throw new BufferOverflowException();
+    }
+    if (out.hasArray()) {
+      write(value, out.array(), out.arrayOffset() + out.position());
+      out.position(out.position() + length);
+    } else {
+      out.put(toBytes(value));
+    }
+  }
+
+  // { "datatype": <datatype>, "type": <type>, "data": <data> } without a JSONObject
+  public static void writeResponse(ByteBuffer out, int datatype, String type, String data) {
+    int length = 12 + digits(datatype) + 9 + length(type) + 9 + length(data) + 1;
+    if (length > out.remaining()) {
+      throw new BufferOverflowException();
+    }
+    if (!out.hasArray()) {
+      byte[] bytes = new byte[length];
+      writeResponse(ByteBuffer.wrap(bytes), datatype, type, data);
+      out.put(bytes);
+      return;
+    }
+    byte[] b = out.array();
+    int p = out.arrayOffset() + out.position();
+    p = raw(b, p, "{\"datatype\":");
+    p = raw(b, p, Integer.toString(datatype));
+    p = raw(b, p, ",\"type\":");
+    p = string(type, b, p);
+    p = raw(b, p, ",\"data\":");
+    p = string(data, b, p);
+    b[p++] = '}';
+    out.position(p - out.arrayOffset());
+  }
+
+  // { "selected": <selected>, "binary": true, "id": <id> }, binary only when
+  // true and id only when not negative
+  public static void writeRequest(ByteBuffer out, int selected, boolean binary, long id) {
+    int length = 12 + digits(selected) + (binary ? 14 : 0) + (id >= 0 ? 6 + digits(id) : 0) + 1;
+    if (length > out.remaining()) {
+      throw new BufferOverflowException();
+    }
+    if (!out.hasArray()) {
+      byte[] bytes = new byte[length];
+      writeRequest(ByteBuffer.wrap(bytes), selected, binary, id);
+      out.put(bytes);
+      return;
+    }
+    byte[] b = out.array();
+    int p = out.arrayOffset() + out.position();
+    p = raw(b, p, "{\"selected\":");
+    p = raw(b, p, Integer.toString(selected));
+    if (binary) {
+      p = raw(b, p, ",\"binary\":true");
+    }
+    if (id >= 0) {
+      p = raw(b, p, ",\"id\":");
+      p = raw(b, p, Long.toString(id));
+    }
+    b[p++] = '}';
+    out.position(p - out.arrayOffset());
+  }
+
+  private static int digits(long n) {
+    return Long.toString(n).length();
+  }
+
+  // bytes write() will produce for value
+  static int length(Object value) {
+    if (value == null || value == JSONObject.NULL) {
+      return 4;
+    }
+    if (value instanceof String) {
+      return length((String) value);
+    }
+    if (value instanceof JSONObject) {
+      JSONObject object = (JSONObject) value;
+      int n = 2;
+      boolean first = true;
+      for (String key : object.keySet()) {
+        n += (first ? 0 : 1) + length(key) + 1 + length(object.opt(key));
+        first = false;
+      }
+      return n;
+    }
+    if (value instanceof JSONArray) {
+      JSONArray array = (JSONArray) value;
+      int n = 2 + Math.max(0, array.length() - 1);
+      for (Object item : array) {
+        n += length(item);
+      }
+      return n;
+    }
+    if (value instanceof Boolean) {
+      return ((Boolean) value) ? 4 : 5;
+    }
+    return other(value).length;
+  }
+
+  // numbers and anything else org.json knows how to print
+  private static byte[] other(Object value) {
+    String text = value instanceof Number ? JSONObject.numberToString((Number) value)
+        : JSONObject.valueToString(value);
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static int write(Object value, byte[] b, int p) {
+    if (value == null || value == JSONObject.NULL) {
+      return raw(b, p, "null");
+    }
+    if (value instanceof String) {
+      return string((String) value, b, p);
+    }
+    if (value instanceof JSONObject) {
+      JSONObject object = (JSONObject) value;
+      b[p++] = '{';
+      boolean first = true;
+      for (String key : object.keySet()) {
+        if (!first) {
+          b[p++] = ',';
+        }
+        first = false;
+        p = string(key, b, p);
+        b[p++] = ':';
+        p = write(object.opt(key), b, p);
+      }
+      b[p++] = '}';
+      return p;
+    }
+    if (value instanceof JSONArray) {
+      b[p++] = '[';
+      boolean first = true;
+      for (Object item : (JSONArray) value) {
+        if (!first) {
+          b[p++] = ',';
+        }
+        first = false;
+        p = write(item, b, p);
+      }
+      b[p++] = ']';
+      return p;
+    }
+    if (value instanceof Boolean) {
+      return raw(b, p, ((Boolean) value) ? "true" : "false");
+    }
+    byte[] text = other(value);
+    System.arraycopy(text, 0, b, p, text.length);
+    return p + text.length;
+  }
+
+  private static int raw(byte[] b, int p, String ascii) {
+    int n = ascii.length();
+    for (int i = 0; i < n; i++) {
+      b[p + i] = (byte) ascii.charAt(i); // ASCII only, one byte per char
+    }
+    return p + n;
+  }
+
+  // the same escapes as JSONObject.quote
+  private static boolean escaped(char c, char previous) {
+    return c == '"' || c == '\\' || (c == '/' && previous == '<') || c < ' ' || (c >= 0x80 && c < 0xa0)
+        || (c >= 0x2000 && c < 0x2100);
+  }
+
+  private static int length(String s) {
+    int n = 2;
+    char previous = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (escaped(c, previous)) {
+        n += c == '"' || c == '\\' || c == '/' || c == '\b' || c == '\t' || c == '\n' || c == '\f' || c == '\r' ? 2
+            : 6;
+      } else if (c < 0x80) {
+        n++;
+      } else if (c < 0x800) {
+        n += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+        n += 4;
+        i++;
+        c = s.charAt(i);
+      } else {
+        n += 3; // a lone surrogate is written as '?', like String.getBytes
+        if (Character.isSurrogate(c)) {
+          n -= 2;
+        }
+      }
+      previous = c;
+    }
+    return n;
+  }
+
+  private static int string(String s, byte[] b, int p) {
+    b[p++] = '"';
+    char previous = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c < 0x80 && c >= ' ' && c != '"' && c != '\\' && c != '/') {
+        b[p++] = (byte) c;
+      } else if (escaped(c, previous)) {
+        b[p++] = '\\';
+        switch (c) {
+        case '"':
+        case '\\':
+        case '/':
+          b[p++] = (byte) c;
+          break;
+        case '\b':
+          b[p++] = 'b';
+          break;
+        case '\t':
+          b[p++] = 't';
+          break;
+        case '\n':
+          b[p++] = 'n';
+          break;
+        case '\f':
+          b[p++] = 'f';
+          break;
+        case '\r':
+          b[p++] = 'r';
+          break;
+        default:
+          b[p++] = 'u';
+          b[p++] = HEX[c >> 12 & 0xf];
+          b[p++] = HEX[c >> 8 & 0xf];
+          b[p++] = HEX[c >> 4 & 0xf];
+          b[p++] = HEX[c & 0xf];
+        }
+      } else if (c < 0x80) {
+        b[p++] = (byte) c; // '/' not after '<'
+      } else if (c < 0x800) {
+        b[p++] = (byte) (0xc0 | c >> 6);
+        b[p++] = (byte) (0x80 | c & 0x3f);
+      } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, s.charAt(++i));
+        b[p++] = (byte) (0xf0 | cp >> 18);
+        b[p++] = (byte) (0x80 | cp >> 12 & 0x3f);
+        b[p++] = (byte) (0x80 | cp >> 6 & 0x3f);
+        b[p++] = (byte) (0x80 | cp & 0x3f);
+        c = s.charAt(i);
+      } else if (Character.isSurrogate(c)) {
+        b[p++] = '?';
+      } else {
+        b[p++] = (byte) (0xe0 | c >> 12);
+        b[p++] = (byte) (0x80 | c >> 6 & 0x3f);
+        b[p++] = (byte) (0x80 | c & 0x3f);
+      }
+      previous = c;
+    }
+    b[p++] = '"';
+    return p;
+  }
+
+  private static byte[] ascii(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+}
@@ -0,0 +1,156 @@
+package fauxSolution.tcp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/*
+ * Fuzz check for JsonCodec against org.json. Random objects (nested, with
+ * escapes, non-ASCII text, surrogate pairs and all kinds of numbers) must be
+ * written byte for byte like toString() in UTF-8, decode back to what
+ * org.json parses, and give the same request fields through readRequest.
+ * Messages cut short or with a byte changed must either parse or throw a
+ * JSONException, never anything else. Exits with 1 on the first mismatch.
+ *
+ * gradle TCPJsonFuzz --args '20000 42'
+ */
+public class JsonFuzz {
+  private static final String[] WORDS = { "joke", "quote", "image", "data", "a\"b", "back\\slash", "</script>",
+      "tab\there", "line\nbreak", "caf\u00e9", "\u00a0\u0085", "\u20ac", "\u2028", "\ud83d\ude00", "\u0001", "" };
+
+  private static String text(Random rand) {
+    StringBuilder sb = new StringBuilder();
+    int n = rand.nextInt(4);
+    for (int i = 0; i < n; i++) {
+      sb.append(WORDS[rand.nextInt(WORDS.length)]);
+      if (rand.nextInt(3) == 0) {
+        sb.append((char) (32 + rand.nextInt(95)));
+      }
+    }
+    return sb.toString();
+  }
+
+  private static Object value(Random rand, int depth) {
+    switch (rand.nextInt(depth > 3 ? 7 : 9)) {
+    case 0:
+      return text(rand);
+    case 1:
+      return rand.nextInt();
+    case 2:
+      return rand.nextLong();
+    case 3:
+      return rand.nextDouble() * Math.pow(10, rand.nextInt(40) - 20);
+    case 4:
+      return rand.nextBoolean();
+    case 5:
+      return JSONObject.NULL;
+    case 6:
+      return rand.nextInt(100) - 50;
+    case 7:
+      return object(rand, depth + 1);
+    default:
+      JSONArray array = new JSONArray();
+      int n = rand.nextInt(5);
+      for (int i = 0; i < n; i++) {
+        array.put(value(rand, depth + 1));
+      }
+      return array;
+    }
+  }
+
+  private static JSONObject object(Random rand, int depth) {
+    JSONObject json = new JSONObject();
+    int n = rand.nextInt(6);
+    for (int i = 0; i < n; i++) {
+      json.put(text(rand), value(rand, depth));
+    }
+    if (depth == 0 && rand.nextBoolean()) {
+      json.put("selected", rand.nextBoolean() ? rand.nextInt(6) : value(rand, 1));
+      if (rand.nextBoolean()) {
+        json.put("binary", rand.nextBoolean());
+      }
+      if (rand.nextBoolean()) {
+        json.put("id", rand.nextInt(1 << 20));
+      }
+    }
+    return json;
+  }
+
+  private static void fail(String what, Object detail) {
+    System.out.println("MISMATCH " + what + ": " + detail);
+    System.exit(1);
+  }
+
+  public static void main(String[] args) {
+    int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+    Random rand = new Random(seed);
+    int malformed = 0;
+    for (int round = 0; round < rounds; round++) {
+      JSONObject json = object(rand, 0);
+      byte[] expected = json.toString().getBytes(StandardCharsets.UTF_8);
+      byte[] bytes = JsonCodec.toBytes(json);
+      if (!Arrays.equals(expected, bytes)) {
+        fail("write", json.toString() + " vs " + new String(bytes, StandardCharsets.UTF_8));
+      }
+      ByteBuffer frame = JsonCodec.frame(json);
+      if (frame.getInt(0) != bytes.length) {
+        fail("frame length", frame.getInt(0));
+      }
+
+      // in the middle of a larger buffer, as FrameReader hands frames out
+      byte[] padded = new byte[bytes.length + 7];
+      System.arraycopy(bytes, 0, padded, 3, bytes.length);
+      ByteBuffer view = ByteBuffer.wrap(padded, 3, bytes.length).slice();
+      JSONObject decoded = JsonCodec.decode(view);
+      JSONObject reference = new JSONObject(new String(bytes, StandardCharsets.UTF_8));
+      if (!decoded.similar(reference) || !decoded.toString().equals(reference.toString())) {
+        fail("decode", reference + " vs " + decoded);
+      }
+      if (view.position() != 0) {
+        fail("decode moved the buffer", view.position());
+      }
+
+      JsonCodec.Request request = JsonCodec.readRequest(view);
+      JsonCodec.Request fromJson = JsonCodec.Request.of(reference);
+      if (request.binary != fromJson.binary || !String.valueOf(request.id).equals(String.valueOf(fromJson.id))
+          || request.hasIntSelected() != fromJson.hasIntSelected()
+          || (request.hasIntSelected() && !request.selected.equals(fromJson.selected))) {
+        fail("readRequest", reference);
+      }
+
+      // damaged copies
+      byte[] broken = Arrays.copyOf(bytes, rand.nextInt(bytes.length + 1));
+      if (broken.length > 0 && rand.nextBoolean()) {
+        broken[rand.nextInt(broken.length)] = (byte) rand.nextInt(256);
+      }
+      try {
+        JsonCodec.decode(broken);
+        JsonCodec.readRequest(ByteBuffer.wrap(broken));
+      } catch (JSONException e) {
+        malformed++;
+      } catch (RuntimeException e) {
+        fail("damaged message threw " + e, new String(broken, StandardCharsets.UTF_8));
+      }
+    }
+
+    ByteBuffer out = ByteBuffer.allocate(256);
+    JsonCodec.writeResponse(out, 1, "joke", Server.joke().getString("data"));
+    out.flip();
+    if (!JsonCodec.decode(out).similar(Server.joke())) {
+      fail("writeResponse", JsonCodec.decode(out));
+    }
+    out.clear();
+    JsonCodec.writeRequest(out, 3, true, 17);
+    out.flip();
+    if (!JsonCodec.decode(out).similar(new JSONObject().put("selected", 3).put("binary", true).put("id", 17))) {
+      fail("writeRequest", JsonCodec.decode(out));
+    }
+    System.out.println(rounds + " messages OK, " + malformed + " damaged copies rejected (seed " + seed + ")");
+  }
+}
@@ -1,14 +1,21 @@
 package fauxSolution.tcp;
 
+import java.nio.ByteBuffer;
+
 import org.json.JSONObject;
 
+// UTF-8 JSON messages, see JsonCodec
 public class JsonUtils {
   public static JSONObject fromByteArray(byte[] bytes) {
-    String jsonString = new String(bytes);
-    return new JSONObject(jsonString);
+    return JsonCodec.decode(bytes);
   }
   
+  // the payload of a frame from FrameReader, between position and limit
+  public static JSONObject fromByteBuffer(ByteBuffer buffer) {
+    return JsonCodec.decode(buffer);
+  }
+
   public static byte[] toByteArray(JSONObject object) {
-    return object.toString().getBytes();
+    return JsonCodec.toBytes(object);
   }
 }
@@ -0,0 +1,135 @@
+package fauxSolution.tcp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+/*
+ * Multi-client load test for the concurrent servers. Each variant is started
+ * in this JVM on a free port, one client connects and stays idle for the
+ * whole run (the single-threaded Server would serve nobody else), and then
+ * <clients> threads each send <requests> requests over their own connection.
+ *
+ * gradle TCPLoadTest --args '32 2000 1 binary'
+ *
+ * selected is the request sent: 1=joke, 2=quote, 3=image, 4=random; with
+ * binary images come as raw frames instead of Base64 in the JSON
+ */
+public class LoadTest {
+
+  private interface Variant {
+    int start() throws IOException; // returns the port
+
+    void stop();
+  }
+
+  private static void run(String name, Variant variant, int clients, int requests, int selected, boolean binary)
+      throws Exception {
+    int port = variant.start();
+    Socket idle = new Socket("localhost", port);
+    JSONObject request = new JSONObject();
+    request.put("selected", selected);
+    request.put("binary", binary);
+    byte[] requestBytes = JsonUtils.toByteArray(request);
+    AtomicLong bytes = new AtomicLong();
+    AtomicLong errors = new AtomicLong();
+
+    Thread[] threads = new Thread[clients];
+    long start = System.nanoTime();
+    for (int c = 0; c < clients; c++) {
+      threads[c] = new Thread(() -> {
+        try (Socket sock = new Socket("localhost", port)) {
+          sock.setTcpNoDelay(true);
+          OutputStream out = sock.getOutputStream();
+          InputStream in = sock.getInputStream();
+          long received = 0;
+          for (int i = 0; i < requests; i++) {
+            NetworkUtils.Send(out, requestBytes);
+            byte[] response = NetworkUtils.Receive(in);
+            if (response.length == 0) {
+              throw new IOException("connection closed");
+            }
+            received += response.length + 4;
+            JSONObject header = JsonUtils.fromByteArray(response);
+            if (header.optInt("datatype") == 3) {
+              received += Client.receiveImage(in, header).length + 4 * header.getInt("chunks");
+            }
+          }
+          bytes.addAndGet(received);
+        } catch (IOException e) {
+          errors.incrementAndGet();
+        }
+      });
+      threads[c].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    long nanos = System.nanoTime() - start;
+    idle.close();
+    variant.stop();
+
+    long total = (long) clients * requests;
+    System.out.printf("%-14s %d clients x %d requests: %.0f requests/s, %.1f MB/s received, %d failed clients%n",
+        name, clients, requests, total / (nanos / 1e9), bytes.get() / (nanos / 1e3), errors.get());
+  }
+
+  public static void main(String[] args) throws Exception {
+    int clients = 32;
+    int requests = 2000;
+    int selected = 1;
+    boolean binary = false;
+    if (args.length > 0) {
+      clients = Integer.parseInt(args[0]);
+    }
+    if (args.length > 1) {
+      requests = Integer.parseInt(args[1]);
+    }
+    if (args.length > 2) {
+      selected = Integer.parseInt(args[2]);
+    }
+    if (args.length > 3) {
+      binary = args[3].equals("binary");
+    }
+
+    run("nio selector", new Variant() {
+      NioServer server;
+      Thread loop;
+
+      public int start() throws IOException {
+        server = new NioServer(0);
+        loop = new Thread(() -> {
+          try {
+            server.serve();
+          } catch (IOException e) {
+            e.printStackTrace();
+          }
+        });
+        loop.start();
+        return server.getPort();
+      }
+
+      public void stop() {
+        server.close();
+      }
+    }, clients, requests, selected, binary);
+
+    run("thread/conn", new Variant() {
+      VirtualThreadServer server;
+
+      public int start() throws IOException {
+        server = new VirtualThreadServer(0);
+        new Thread(server::serve).start();
+        return server.getPort();
+      }
+
+      public void stop() {
+        server.close();
+      }
+    }, clients, requests, selected, binary);
+  }
+}
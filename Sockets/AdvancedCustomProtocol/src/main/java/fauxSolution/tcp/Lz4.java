@@ -0,0 +1,186 @@
+package fauxSolution.tcp;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+ * The LZ4 block format (https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md),
+ * enough of it for compressing frames: a greedy compressor with one hash
+ * table and a decompressor that checks every length and offset, so a
+ * damaged block throws instead of reading or writing out of bounds. Blocks
+ * interoperate with other LZ4 implementations; the original length is not
+ * part of a block and has to be sent along (FrameCodec does).
+ *
+ * An instance keeps its hash table between calls, so use one per thread.
+ */
+public final class Lz4 {
+  private static final int MIN_MATCH = 4;
+  private static final int LAST_LITERALS = 5; // the last bytes are always literals
+  private static final int MF_LIMIT = 12; // no match starts this close to the end
+  private static final int MAX_OFFSET = 65535;
+  private static final int HASH_LOG = 12;
+
+  private final int[] table = new int[1 << HASH_LOG];
+
+  // the most a block of length bytes can take (incompressible data grows a little)
+  public static int maxCompressedLength(int length) {
+    return length + length / 255 + 16;
+  }
+
+  private static int readInt(byte[] b, int i) {
+    return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+  }
+
+  private static int hash(int value) {
+    return (value * -1640531535) >>> (32 - HASH_LOG);
+  }
+
+  // compresses src[off, off+len) into dst at dstOff, returns the block length;
+  // dst needs maxCompressedLength(len) bytes
+  public int compress(byte[] src, int off, int len, byte[] dst, int dstOff) {
+    int end = off + len;
+    int anchor = off;
+    int op = dstOff;
+    if (len >= MF_LIMIT + 1) {
+      Arrays.fill(table, -1);
+      int matchLimit = end - MF_LIMIT;
+      int ip = off;
+      int misses = 0;
+      while (ip < matchLimit) {
+        int value = readInt(src, ip);
+        int h = hash(value);
+        int ref = table[h];
+        table[h] = ip;
+        if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != value) {
+          ip += 1 + (misses++ >> 6); // skip faster through data that does not compress
+          continue;
+        }
+        misses = 0;
+        while (ip > anchor && ref > off && src[ip - 1] == src[ref - 1]) {
+          ip--;
+          ref--;
+        }
+        int matchLength = MIN_MATCH;
+        while (ip + matchLength < end - LAST_LITERALS && src[ip + matchLength] == src[ref + matchLength]) {
+          matchLength++;
+        }
+        op = sequence(src, anchor, ip - anchor, dst, op, ip - ref, matchLength);
+        ip += matchLength;
+        anchor = ip;
+        if (ip - 2 >= off && ip < matchLimit) {
+          table[hash(readInt(src, ip - 2))] = ip - 2;
+        }
+      }
+    }
+    return last(src, anchor, end - anchor, dst, op) - dstOff;
+  }
+
+  private static int literalLength(byte[] dst, int op, int length) {
+    for (length -= 15; length >= 255; length -= 255) {
+      dst[op++] = (byte) 255;
+    }
+    dst[op++] = (byte) length;
+    return op;
+  }
+
+  private static int sequence(byte[] src, int literals, int literalCount, byte[] dst, int op, int offset,
+      int matchLength) {
+    int token = op++;
+    int m = matchLength - MIN_MATCH;
+    dst[token] = (byte) ((Math.min(literalCount, 15) << 4) | Math.min(m, 15));
+    if (literalCount >= 15) {
+      op = literalLength(dst, op, literalCount);
+    }
+    System.arraycopy(src, literals, dst, op, literalCount);
+    op += literalCount;
+    dst[op++] = (byte) offset;
+    dst[op++] = (byte) (offset >>> 8);
+    if (m >= 15) {
+      op = literalLength(dst, op, m);
+    }
+    return op;
+  }
+
+  private static int last(byte[] src, int literals, int count, byte[] dst, int op) {
+    dst[op++] = (byte) (Math.min(count, 15) << 4);
+    if (count >= 15) {
+      op = literalLength(dst, op, count);
+    }
+    System.arraycopy(src, literals, dst, op, count);
+    return op + count;
+  }
+
+  // decompresses the block src[off, off+len) into exactly dstLen bytes at dst[dstOff]
+  public static void decompress(byte[] src, int off, int len, byte[] dst, int dstOff, int dstLen)
+      throws IOException {
+    int ip = off;
+    int end = off + len;
+    int op = dstOff;
+    int dstEnd = dstOff + dstLen;
+    while (true) {
+      if (ip >= end) {
+        throw corrupt();
+      }
+      int token = src[ip++] & 0xff;
+      int literals = token >>> 4;
+      if (literals == 15) {
+        int b;
+        do {
+          if (ip >= end) {
+            throw corrupt();
+          }
+          b = src[ip++] & 0xff;
+          literals += b;
+        } while (b == 255);
+      }
+      if (literals > end - ip || literals > dstEnd - op) {
+        throw corrupt();
+      }
+      System.arraycopy(src, ip, dst, op, literals);
+      ip += literals;
+      op += literals;
+      if (ip == end) {
+        break; // the last sequence has no match
+      }
+      if (end - ip < 2) {
+        throw corrupt();
+      }
+      int offset = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+      ip += 2;
+      if (offset == 0 || offset > op - dstOff) {
+        throw corrupt();
+      }
+      int matchLength = token & 15;
+      if (matchLength == 15) {
+        int b;
+        do {
+          if (ip >= end) {
+            throw corrupt();
+          }
+          b = src[ip++] & 0xff;
+          matchLength += b;
+        } while (b == 255);
+      }
+      matchLength += MIN_MATCH;
+      if (matchLength > dstEnd - op) {
+        throw corrupt();
+      }
+      int from = op - offset;
+      if (offset >= matchLength) {
+        System.arraycopy(dst, from, dst, op, matchLength);
+        op += matchLength;
+      } else {
+        for (int i = 0; i < matchLength; i++) {
+          dst[op++] = dst[from + i]; // overlapping copy repeats the pattern
+        }
+      }
+    }
+    if (op != dstEnd) {
+      throw corrupt();
+    }
+  }
+
+  private static IOException corrupt() {
+    return new IOException("corrupt LZ4 block");
+  }
+}
@@ -1,8 +1,10 @@
 package fauxSolution.tcp;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 public class NetworkUtils {
   // https://mkyong.com/java/java-convert-byte-to-int-and-vice-versa/
@@ -16,26 +18,51 @@ public class NetworkUtils {
     return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | ((bytes[3] & 0xFF) << 0);
   }
 
+  // payloads up to this size are copied behind the header and sent with one write
+  private static final int COALESCE_LIMIT = 64 << 10;
+  private static final ThreadLocal<byte[]> sendBuffer = ThreadLocal.withInitial(() -> new byte[4 + COALESCE_LIMIT]);
+
   public static void Send(OutputStream out, byte... bytes) throws IOException {
-    out.write(intToBytes(bytes.length));
-    out.write(bytes);
+    Send(out, bytes, 0, bytes.length);
+  }
+
+  public static void Send(OutputStream out, ByteBuffer payload) throws IOException {
+    if (payload.hasArray()) {
+      Send(out, payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+    } else {
+      byte[] bytes = new byte[payload.remaining()];
+      payload.duplicate().get(bytes);
+      Send(out, bytes);
+    }
+  }
+
+  public static void Send(OutputStream out, byte[] bytes, int off, int length) throws IOException {
+    if (length <= COALESCE_LIMIT) {
+      byte[] frame = sendBuffer.get();
+      frame[0] = (byte) (length >> 24);
+      frame[1] = (byte) (length >> 16);
+      frame[2] = (byte) (length >> 8);
+      frame[3] = (byte) length;
+      System.arraycopy(bytes, off, frame, 4, length);
+      out.write(frame, 0, 4 + length);
+    } else {
+      // a large payload fills whole packets anyway, copying it would cost more
+      out.write(intToBytes(length));
+      out.write(bytes, off, length);
+    }
     out.flush();
   }
 
-  // read the bytes on the stream
-  // read the bytes on the stream
+  // read exactly length bytes from the stream
   private static byte[] Read(InputStream in, int length) throws IOException {
     byte[] bytes = new byte[length];
-    System.out.println("Read in bytes: " + length);
     int bytesRead = 0;
-    try {
-      bytesRead = in.read(bytes, 0, length);
-    } catch (IOException e1) {
-      e1.printStackTrace();
-    }
-    if (bytesRead < length && bytesRead > 0) {
-      byte[] newBytes = Read(in, length-bytesRead);
-      System.arraycopy(newBytes, 0, bytes, bytesRead, newBytes.length);
+    while (bytesRead < length) {
+      int n = in.read(bytes, bytesRead, length - bytesRead);
+      if (n < 0) {
+        throw new EOFException(bytesRead == 0 ? "connection closed" : "connection closed in the middle of a message");
+      }
+      bytesRead += n;
     }
     return bytes;
   }
@@ -44,12 +71,10 @@ public class NetworkUtils {
   // next we call read again with the length of the actual bytes in the data we are interested in 
   public static byte[] Receive(InputStream in) throws IOException {
     byte[] lengthBytes = Read(in, 4);
-    if (lengthBytes == null)
-      return new byte[0];
     int length = NetworkUtils.bytesToInt(lengthBytes);
-    byte[] message = Read(in, length);
-    if (message == null)
-      return new byte[0];
-    return message;
+    if (length < 0 || length > FrameReader.DEFAULT_MAX_FRAME) {
+      throw new IOException("message of " + length + " bytes exceeds the limit of " + FrameReader.DEFAULT_MAX_FRAME);
+    }
+    return Read(in, length);
   }
 }
@@ -0,0 +1,249 @@
+package fauxSolution.tcp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Same protocol as Server, served by one thread with a Selector. Sockets are
+ * non-blocking, so an idle or slow client costs nothing but its Connection.
+ * Each Connection keeps a FrameReader holding the part of a request read so
+ * far (4-byte length, then the message, the same framing as NetworkUtils)
+ * and the responses still waiting to be written. Requests are answered on the selector thread,
+ * by the connection's Responder (compressed and batch frames for clients
+ * that ask for them).
+ *
+ * Ctrl-C stops accepting and reading, flushes the responses already queued
+ * and then closes every connection.
+ */
+public class NioServer implements AutoCloseable {
+  private static final int MAX_REQUEST = 1 << 20;
+  private static final int READ_BUFFER = 8 << 10;
+  private static final int GATHER = 16;
+  private static final long GRACE_MILLIS = 5000;
+
+  private final Selector selector;
+  private final ServerSocketChannel serv;
+  private final CountDownLatch stopped = new CountDownLatch(1);
+  private volatile boolean running = true;
+  private int nextId = 0;
+  private int served = 0;
+
+  private static class Connection extends Session {
+    final FrameReader reader;
+    final Responder responder;
+    final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>(); // framed responses
+    final ByteBuffer[] gather = new ByteBuffer[GATHER];
+
+    Connection(int id, SocketChannel channel) throws IOException {
+      super(id, channel.getRemoteAddress());
+      reader = new FrameReader(channel, BufferPool.shared, READ_BUFFER, MAX_REQUEST);
+      responder = new Responder(reader);
+    }
+  }
+
+  public NioServer(int port) throws IOException {
+    selector = Selector.open();
+    serv = ServerSocketChannel.open();
+    serv.bind(new InetSocketAddress(port));
+    serv.configureBlocking(false);
+    serv.register(selector, SelectionKey.OP_ACCEPT);
+  }
+
+  public int getPort() {
+    return serv.socket().getLocalPort();
+  }
+
+  public int clientsServed() {
+    return served;
+  }
+
+  // runs the selector loop until close() is called
+  public void serve() throws IOException {
+    System.out.println("Server ready on port " + getPort() + " using a selector");
+    try {
+      while (running) {
+        selector.select();
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          try {
+            if (!key.isValid()) {
+              continue;
+            }
+            if (key.isAcceptable()) {
+              accept();
+            } else {
+              if (key.isReadable()) {
+                read(key);
+              }
+              if (key.isValid() && key.isWritable()) {
+                write(key);
+                if (running && key.isValid() && ((Connection) key.attachment()).pending.isEmpty()) {
+                  read(key); // requests that arrived while we were writing may be buffered already
+                }
+              }
+            }
+          } catch (IOException e) {
+            disconnect(key);
+          }
+        }
+      }
+      drain();
+    } finally {
+      selector.close();
+      stopped.countDown();
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel = serv.accept();
+    if (channel == null) {
+      return;
+    }
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+    channel.register(selector, SelectionKey.OP_READ, new Connection(nextId++, channel));
+  }
+
+  private void read(SelectionKey key) throws IOException {
+    Connection conn = (Connection) key.attachment();
+    ByteBuffer message;
+    // a pipelining client can have many requests in one read; their answers
+    // are queued and written together
+    do {
+      while (conn.pending.size() < GATHER && (message = conn.reader.read()) != null) {
+        respond(conn, message);
+      }
+      if (conn.pending.isEmpty()) {
+        return;
+      }
+      write(key);
+    } while (key.isValid() && conn.pending.isEmpty());
+  }
+
+  private void respond(Connection conn, ByteBuffer message) throws IOException {
+    conn.bytesIn += message.remaining() + 4;
+    // usually a shared, already framed response, nothing is copied
+    ByteBuffer frames = conn.responder.answer(message);
+    conn.pending.add(frames);
+    conn.bytesOut += frames.remaining();
+    conn.requests++;
+  }
+
+  // writes what the socket takes; stops reading new requests until the
+  // queued responses are out so a client that never reads cannot grow the
+  // queue without bound
+  private void write(SelectionKey key) throws IOException {
+    SocketChannel channel = (SocketChannel) key.channel();
+    Connection conn = (Connection) key.attachment();
+    while (!conn.pending.isEmpty()) {
+      // queued responses go out together in one gathering write
+      int n = 0;
+      for (ByteBuffer b : conn.pending) {
+        conn.gather[n++] = b;
+        if (n == GATHER) {
+          break;
+        }
+      }
+      channel.write(conn.gather, 0, n);
+      while (!conn.pending.isEmpty() && !conn.pending.peek().hasRemaining()) {
+        conn.pending.poll();
+      }
+      if (conn.gather[n - 1].hasRemaining()) {
+        key.interestOps(SelectionKey.OP_WRITE);
+        return;
+      }
+    }
+    if (!running) {
+      disconnect(key);
+      return;
+    }
+    key.interestOps(SelectionKey.OP_READ);
+  }
+
+  private void disconnect(SelectionKey key) {
+    if (!key.isValid()) {
+      return;
+    }
+    key.cancel();
+    try {
+      key.channel().close();
+    } catch (IOException e) {
+      // already closed
+    }
+    Object conn = key.attachment();
+    if (conn instanceof Connection) {
+      ((Connection) conn).reader.close();
+      ((Connection) conn).responder.close();
+      served++;
+      System.out.println("Client disconnect: " + conn);
+    }
+  }
+
+  // after close(): no more accepts or requests, only queued responses
+  private void drain() throws IOException {
+    serv.close();
+    for (SelectionKey key : selector.keys()) {
+      if (key.attachment() instanceof Connection && ((Connection) key.attachment()).pending.isEmpty()) {
+        disconnect(key);
+      }
+    }
+    long deadline = System.currentTimeMillis() + GRACE_MILLIS;
+    while (!selector.keys().isEmpty() && System.currentTimeMillis() < deadline) {
+      selector.select(Math.max(1, deadline - System.currentTimeMillis()));
+      Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+      while (it.hasNext()) {
+        SelectionKey key = it.next();
+        it.remove();
+        try {
+          if (key.isValid() && key.isWritable()) {
+            write(key);
+          }
+        } catch (IOException e) {
+          disconnect(key);
+        }
+      }
+      selector.selectNow(); // flush cancelled keys
+    }
+    for (SelectionKey key : selector.keys()) {
+      disconnect(key);
+    }
+    System.out.println("Server stopped after " + served + " clients");
+  }
+
+  @Override
+  public void close() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    selector.wakeup();
+    try {
+      stopped.await(GRACE_MILLIS * 2, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    int port = 9000;
+    if (args.length > 0) {
+      port = Integer.parseInt(args[0]);
+    }
+    ResponseCache.preload();
+    ResponseCache.watchConsole();
+    NioServer server = new NioServer(port);
+    Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+    server.serve();
+  }
+}
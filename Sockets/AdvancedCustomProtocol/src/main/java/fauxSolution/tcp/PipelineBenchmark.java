@@ -0,0 +1,118 @@
+package fauxSolution.tcp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.json.JSONObject;
+
+/*
+ * Requests per second from one program fetching <requests> items, against
+ * the NioServer and the VirtualThreadServer started in this JVM:
+ *   serial     one connection, send a request, wait for the answer, repeat
+ *   pipelined  one AsyncClient, all requests sent without waiting
+ *   pool       a ClientPool of <connections> AsyncClients
+ * Every answer is checked for the type that was asked for.
+ *
+ * gradle TCPPipelineBenchmark --args '20000 1 4'
+ * <requests> <selected> <connections>
+ */
+public class PipelineBenchmark {
+
+  private interface Mode {
+    void run(int port, JSONObject request, int requests) throws Exception;
+  }
+
+  private static void check(JSONObject response, String type) throws IOException {
+    if (!type.equals(response.optString("type"))) {
+      throw new IOException("unexpected response " + response.optString("type", response.optString("error")));
+    }
+  }
+
+  private static void serial(int port, JSONObject request, int requests, String type) throws IOException {
+    try (Socket sock = new Socket("localhost", port)) {
+      sock.setTcpNoDelay(true);
+      OutputStream out = sock.getOutputStream();
+      InputStream in = sock.getInputStream();
+      byte[] bytes = JsonUtils.toByteArray(request);
+      for (int i = 0; i < requests; i++) {
+        NetworkUtils.Send(out, bytes);
+        JSONObject response = JsonUtils.fromByteArray(NetworkUtils.Receive(in));
+        if (response.optInt("datatype") == 3) {
+          Client.receiveImage(in, response);
+        }
+        check(response, type);
+      }
+    }
+  }
+
+  private static void pipelined(AsyncClient client, ClientPool pool, JSONObject request, int requests, String type)
+      throws Exception {
+    List<CompletableFuture<JSONObject>> answers = new ArrayList<>(requests);
+    for (int i = 0; i < requests; i++) {
+      answers.add(client != null ? client.request(request) : pool.request(request));
+    }
+    for (CompletableFuture<JSONObject> answer : answers) {
+      check(answer.get(), type);
+    }
+  }
+
+  private static void measure(String server, String mode, int port, int requests, JSONObject request, Mode m)
+      throws Exception {
+    m.run(port, request, requests / 10); // warm up
+    long start = System.nanoTime();
+    m.run(port, request, requests);
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("%-14s %-10s %8.0f requests/s%n", server, mode, requests / seconds);
+  }
+
+  private static void all(String server, int port, int requests, JSONObject request, String type, int connections)
+      throws Exception {
+    measure(server, "serial", port, requests, request, (p, r, n) -> serial(p, r, n, type));
+    measure(server, "pipelined", port, requests, request, (p, r, n) -> {
+      try (AsyncClient client = new AsyncClient("localhost", p)) {
+        pipelined(client, null, r, n, type);
+      }
+    });
+    measure(server, "pool x" + connections, port, requests, request, (p, r, n) -> {
+      try (ClientPool pool = new ClientPool("localhost", p, connections)) {
+        pipelined(null, pool, r, n, type);
+      }
+    });
+  }
+
+  public static void main(String[] args) throws Exception {
+    int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    int selected = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+    int connections = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+    JSONObject request = new JSONObject();
+    request.put("selected", selected);
+    request.put("binary", true);
+    String type = selected == 1 ? "joke" : selected == 2 ? "quote" : "image";
+    if (selected == 4) {
+      throw new IllegalArgumentException("random answers cannot be checked, pick 1, 2 or 3");
+    }
+    ResponseCache.preload();
+
+    NioServer nio = new NioServer(0);
+    Thread loop = new Thread(() -> {
+      try {
+        nio.serve();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    });
+    loop.start();
+    all("nio selector", nio.getPort(), requests, request, type, connections);
+    nio.close();
+
+    VirtualThreadServer threaded = new VirtualThreadServer(0);
+    new Thread(threaded::serve).start();
+    all("thread/conn", threaded.getPort(), requests, request, type, connections);
+    threaded.close();
+  }
+}
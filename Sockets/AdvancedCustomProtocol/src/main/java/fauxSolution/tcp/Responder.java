@@ -0,0 +1,121 @@
+package fauxSolution.tcp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONException;
+
+/*
+ * Answers the requests of one connection, the part NioServer and
+ * VirtualThreadServer share. Plain frames from the ResponseCache until the
+ * client asks for options; after that the frames are encoded with the
+ * FrameCodec agreed on: large JSON frames compressed, and a batch of
+ * requests answered with one batch of responses. A cached response is
+ * compressed once and shared by every connection; the request's id goes
+ * in front of the compressed bytes (see FrameCodec.withId).
+ *
+ * One per connection, used by one thread at a time.
+ */
+public class Responder {
+  private final FrameReader reader;
+  private FrameCodec codec; // null until the client asks for options
+
+  public Responder(FrameReader reader) {
+    this.reader = reader;
+  }
+
+  // the framed answer to the frame reader.read() returned last
+  public ByteBuffer answer(ByteBuffer message) throws IOException {
+    int flags = reader.flags();
+    if ((flags & FrameCodec.BATCH) != 0) {
+      return ByteBuffer.wrap(batch(codec.unbatch(codec.payload(flags, message))));
+    }
+    ByteBuffer payload = codec == null ? message : codec.payload(flags, message);
+    JsonCodec.Request request;
+    try {
+      request = JsonCodec.readRequest(payload);
+    } catch (JSONException e) {
+      return encode(ResponseCache.Response.of(Server.error("Invalid message received")), null);
+    }
+    if (request.options != null) {
+      // the answer is a plain frame, the agreed options apply from the next one
+      FrameCodec agreed = FrameCodec.accept(request.options);
+      ResponseCache.Response answer = ResponseCache.Response.of(agreed.options());
+      if (codec != null) {
+        codec.close();
+      }
+      codec = agreed;
+      reader.acceptFlags();
+      return (request.id == null ? answer : answer.withId(request.id)).buffer();
+    }
+    return encode(ResponseCache.cached(request), request.id);
+  }
+
+  // the untagged response to one request of a batch, its id added to ids
+  private ResponseCache.Response respond(ByteBuffer message, List<Object> ids) throws IOException {
+    try {
+      JsonCodec.Request request = JsonCodec.readRequest(message);
+      ids.add(request.id);
+      if (request.options != null) {
+        return ResponseCache.Response.of(Server.error("Options cannot be changed inside a batch"));
+      }
+      return ResponseCache.cached(request);
+    } catch (JSONException e) {
+      ids.add(null);
+      return ResponseCache.Response.of(Server.error("Invalid message received"));
+    }
+  }
+
+  private static ResponseCache.Response tag(ResponseCache.Response response, Object id) {
+    return id == null ? response : response.withId(id);
+  }
+
+  private ByteBuffer encode(ResponseCache.Response response, Object id) {
+    if (codec == null || codec.algorithm == FrameCodec.Algorithm.NONE) {
+      return tag(response, id).buffer(); // shared when there is no id
+    }
+    return ByteBuffer.wrap(encoded(response, id)).asReadOnlyBuffer();
+  }
+
+  // the frames for this connection's codec with id added: the shared
+  // compressed frame gets it as a prefix, an uncompressed one in its JSON
+  private byte[] encoded(ResponseCache.Response response, Object id) {
+    byte[] frames = response.encoded(codec);
+    if (id == null) {
+      return frames;
+    }
+    if ((ByteBuffer.wrap(frames).getInt(0) & FrameCodec.COMPRESSED) != 0) {
+      return FrameCodec.withId(frames, id);
+    }
+    return codec.frames(response.withId(id).wire(), 1);
+  }
+
+  // answers in the order of the requests; small responses are compressed as
+  // one block, large ones on their own so image chunks are left alone
+  private byte[] batch(Iterable<ByteBuffer> requests) throws IOException {
+    List<ResponseCache.Response> responses = new ArrayList<>();
+    List<Object> ids = new ArrayList<>();
+    boolean chunks = false;
+    for (ByteBuffer request : requests) {
+      ResponseCache.Response response = respond(request, ids);
+      responses.add(response);
+      chunks |= response.hasChunks();
+    }
+    boolean separately = chunks && codec.algorithm != FrameCodec.Algorithm.NONE;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < responses.size(); i++) {
+      ResponseCache.Response response = responses.get(i);
+      out.write(separately ? encoded(response, ids.get(i)) : tag(response, ids.get(i)).wire());
+    }
+    return codec.batch(out.toByteArray(), separately);
+  }
+
+  public void close() {
+    if (codec != null) {
+      codec.close();
+    }
+  }
+}
@@ -0,0 +1,215 @@
+package fauxSolution.tcp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.json.JSONObject;
+
+/*
+ * The joke, quote and image responses never change while the server runs,
+ * so they are serialized once, length prefixes included, and every request
+ * is answered by writing those bytes. A Response is immutable and handed
+ * out as read-only views, so any number of connections can send the same
+ * one at the same time.
+ *
+ * reload() builds a fresh set (reading the image file again) and swaps it
+ * in; requests in flight finish with the set they started with. Typing
+ * "reload" on the server console does the same (see watchConsole).
+ */
+public class ResponseCache {
+
+  // all frames of one response, each with its 4-byte length
+  public static final class Response {
+    private static final int ALGORITHMS = FrameCodec.Algorithm.values().length;
+
+    private final byte[] wire;
+    // the frames re-encoded per algorithm, made on first use (see encoded)
+    private final AtomicReferenceArray<byte[]> encoded = new AtomicReferenceArray<>(ALGORITHMS);
+
+    private Response(byte[] wire) {
+      this.wire = wire;
+    }
+
+    // builds the frames of a response that is not cached, e.g. an error
+    public static Response of(JSONObject response) throws IOException {
+      ByteBuffer[] frames = Server.frames(response);
+      int size = 0;
+      for (ByteBuffer f : frames) {
+        size += 4 + f.remaining();
+      }
+      ByteBuffer wire = ByteBuffer.allocate(size);
+      for (ByteBuffer f : frames) {
+        wire.putInt(f.remaining()).put(f.duplicate());
+      }
+      return new Response(wire.array());
+    }
+
+    // a new read-only view, positioned at the start, for one send
+    public ByteBuffer buffer() {
+      return ByteBuffer.wrap(wire).asReadOnlyBuffer();
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+      out.write(wire);
+      out.flush();
+    }
+
+    public int size() {
+      return wire.length;
+    }
+
+    // the frames themselves, for re-encoding them (see Responder); not to be changed
+    byte[] wire() {
+      return wire;
+    }
+
+    // true when codec.frames(wire, 1) tries to compress the JSON frame
+    private boolean compresses(FrameCodec codec) {
+      return codec.algorithm != FrameCodec.Algorithm.NONE && ByteBuffer.wrap(wire).getInt(0) >= codec.threshold;
+    }
+
+    /*
+     * codec.frames(wire, 1): the JSON frame compressed when it reaches the
+     * threshold. Beyond that the result depends only on the algorithm, so it
+     * is made once per algorithm and shared; not to be changed.
+     */
+    byte[] encoded(FrameCodec codec) {
+      if (!compresses(codec)) {
+        return wire; // what frames() would copy
+      }
+      int i = codec.algorithm.ordinal();
+      byte[] frames = encoded.get(i);
+      if (frames == null) {
+        frames = codec.frames(wire, 1); // a race only compresses twice
+        encoded.set(i, frames);
+      }
+      return frames;
+    }
+
+    // true when raw image chunks follow the JSON frame
+    boolean hasChunks() {
+      return 4 + ByteBuffer.wrap(wire).getInt(0) < wire.length;
+    }
+
+    // the same frames with "id" added to the JSON in the first one, for
+    // clients that match responses to requests (see AsyncClient)
+    public Response withId(Object id) {
+      int length = ByteBuffer.wrap(wire).getInt(0);
+      boolean empty = wire[5] == '}';
+      byte[] field = ("\"id\":" + JSONObject.valueToString(id) + (empty ? "" : ","))
+          .getBytes(StandardCharsets.UTF_8);
+      byte[] tagged = new byte[wire.length + field.length];
+      ByteBuffer.wrap(tagged).putInt(length + field.length);
+      tagged[4] = '{';
+      System.arraycopy(field, 0, tagged, 5, field.length);
+      System.arraycopy(wire, 5, tagged, 5 + field.length, wire.length - 5);
+      return new Response(tagged);
+    }
+  }
+
+  private static final class Snapshot {
+    final Response joke;
+    final Response quote;
+    final Response image; // Base64 in the JSON
+    final Response imageBinary; // header and raw frames
+
+    Snapshot() throws IOException {
+      joke = Response.of(Server.joke());
+      quote = Response.of(Server.quote());
+      image = Response.of(Server.image());
+      imageBinary = Response.of(Server.imageHeader());
+    }
+  }
+
+  private static volatile Snapshot current;
+
+  private ResponseCache() {
+  }
+
+  // builds the responses if that has not happened yet; call at startup
+  public static void preload() throws IOException {
+    snapshot();
+  }
+
+  private static Snapshot snapshot() throws IOException {
+    Snapshot s = current;
+    if (s == null) {
+      synchronized (ResponseCache.class) {
+        if (current == null) {
+          current = new Snapshot();
+        }
+        s = current;
+      }
+    }
+    return s;
+  }
+
+  public static synchronized void reload() throws IOException {
+    Server.reloadImage();
+    current = new Snapshot();
+  }
+
+  // same answers as Server.respond, from the cached bytes; an "id" in the
+  // request is copied into the response
+  public static Response respond(JSONObject message) throws IOException {
+    return respond(JsonCodec.Request.of(message));
+  }
+
+  // the same for a request read with JsonCodec.readRequest
+  public static Response respond(JsonCodec.Request request) throws IOException {
+    Response response = cached(request);
+    return request.id == null ? response : response.withId(request.id);
+  }
+
+  // the answer to request without its id, shared between requests
+  static Response cached(JsonCodec.Request request) throws IOException {
+    if (!request.hasIntSelected()) {
+      return Response.of(Server.respond(request.toJSONObject())); // the error response
+    }
+    Snapshot s = snapshot();
+    boolean binary = request.binary;
+    int choice = ((Number) request.selected).intValue();
+    if (choice == 4) {
+      choice = 1 + ThreadLocalRandom.current().nextInt(3);
+    }
+    switch (choice) {
+    case (1):
+      return s.joke;
+    case (2):
+      return s.quote;
+    case (3):
+      return binary ? s.imageBinary : s.image;
+    default:
+      return Response.of(Server.respond(request.toJSONObject()));
+    }
+  }
+
+  // reloads whenever "reload" is typed on the console
+  public static void watchConsole() {
+    Thread t = new Thread(() -> {
+      try (BufferedReader in = new BufferedReader(new InputStreamReader(System.in))) {
+        String line;
+        while ((line = in.readLine()) != null) {
+          if (line.trim().equals("reload")) {
+            try {
+              reload();
+              System.out.println("Responses reloaded");
+            } catch (IOException e) {
+              System.out.println("Reload failed, keeping the old responses: " + e.getMessage());
+            }
+          }
+        }
+      } catch (IOException e) {
+        // console closed
+      }
+    });
+    t.setDaemon(true);
+    t.start();
+  }
+}
@@ -1,31 +1,41 @@
 package fauxSolution.tcp;
 
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.Base64;
-import java.util.Random;
-
-import javax.imageio.ImageIO;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.json.*;
 
 public class Server {
   /*
-   * request: { "selected": <int: 1=joke, 2=quote, 3=image, 4=random> }
+   * request: { "selected": <int: 1=joke, 2=quote, 3=image, 4=random>,
+   * (optional)"binary": <bool>, (optional)"id": <correlation id> }
+   * 
+   * every response to a request with an "id" carries the same "id", so a
+   * client can send many requests before reading the answers
    * 
    * response: {"datatype": <int: 1-string, 2-byte array>, "type": <"joke",
    * "quote", "image">, "data": <thing to return> }
    * 
+   * image response when the request had "binary": true
+   * {"datatype": 3, "type": "image", "size": <bytes>, "chunks": <frames>}
+   * followed by <frames> frames holding the raw image file, at most
+   * IMAGE_CHUNK bytes each
+   * 
    * error response: {"error": <error string> }
    */
 
+  public static final int IMAGE_CHUNK = 64 * 1024;
+  private static final String IMAGE_FILE = "img/To-Funny-For-Words1.png";
+  private static byte[] imageBytes; // the file, read on first use
+
   public static JSONObject joke() {
     JSONObject json = new JSONObject();
     json.put("datatype", 1);
@@ -43,42 +53,63 @@ public class Server {
     return json;
   }
 
+  // the png file as it is on disk, it is already what the client decodes
+  public static synchronized byte[] imageBytes() throws IOException {
+    if (imageBytes == null) {
+      File file = new File(IMAGE_FILE);
+      if (!file.exists()) {
+        System.err.println("Cannot find file: " + file.getAbsolutePath());
+        System.exit(-1);
+      }
+      imageBytes = Files.readAllBytes(file.toPath());
+    }
+    return imageBytes;
+  }
+
+  // reads the image file again, e.g. after it was replaced
+  public static synchronized void reloadImage() throws IOException {
+    File file = new File(IMAGE_FILE);
+    if (!file.exists()) {
+      throw new IOException("Cannot find file: " + file.getAbsolutePath());
+    }
+    imageBytes = Files.readAllBytes(file.toPath());
+  }
+
   public static JSONObject image() throws IOException {
     JSONObject json = new JSONObject();
     json.put("datatype", 2);
 
     json.put("type", "image");
 
-    File file = new File("img/To-Funny-For-Words1.png");
-    if (!file.exists()) {
-      System.err.println("Cannot find file: " + file.getAbsolutePath());
-      System.exit(-1);
-    }
-    // Read in image
-    BufferedImage img = ImageIO.read(file);
-    byte[] bytes = null;
-    try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-      ImageIO.write(img, "png", out);
-      bytes = out.toByteArray();
-    }
-    if (bytes != null) {
-      Base64.Encoder encoder = Base64.getEncoder();
-      json.put("data", encoder.encodeToString(bytes));
-      return json;
-    }
-    return error("Unable to save image to byte array");
+    Base64.Encoder encoder = Base64.getEncoder();
+    json.put("data", encoder.encodeToString(imageBytes()));
+    return json;
+  }
+
+  // header of the binary image response, the chunks follow it
+  public static JSONObject imageHeader() throws IOException {
+    int size = imageBytes().length;
+    JSONObject json = new JSONObject();
+    json.put("datatype", 3);
+    json.put("type", "image");
+    json.put("size", size);
+    json.put("chunks", (size + IMAGE_CHUNK - 1) / IMAGE_CHUNK);
+    return json;
   }
 
   public static JSONObject random() throws IOException {
-    Random rand = new Random();
-    int random = rand.nextInt(3);
+    return random(false);
+  }
+
+  public static JSONObject random(boolean binary) throws IOException {
+    int random = ThreadLocalRandom.current().nextInt(3);
     JSONObject json = new JSONObject();
     if (random == 0) {
       json = joke();
     } else if (random == 1) {
       json = quote();
     } else if (random == 2) {
-      json = image();
+      json = binary ? imageHeader() : image();
     }
     return json;
   }
@@ -89,9 +120,63 @@ public class Server {
     return json;
   }
 
+  // answers one request, shared by this server and the concurrent ones
+  public static JSONObject respond(JSONObject message) throws IOException {
+    JSONObject returnMessage;
+    if (message.has("selected")) {
+      if (message.get("selected") instanceof Long || message.get("selected") instanceof Integer) {
+        int choice = message.getInt("selected");
+        boolean binary = message.optBoolean("binary", false);
+        switch (choice) {
+        case (1):
+          returnMessage = joke();
+          break;
+        case (2):
+          returnMessage = quote();
+          break;
+        case (3):
+          returnMessage = binary ? imageHeader() : image();
+          break;
+        case (4):
+          returnMessage = random(binary);
+          break;
+        default:
+          returnMessage = error("Invalid selection: " + choice + " is not an option");
+        }
+      } else {
+        returnMessage = error("Selection must be an integer");
+      }
+    } else {
+      returnMessage = error("Invalid message received");
+    }
+    return returnMessage;
+  }
+
+  /*
+   * The payloads of the frames that make up a response: the JSON message,
+   * and for a binary image the chunks of the file, which share the cached
+   * bytes instead of copying them (so they must not be written to).
+   */
+  public static ByteBuffer[] frames(JSONObject response) throws IOException {
+    ByteBuffer message = ByteBuffer.wrap(JsonUtils.toByteArray(response));
+    if (response.optInt("datatype") != 3) {
+      return new ByteBuffer[] { message };
+    }
+    byte[] image = imageBytes();
+    ByteBuffer[] frames = new ByteBuffer[1 + response.getInt("chunks")];
+    frames[0] = message;
+    for (int i = 1; i < frames.length; i++) {
+      int off = (i - 1) * IMAGE_CHUNK;
+      frames[i] = ByteBuffer.wrap(image, off, Math.min(IMAGE_CHUNK, image.length - off));
+    }
+    return frames;
+  }
+
   public static void main(String[] args) throws IOException {
     ServerSocket serv = null;
     try {
+      ResponseCache.preload();
+      ResponseCache.watchConsole();
       serv = new ServerSocket(9000);
       // NOTE: SINGLE-THREADED, only one connection at a time
       while (true) {
@@ -102,37 +187,9 @@ public class Server {
           InputStream in = sock.getInputStream();
           while (true) {
             byte[] messageBytes = NetworkUtils.Receive(in);
-            JSONObject message = JsonUtils.fromByteArray(messageBytes);
-            JSONObject returnMessage;
-            if (message.has("selected")) {
-              if (message.get("selected") instanceof Long || message.get("selected") instanceof Integer) {
-                int choice = message.getInt("selected");
-                switch (choice) {
-                case (1):
-                  returnMessage = joke();
-                  break;
-                case (2):
-                  returnMessage = quote();
-                  break;
-                case (3):
-                  returnMessage = image();
-                  break;
-                case (4):
-                  returnMessage = random();
-                  break;
-                default:
-                  returnMessage = error("Invalid selection: " + choice + " is not an option");
-                }
-              } else {
-                returnMessage = error("Selection must be an integer");
-              }
-            } else {
-              returnMessage = error("Invalid message received");
-            }
-
-            // we are converting the JSON object we have to a byte[]
-            byte[] output = JsonUtils.toByteArray(returnMessage);
-            NetworkUtils.Send(out, output);
+            // only the request fields are read, and the response is already
+            // serialized, see JsonCodec and ResponseCache
+            ResponseCache.respond(JsonCodec.readRequest(ByteBuffer.wrap(messageBytes))).writeTo(out);
           }
         } catch (Exception e) {
           System.out.println("Client disconnect");
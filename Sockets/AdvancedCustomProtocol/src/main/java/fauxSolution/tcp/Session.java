@@ -0,0 +1,28 @@
+package fauxSolution.tcp;
+
+import java.net.SocketAddress;
+
+/*
+ * Per-connection state kept by the concurrent servers. Every client gets
+ * its own Session, so one client's requests and counters never mix with
+ * another's.
+ */
+class Session {
+  final int id;
+  final SocketAddress remote;
+  final long connectedAt = System.nanoTime();
+  int requests;
+  long bytesIn;
+  long bytesOut;
+
+  Session(int id, SocketAddress remote) {
+    this.id = id;
+    this.remote = remote;
+  }
+
+  @Override
+  public String toString() {
+    return "client " + id + " (" + remote + "): " + requests + " requests, " + bytesIn + " bytes in, "
+        + bytesOut + " bytes out in " + (System.nanoTime() - connectedAt) / 1000000 + " ms";
+  }
+}
@@ -0,0 +1,153 @@
+package fauxSolution.tcp;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Same protocol as Server, but every connection runs on its own thread, so
+ * an idle client no longer blocks everyone else. On Java 21 and later each
+ * connection gets a virtual thread; on older JVMs it falls back to a cached
+ * pool of platform threads.
+ *
+ * Ctrl-C stops accepting, lets every client finish the request it is in the
+ * middle of, and then closes the remaining connections.
+ */
+public class VirtualThreadServer implements AutoCloseable {
+  private static final long GRACE_MILLIS = 5000;
+
+  private final ServerSocketChannel serv;
+  private final ExecutorService executor;
+  private final String threadKind;
+  private final Map<SocketChannel, Session> sessions = new ConcurrentHashMap<>();
+  private final AtomicInteger nextId = new AtomicInteger();
+  private final AtomicInteger served = new AtomicInteger();
+  private volatile boolean running = true;
+
+  public VirtualThreadServer(int port) throws IOException {
+    serv = ServerSocketChannel.open();
+    serv.bind(new InetSocketAddress(port));
+    ExecutorService virtual = null;
+    try {
+      Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      virtual = (ExecutorService) m.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      // not available before Java 21
+    }
+    executor = virtual != null ? virtual : Executors.newCachedThreadPool();
+    threadKind = virtual != null ? "virtual threads" : "platform threads";
+  }
+
+  public int getPort() {
+    return serv.socket().getLocalPort();
+  }
+
+  // accepts connections until close() is called
+  public void serve() {
+    System.out.println("Server ready on port " + getPort() + " using " + threadKind);
+    while (running) {
+      try {
+        SocketChannel sock = serv.accept();
+        // small request/response messages, do not hold them back for coalescing
+        sock.socket().setTcpNoDelay(true);
+        Session session = new Session(nextId.getAndIncrement(), sock.getRemoteAddress());
+        sessions.put(sock, session);
+        executor.execute(() -> handle(sock, session));
+      } catch (IOException e) {
+        if (running) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  private void handle(SocketChannel sock, Session session) {
+    Responder responder = null;
+    try (FrameReader reader = new FrameReader(sock)) {
+      responder = new Responder(reader);
+      while (true) {
+        ByteBuffer messageBytes = reader.read();
+        session.bytesIn += messageBytes.remaining() + 4;
+        ByteBuffer response = responder.answer(messageBytes);
+        session.bytesOut += response.remaining();
+        while (response.hasRemaining()) {
+          sock.write(response);
+        }
+        session.requests++;
+      }
+    } catch (Exception e) {
+      // client disconnected, or input was shut down by close()
+    } finally {
+      if (responder != null) {
+        responder.close();
+      }
+      sessions.remove(sock);
+      served.incrementAndGet();
+      try {
+        sock.close();
+      } catch (IOException e) {
+        // already closed
+      }
+      System.out.println("Client disconnect: " + session);
+    }
+  }
+
+  public int clientsServed() {
+    return served.get();
+  }
+
+  @Override
+  public void close() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    try {
+      serv.close();
+    } catch (IOException e) {
+      // accept loop exits either way
+    }
+    // a handler blocked in read sees end of stream, one in the middle of a
+    // request still sends its response first
+    for (SocketChannel sock : sessions.keySet()) {
+      try {
+        sock.shutdownInput();
+      } catch (IOException e) {
+        // already gone
+      }
+    }
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+        for (SocketChannel sock : sessions.keySet()) {
+          sock.close();
+        }
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException | IOException e) {
+      executor.shutdownNow();
+    }
+    System.out.println("Server stopped after " + served.get() + " clients");
+  }
+
+  public static void main(String[] args) throws IOException {
+    int port = 9000;
+    if (args.length > 0) {
+      port = Integer.parseInt(args[0]);
+    }
+    ResponseCache.preload();
+    ResponseCache.watchConsole();
+    VirtualThreadServer server = new VirtualThreadServer(port);
+    Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+    server.serve();
+  }
+}
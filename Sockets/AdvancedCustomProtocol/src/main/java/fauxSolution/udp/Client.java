@@ -53,12 +53,16 @@ public static JSONObject random() {
   return request;
 }
 
+  // with the argument "reliable" messages go through ReliableUdp, a second
+  // argument sets the server port (e.g. that of a LossyProxy)
   public static void main(String[] args) throws IOException {
     DatagramSocket sock;
+    boolean reliable = args.length > 0 && args[0].equals("reliable");
     try {
       InetAddress address = InetAddress.getByName("localhost");
-      int port = 9000;
+      int port = args.length > 1 ? Integer.parseInt(args[1]) : 9000;
       sock = new DatagramSocket();
+      ReliableUdp channel = reliable ? new ReliableUdp(sock) : null;
 
       Scanner input = new Scanner(System.in);
       int choice;
@@ -88,8 +92,14 @@ public static JSONObject random() {
         }
 
         if (request != null) {
-          NetworkUtils.Send(sock, address, port, JsonUtils.toByteArray(request));
-          NetworkUtils.Tuple responseTuple = NetworkUtils.Receive(sock);
+          NetworkUtils.Tuple responseTuple;
+          if (reliable) {
+            channel.send(address, port, JsonUtils.toByteArray(request));
+            responseTuple = channel.receive();
+          } else {
+            NetworkUtils.Send(sock, address, port, JsonUtils.toByteArray(request));
+            responseTuple = NetworkUtils.Receive(sock);
+          }
           JSONObject response = JsonUtils.fromByteArray(responseTuple.Payload);
           if (response.has("error")) {
               System.out.println(response.getString("error"));
@@ -0,0 +1,163 @@
+package fauxSolution.udp;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * A UDP relay that misbehaves on purpose, to try the protocol on a bad
+ * network without leaving localhost. Clients send to the proxy port, the
+ * proxy forwards to the server and the answers back to the client. In both
+ * directions it drops, duplicates and delays (and so reorders) a given
+ * percentage of the packets. Every client gets its own socket towards the
+ * server, so the server still sees one address and port per client.
+ *
+ * gradle UDPLossyProxy --args '9001 localhost 9000 10 20 2'
+ * <proxyPort> <serverHost> <serverPort> <loss%> <reorder%> <duplicate%>
+ */
+public class LossyProxy implements AutoCloseable {
+  private final DatagramSocket front;
+  private final SocketAddress server;
+  private final int loss, reorder, duplicate;
+  private final Random rand;
+  private final Map<SocketAddress, DatagramSocket> upstream = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService delayed = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "proxy-delay");
+    t.setDaemon(true);
+    return t;
+  });
+
+  final AtomicLong forwarded = new AtomicLong();
+  final AtomicLong dropped = new AtomicLong();
+  final AtomicLong reordered = new AtomicLong();
+
+  public LossyProxy(int port, InetAddress serverAddress, int serverPort, int loss, int reorder, int duplicate,
+      long seed) throws SocketException {
+    front = new DatagramSocket(port);
+    server = new InetSocketAddress(serverAddress, serverPort);
+    this.loss = loss;
+    this.reorder = reorder;
+    this.duplicate = duplicate;
+    this.rand = new Random(seed);
+    Thread t = new Thread(this::fromClients, "proxy-front");
+    t.setDaemon(true);
+    t.start();
+  }
+
+  public int getPort() {
+    return front.getLocalPort();
+  }
+
+  private void fromClients() {
+    byte[] buff = new byte[65535];
+    DatagramPacket packet = new DatagramPacket(buff, buff.length);
+    while (!front.isClosed()) {
+      try {
+        packet.setLength(buff.length);
+        front.receive(packet);
+        SocketAddress client = packet.getSocketAddress();
+        DatagramSocket up = upstream.get(client);
+        if (up == null) {
+          up = new DatagramSocket();
+          upstream.put(client, up);
+          DatagramSocket socket = up;
+          Thread t = new Thread(() -> fromServer(socket, client), "proxy-back");
+          t.setDaemon(true);
+          t.start();
+        }
+        relay(up, Arrays.copyOf(buff, packet.getLength()), server);
+      } catch (IOException e) {
+        // closed
+      }
+    }
+  }
+
+  private void fromServer(DatagramSocket up, SocketAddress client) {
+    byte[] buff = new byte[65535];
+    DatagramPacket packet = new DatagramPacket(buff, buff.length);
+    while (!up.isClosed()) {
+      try {
+        packet.setLength(buff.length);
+        up.receive(packet);
+        relay(front, Arrays.copyOf(buff, packet.getLength()), client);
+      } catch (IOException e) {
+        // closed
+      }
+    }
+  }
+
+  private void relay(DatagramSocket out, byte[] data, SocketAddress to) throws IOException {
+    int roll;
+    int copies = 1;
+    long delay = 0;
+    synchronized (rand) {
+      roll = rand.nextInt(100);
+      if (rand.nextInt(100) < duplicate) {
+        copies = 2;
+      }
+      if (rand.nextInt(100) < reorder) {
+        delay = 1 + rand.nextInt(20);
+      }
+    }
+    if (roll < loss) {
+      dropped.incrementAndGet();
+      return;
+    }
+    for (int i = 0; i < copies; i++) {
+      DatagramPacket packet = new DatagramPacket(data, data.length, to);
+      if (delay > 0) {
+        reordered.incrementAndGet();
+        delayed.schedule(() -> {
+          try {
+            out.send(packet);
+          } catch (IOException e) {
+            // closed meanwhile
+          }
+        }, delay, TimeUnit.MILLISECONDS);
+      } else {
+        out.send(packet);
+      }
+      forwarded.incrementAndGet();
+    }
+  }
+
+  @Override
+  public void close() {
+    front.close();
+    for (DatagramSocket up : upstream.values()) {
+      up.close();
+    }
+    delayed.shutdownNow();
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 3) {
+      System.out.println("Expected Arguments: <proxyPort> <serverHost> <serverPort> [loss%] [reorder%] [duplicate%]");
+      System.exit(1);
+    }
+    int loss = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+    int reorder = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+    int duplicate = args.length > 5 ? Integer.parseInt(args[5]) : 2;
+    LossyProxy proxy = new LossyProxy(Integer.parseInt(args[0]), InetAddress.getByName(args[1]),
+        Integer.parseInt(args[2]), loss, reorder, duplicate, System.nanoTime());
+    System.out.println("Proxy on port " + proxy.getPort() + " dropping " + loss + "%, reordering " + reorder
+        + "%, duplicating " + duplicate + "%");
+    while (true) {
+      Thread.sleep(10000);
+      System.out.println(proxy.forwarded.get() + " forwarded, " + proxy.dropped.get() + " dropped, "
+          + proxy.reordered.get() + " delayed");
+    }
+  }
+}
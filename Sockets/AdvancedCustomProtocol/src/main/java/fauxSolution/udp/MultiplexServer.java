@@ -0,0 +1,190 @@
+package fauxSolution.udp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/*
+ * Same protocol as Server, for many clients at once. One thread reads the
+ * socket and only puts packets together: every (sender address, port,
+ * message id) has its own reassembly state in a Reassembler, so packets of
+ * different clients never mix, and a message that stops getting packets is
+ * dropped after EXPIRY. Each complete request is handed to a pool of worker
+ * threads, which build the response (an image takes milliseconds) and send
+ * it back, while the reader keeps receiving.
+ *
+ * The work queue is bounded. When it is full new requests are dropped, as
+ * the network would drop them; the client has to ask again.
+ *
+ * gradle UDPMultiplexServer --args '9000 8'
+ * [port] [workers]
+ */
+public class MultiplexServer implements AutoCloseable {
+  private static final long EXPIRY = 5000;
+  private static final int QUEUE = 1024;
+  private static final int SOCKET_BUFFER = 4 << 20;
+
+  private final DatagramChannel channel;
+  private final Selector selector;
+  private final Reassembler reassembler = new Reassembler();
+  private final ThreadPoolExecutor workers;
+  private final int packetSize;
+  private final ThreadLocal<ByteBuffer> out;
+  private volatile boolean running = true;
+
+  final AtomicLong requests = new AtomicLong();
+  final AtomicLong shed = new AtomicLong();
+
+  public MultiplexServer(int port, int threads) throws IOException {
+    this(port, threads, NetworkUtils.getPacketSize());
+  }
+
+  public MultiplexServer(int port, int threads, int packetSize) throws IOException {
+    this.packetSize = packetSize;
+    out = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(this.packetSize));
+    channel = DatagramChannel.open();
+    channel.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFFER);
+    channel.setOption(StandardSocketOptions.SO_SNDBUF, SOCKET_BUFFER);
+    channel.bind(new InetSocketAddress(port));
+    channel.configureBlocking(false);
+    selector = Selector.open();
+    channel.register(selector, SelectionKey.OP_READ);
+    AtomicInteger n = new AtomicInteger();
+    workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE),
+        r -> {
+          Thread t = new Thread(r, "udp-worker-" + n.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        });
+  }
+
+  public int getPort() throws IOException {
+    return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+  }
+
+  // reads and reassembles packets until close() is called
+  public void serve() throws IOException {
+    System.out.println("Server ready on port " + getPort() + " with " + workers.getCorePoolSize() + " workers");
+    ByteBuffer in = ByteBuffer.allocateDirect(NetworkUtils.MAX_DATAGRAM);
+    long lastExpiry = System.currentTimeMillis();
+    try {
+      while (running) {
+        selector.select(1000);
+        selector.selectedKeys().clear();
+        long now = System.currentTimeMillis();
+        while (running) {
+          in.clear();
+          InetSocketAddress from = (InetSocketAddress) channel.receive(in);
+          if (from == null) {
+            break; // everything queued has been read
+          }
+          in.flip();
+          NetworkUtils.Tuple message = reassembler.add(from, in, now);
+          if (message != null) {
+            dispatch(message);
+          }
+        }
+        if (now - lastExpiry >= 1000) {
+          reassembler.expire(now, EXPIRY);
+          lastExpiry = now;
+        }
+      }
+    } catch (IOException | ClosedSelectorException e) {
+      if (running) {
+        throw e instanceof IOException ? (IOException) e : new ClosedChannelException();
+      }
+    }
+  }
+
+  private void dispatch(NetworkUtils.Tuple message) {
+    requests.incrementAndGet();
+    try {
+      workers.execute(() -> handle(message));
+    } catch (RejectedExecutionException e) {
+      shed.incrementAndGet();
+    }
+  }
+
+  private void handle(NetworkUtils.Tuple request) {
+    JSONObject returnMessage;
+    try {
+      returnMessage = Server.respond(JsonUtils.fromByteArray(request.Payload));
+    } catch (JSONException e) {
+      returnMessage = Server.error("Invalid message received");
+    } catch (IOException e) {
+      returnMessage = Server.error("Unable to build response: " + e.getMessage());
+    }
+    try {
+      send(new InetSocketAddress(request.Address, request.Port), JsonUtils.toByteArray(returnMessage));
+    } catch (IOException e) {
+      if (running) {
+        System.out.println("Could not answer " + request.Address + ":" + request.Port + ": " + e.getMessage());
+      }
+    }
+  }
+
+  // the NetworkUtils packet format, from any worker thread; each has its own buffer
+  private void send(SocketAddress to, byte[] bytes) throws IOException {
+    ByteBuffer buffer = out.get();
+    int chunk = packetSize - NetworkUtils.HEADER;
+    int total = Math.max(1, (bytes.length + chunk - 1) / chunk);
+    int messageId = NetworkUtils.nextMessageId();
+    for (int current = 0; current < total; current++) {
+      int offset = current * chunk;
+      buffer.clear();
+      buffer.putInt(messageId).putInt(total).putInt(current).putInt(offset).putInt(bytes.length);
+      buffer.put(bytes, offset, Math.min(chunk, bytes.length - offset));
+      buffer.flip();
+      while (channel.send(buffer, to) == 0) {
+        Thread.yield(); // send buffer full
+      }
+    }
+  }
+
+  // stops reading, lets the workers finish what they have
+  @Override
+  public void close() throws IOException {
+    running = false;
+    selector.wakeup();
+    workers.shutdown();
+    try {
+      workers.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    selector.close();
+    channel.close();
+  }
+
+  public static void main(String[] args) throws IOException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 9000;
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    MultiplexServer server = new MultiplexServer(port, threads);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        server.close();
+      } catch (IOException e) {
+        // exiting anyway
+      }
+      System.out.println(server.requests.get() + " requests, " + server.shed.get() + " dropped while busy, "
+          + server.reassembler.dropped() + " bad or expired packets");
+    }));
+    server.serve();
+  }
+}
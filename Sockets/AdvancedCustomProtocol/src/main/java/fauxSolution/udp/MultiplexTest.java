@@ -0,0 +1,114 @@
+package fauxSolution.udp;
+
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+
+/*
+ * Many clients asking MultiplexServer for images at the same time. Every
+ * client sends an image request and a joke request back to back (two
+ * messages of one sender in flight together), waits for both answers and
+ * checks them: the joke must be the joke and the image must decode to a png.
+ * A request without an answer within two seconds counts as lost. Run from
+ * the project directory so img/ is found.
+ *
+ * gradle UDPMultiplexTest --args '32 20 8'
+ * <clients> <rounds> <workers>
+ */
+public class MultiplexTest {
+  private static final byte[] PNG = { (byte) 0x89, 'P', 'N', 'G' };
+
+  public static void main(String[] args) throws Exception {
+    int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    int workers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+    MultiplexServer server = new MultiplexServer(0, workers);
+    int port = server.getPort();
+    Thread reader = new Thread(() -> {
+      try {
+        server.serve();
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    });
+    reader.setDaemon(true);
+    reader.start();
+
+    InetAddress localhost = InetAddress.getLoopbackAddress();
+    JSONObject image = new JSONObject().put("selected", 3);
+    JSONObject joke = new JSONObject().put("selected", 1);
+    String expectedJoke = Server.joke().getString("data");
+    AtomicInteger wrong = new AtomicInteger();
+    AtomicInteger lost = new AtomicInteger();
+    AtomicInteger answered = new AtomicInteger();
+
+    Thread[] threads = new Thread[clients];
+    long start = System.nanoTime();
+    for (int c = 0; c < clients; c++) {
+      threads[c] = new Thread(() -> {
+        try (DatagramSocket sock = new DatagramSocket()) {
+          sock.setReceiveBufferSize(1 << 20);
+          sock.setSoTimeout(2000);
+          for (int r = 0; r < rounds; r++) {
+            NetworkUtils.Send(sock, localhost, port, JsonUtils.toByteArray(image));
+            NetworkUtils.Send(sock, localhost, port, JsonUtils.toByteArray(joke));
+            Set<String> types = new HashSet<>();
+            for (int i = 0; i < 2; i++) {
+              JSONObject response;
+              try {
+                response = JsonUtils.fromByteArray(NetworkUtils.Receive(sock).Payload);
+              } catch (SocketTimeoutException e) {
+                lost.incrementAndGet();
+                continue;
+              }
+              answered.incrementAndGet();
+              String type = response.optString("type");
+              types.add(type);
+              if (type.equals("joke") && !response.getString("data").equals(expectedJoke)) {
+                wrong.incrementAndGet();
+              } else if (type.equals("image")) {
+                byte[] png = Base64.getDecoder().decode(response.getString("data"));
+                for (int b = 0; b < PNG.length; b++) {
+                  if (png[b] != PNG[b]) {
+                    wrong.incrementAndGet();
+                    break;
+                  }
+                }
+              } else if (!type.equals("joke")) {
+                wrong.incrementAndGet();
+              }
+            }
+            if (types.size() != 2 && lost.get() == 0) {
+              wrong.incrementAndGet(); // the same answer twice
+            }
+          }
+        } catch (Exception e) {
+          System.out.println("client failed: " + e);
+          wrong.incrementAndGet();
+        }
+      });
+      threads[c].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    server.close();
+
+    System.out.printf("%d clients x %d rounds with %d workers: %d answers in %.2f s (%.0f/s), %d lost, %d wrong%n",
+        clients, rounds, workers, answered.get(), seconds, answered.get() / seconds, lost.get(), wrong.get());
+    System.out.println("server: " + server.requests.get() + " requests, " + server.shed.get() + " dropped while busy");
+    if (wrong.get() > 0) {
+      System.out.println("FAILED");
+      System.exit(1);
+    }
+    System.out.println("OK");
+  }
+}
@@ -4,7 +4,12 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class NetworkUtils {
   // https://mkyong.com/java/java-convert-byte-to-int-and-vice-versa/
@@ -18,78 +23,62 @@ public class NetworkUtils {
     return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | ((bytes[3] & 0xFF) << 0);
   }
 
-  /* packet (1024 max)
+  /* packet (getPacketSize() bytes max)
    * [ 
+   *   messageId(4-byte int), -- the same for all packets of a message
    *   totalPackets(4-byte int), 
    *   currentPacket#(4-byte int), 
-   *   payloadLength(4-byte int),
-   *   payload(byte[])
+   *   offset(4-byte int), -- where the payload goes in the message
+   *   messageLength(4-byte int), -- length of the whole message
+   *   payload(byte[]) -- the rest of the datagram
    * ]
    */
-  public static void Send(DatagramSocket sock, InetAddress addr, int port, byte... bytes) throws IOException {
-    int maxBufferLength = 1024 - 12;
-    int packetsTotal = bytes.length / maxBufferLength + 1;
-    
-    int offset = 0;
-    int packetNum = 0;
-    while (offset < bytes.length) {
-      int bytesLeftToSend = bytes.length - offset;
-      int length = Math.min(maxBufferLength, bytesLeftToSend);
-      
-      byte[] totalBytes = NetworkUtils.intToBytes(packetsTotal);
-      byte[] currentBytes = NetworkUtils.intToBytes(packetNum);
-      byte[] lengthBytes = NetworkUtils.intToBytes(length);
-     
-      byte[] buffer = new byte[12 + length];
-      System.arraycopy(totalBytes, 0, buffer, 0, 4);
-      System.arraycopy(currentBytes, 0, buffer, 4, 4);
-      System.arraycopy(lengthBytes, 0, buffer, 8, 4);
-      System.arraycopy(bytes, offset, buffer, 12, length);
-      
-      DatagramPacket packet = new DatagramPacket(buffer, buffer.length, addr, port);
-      sock.send(packet);
-      
-      packetNum++;
-      offset += length;
+  public static final int HEADER = 20;
+  public static final int MAX_DATAGRAM = 65507; // UDP over IPv4
+  public static final int MAX_MESSAGE = 64 << 20;
+
+  // 1500 byte Ethernet MTU minus IPv4 and UDP headers, so packets are never fragmented
+  private static volatile int packetSize = 1472;
+  private static final AtomicInteger nextMessageId = new AtomicInteger(new Random().nextInt());
+  private static final Map<DatagramSocket, ReceiveState> receivers = Collections
+      .synchronizedMap(new WeakHashMap<DatagramSocket, ReceiveState>());
+
+  // datagram size for Send, up to 65507 (useful on loopback, where the MTU is 64KB)
+  public static void setPacketSize(int size) {
+    if (size <= HEADER || size > MAX_DATAGRAM) {
+      throw new IllegalArgumentException("packet size must be between " + (HEADER + 1) + " and " + MAX_DATAGRAM);
     }
+    packetSize = size;
   }
 
-  static class Packet {
-    /* packet (1024 max)
-     * [ 
-     *   totalPackets(4-byte int), 
-     *   currentPacket#(4-byte int), 
-     *   payloadLength(4-byte int),
-     *   payload(byte[])
-     * ]
-     */
-    public final DatagramPacket Packet;
-    public final int Total;
-    public final int Current;
-    public final int Length;
-    public final byte[] Payload;
-    
-    public Packet(DatagramPacket packet) {
-      Packet = packet;
-      
-      byte[] totalBytes = new byte[4];
-      System.arraycopy(packet.getData(), 0, totalBytes, 0, 4);
-      Total = NetworkUtils.bytesToInt(totalBytes);
-      
-      byte[] currentBytes = new byte[4];
-      System.arraycopy(packet.getData(), 4, currentBytes, 0, 4);
-      Current = NetworkUtils.bytesToInt(currentBytes);
-      
-      byte[] lengthBytes = new byte[4];
-      System.arraycopy(packet.getData(), 8, lengthBytes, 0, 4);
-      Length = NetworkUtils.bytesToInt(lengthBytes);
-      
-      int payloadLength = packet.getLength() - 12;
-      Payload = new byte[payloadLength];
-      System.arraycopy(packet.getData(), 12, Payload, 0, payloadLength);
+  public static int getPacketSize() {
+    return packetSize;
+  }
+
+  static int nextMessageId() {
+    return nextMessageId.getAndIncrement();
+  }
+
+  public static void Send(DatagramSocket sock, InetAddress addr, int port, byte... bytes) throws IOException {
+    int chunk = packetSize - HEADER;
+    int packetsTotal = Math.max(1, (bytes.length + chunk - 1) / chunk);
+    int messageId = nextMessageId();
+
+    // one buffer for all packets of the message, the header is rewritten in place
+    byte[] buffer = new byte[HEADER + Math.min(chunk, bytes.length)];
+    ByteBuffer header = ByteBuffer.wrap(buffer);
+    DatagramPacket packet = new DatagramPacket(buffer, buffer.length, addr, port);
+    for (int packetNum = 0; packetNum < packetsTotal; packetNum++) {
+      int offset = packetNum * chunk;
+      int length = Math.min(chunk, bytes.length - offset);
+      header.putInt(0, messageId).putInt(4, packetsTotal).putInt(8, packetNum).putInt(12, offset).putInt(16,
+          bytes.length);
+      System.arraycopy(bytes, offset, buffer, HEADER, length);
+      packet.setLength(HEADER + length);
+      sock.send(packet);
     }
   }
-  
+
   static class Tuple {
     public final InetAddress Address;
     public final int Port;
@@ -101,33 +90,31 @@ public class NetworkUtils {
       Payload = payload;
     }
   }
-  
-  private static Packet Read(DatagramSocket sock, int length) throws IOException {
-    byte[] buff = new byte[length];
-    DatagramPacket request = new DatagramPacket(buff, length);
-    sock.receive(request);
-    return new Packet(request);
+
+  // what Receive keeps per socket between calls
+  private static class ReceiveState {
+    final byte[] buffer = new byte[MAX_DATAGRAM];
+    final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+    final Reassembler reassembler = new Reassembler();
   }
- 
-  // reading in all the packets and adding them to "packets"
-  // collecting packets as long as the size of the packets is smaller then the total ones we are supposed to receice
+
+  // reads packets until one message is complete; packets of other messages
+  // (another sender, or a message this one started earlier) are kept for the
+  // next call
   public static Tuple Receive(DatagramSocket sock) throws IOException {
-    ArrayList<Packet> packets = new ArrayList<Packet>();
-    do {
-      packets.add(Read(sock, 1024));
-    } while (packets.size() > 0 && packets.size() < packets.get(0).Total);
-    
-    packets.sort((p1, p2) -> p1.Current - p2.Current); // sorting the packages by package number
-    int totalBufferLength = packets.stream().mapToInt((p)->p.Length).sum(); // summing up how long the payload is
-    byte[] buffer = new byte[totalBufferLength]; // creating big enough buffer
-    int offset = 0;
-    
-    // interating through all packets, adding the paylod of each package to the buffer, make sure offset is used to not overwrite things
-    for(var p : packets) {
-      System.arraycopy(p.Payload, 0, buffer, offset, p.Length);
-      offset += p.Length;
+    ReceiveState state = receivers.computeIfAbsent(sock, s -> new ReceiveState());
+    synchronized (state) {
+      while (true) {
+        state.packet.setLength(state.buffer.length);
+        sock.receive(state.packet);
+        long now = System.currentTimeMillis();
+        Tuple done = state.reassembler.add(state.packet.getAddress(), state.packet.getPort(),
+            ByteBuffer.wrap(state.buffer, 0, state.packet.getLength()), now);
+        if (done != null) {
+          state.reassembler.expire(now, 30000);
+          return done;
+        }
+      }
     }
-    DatagramPacket first = packets.get(0).Packet;
-    return new Tuple(first.getAddress(), first.getPort(), buffer);
   }
 }
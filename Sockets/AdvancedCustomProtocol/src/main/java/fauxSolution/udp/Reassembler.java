@@ -0,0 +1,231 @@
+package fauxSolution.udp;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+
+/*
+ * Puts the packets of NetworkUtils messages back together. Each packet says
+ * where its payload goes (offset) and how long the whole message is. The
+ * message buffer is allocated when its first packet arrives and every
+ * payload is copied straight to its offset, in whatever order packets come,
+ * so nothing is sorted or copied twice. That length is charged to the
+ * sender address before anything is allocated, and the bytes held for
+ * unfinished messages are capped per sender address and in total; a message
+ * that does not fit is dropped, so a forged first packet claiming a huge
+ * message cannot exhaust memory.
+ *
+ * Senders cut a message into packets of one size (the last one shorter), so
+ * packet number n goes at n * chunk; packets that do not follow that layout
+ * are dropped, and a message is complete when every packet number arrived.
+ *
+ * Messages are kept apart by (address, port, message id), so packets of two
+ * senders, or of two messages of one sender, never end up in the same
+ * buffer. A message that stops receiving packets is dropped by expire().
+ * Not thread-safe.
+ */
+public class Reassembler {
+  // what an unfinished message costs beyond its buffer and packet bits
+  private static final int PARTIAL_OVERHEAD = 128;
+
+  private final Map<Flow, Partial> partial = new HashMap<>();
+  private final Map<InetAddress, Long> heldBy = new HashMap<>();
+  private final int maxMessage;
+  private final long maxPerSender;
+  private final long maxTotal;
+  private long held;
+  private long dropped;
+
+  // (address, port, message id) names one message of one sender
+  public static final class Flow {
+    public final InetAddress address;
+    public final int port;
+    public final int messageId;
+
+    public Flow(InetAddress address, int port, int messageId) {
+      this.address = address;
+      this.port = port;
+      this.messageId = messageId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Flow)) {
+        return false;
+      }
+      Flow f = (Flow) o;
+      return f.messageId == messageId && f.port == port && f.address.equals(address);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(address, port, messageId);
+    }
+  }
+
+  private static final class Partial {
+    final byte[] message;
+    final int total;
+    final int chunk; // payload of every packet but the last
+    final BitSet received; // by packet number
+    final long cost; // what is charged to the sender
+    int packets; // bits set in received
+    long lastPacket;
+
+    Partial(int length, int total, int chunk, long cost) {
+      this.message = new byte[length];
+      this.total = total;
+      this.chunk = chunk;
+      this.received = new BitSet(total);
+      this.cost = cost;
+    }
+  }
+
+  public Reassembler() {
+    this(NetworkUtils.MAX_MESSAGE);
+  }
+
+  // a sender may hold two messages of maxMessage, everybody together four
+  public Reassembler(int maxMessage) {
+    this(maxMessage, 2L * maxMessage, 4L * maxMessage);
+  }
+
+  public Reassembler(int maxMessage, long maxPerSender, long maxTotal) {
+    this.maxMessage = maxMessage;
+    this.maxPerSender = maxPerSender;
+    this.maxTotal = maxTotal;
+  }
+
+  /*
+   * Adds the packet between position and limit of packet, sent from
+   * address:port. Returns the whole message when this packet completed it,
+   * otherwise null. Malformed packets are counted and ignored.
+   */
+  public NetworkUtils.Tuple add(InetAddress address, int port, ByteBuffer packet, long now) {
+    int p = packet.position();
+    int payload = packet.remaining() - NetworkUtils.HEADER;
+    if (payload < 0) {
+      dropped++;
+      return null;
+    }
+    int messageId = packet.getInt(p);
+    int total = packet.getInt(p + 4);
+    int current = packet.getInt(p + 8);
+    int offset = packet.getInt(p + 12);
+    int length = packet.getInt(p + 16);
+    if (length < 0 || length > maxMessage || total <= 0 || total > length + 1 || current < 0 || current >= total
+        || offset < 0 || offset > length - payload) {
+      dropped++;
+      return null;
+    }
+    if (total == 1) {
+      // the common small message, no bookkeeping needed; it has to be all there
+      if (offset != 0 || payload != length) {
+        dropped++;
+        return null;
+      }
+      byte[] message = new byte[length];
+      packet.get(p + NetworkUtils.HEADER, message, 0, payload);
+      return new NetworkUtils.Tuple(address, port, message);
+    }
+    int chunk = chunk(total, current, offset, payload, length);
+    Flow flow = new Flow(address, port, messageId);
+    Partial m = partial.get(flow);
+    if (m == null) {
+      if (chunk <= 0) {
+        dropped++;
+        return null;
+      }
+      long cost = (long) length + total / 8 + PARTIAL_OVERHEAD;
+      long sender = heldBy.getOrDefault(address, 0L);
+      if (sender + cost > maxPerSender || held + cost > maxTotal) {
+        dropped++;
+        return null;
+      }
+      m = new Partial(length, total, chunk, cost);
+      partial.put(flow, m);
+      heldBy.put(address, sender + cost);
+      held += cost;
+    } else if (m.message.length != length || m.total != total || m.chunk != chunk) {
+      dropped++;
+      return null;
+    }
+    m.lastPacket = now;
+    if (m.received.get(current)) {
+      return null; // duplicate
+    }
+    packet.get(p + NetworkUtils.HEADER, m.message, offset, payload);
+    m.received.set(current);
+    if (++m.packets < total) {
+      return null;
+    }
+    partial.remove(flow);
+    release(address, m);
+    return new NetworkUtils.Tuple(address, port, m.message);
+  }
+
+  /*
+   * The packet size of the message if this packet fits the layout senders
+   * use (packet n at n * chunk, all of chunk bytes but the last, which ends
+   * the message), otherwise 0. Then the packets cover the message exactly.
+   */
+  private static int chunk(int total, int current, int offset, int payload, int length) {
+    boolean last = current == total - 1;
+    if (last ? offset % current != 0 || payload != length - offset : payload == 0) {
+      return 0;
+    }
+    int chunk = last ? offset / current : payload;
+    if (chunk <= 0 || (long) current * chunk != offset || (long) (total - 1) * chunk >= length
+        || (long) total * chunk < length) {
+      return 0;
+    }
+    return chunk;
+  }
+
+  private void release(InetAddress address, Partial m) {
+    held -= m.cost;
+    long left = heldBy.get(address) - m.cost;
+    if (left == 0) {
+      heldBy.remove(address);
+    } else {
+      heldBy.put(address, left);
+    }
+  }
+
+  public NetworkUtils.Tuple add(InetSocketAddress from, ByteBuffer packet, long now) {
+    return add(from.getAddress(), from.getPort(), packet, now);
+  }
+
+  // drops messages that got no packet for maxIdle milliseconds, returns how many
+  public int expire(long now, long maxIdle) {
+    int n = 0;
+    for (Iterator<Map.Entry<Flow, Partial>> it = partial.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<Flow, Partial> e = it.next();
+      if (now - e.getValue().lastPacket > maxIdle) {
+        release(e.getKey().address, e.getValue());
+        it.remove();
+        n++;
+      }
+    }
+    dropped += n;
+    return n;
+  }
+
+  public int pending() {
+    return partial.size();
+  }
+
+  // bytes held for unfinished messages
+  public long held() {
+    return held;
+  }
+
+  public long dropped() {
+    return dropped;
+  }
+}
@@ -0,0 +1,102 @@
+package fauxSolution.udp;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Checks ReliableUdp through a LossyProxy. An echo server and <clients>
+ * clients run in this JVM; every client sends <messages> messages of random
+ * size (up to a few hundred KB) through the proxy, at the same time as the
+ * others, and compares each echo with what it sent. Prints the time taken
+ * and the retransmissions, and exits with 1 if anything came back wrong.
+ *
+ * gradle UDPReliableTest --args '4 50 10 20 2'
+ * <clients> <messages> <loss%> <reorder%> <duplicate%>
+ */
+public class ReliableTest {
+
+  public static void main(String[] args) throws Exception {
+    int clients = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    int messages = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+    int loss = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    int reorder = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+    int duplicate = args.length > 4 ? Integer.parseInt(args[4]) : 2;
+    InetAddress localhost = InetAddress.getByName("localhost");
+
+    ReliableUdp server = new ReliableUdp(0);
+    Thread echo = new Thread(() -> {
+      try {
+        while (true) {
+          NetworkUtils.Tuple t = server.receive();
+          new Thread(() -> {
+            try {
+              server.send(t.Address, t.Port, t.Payload);
+            } catch (Exception e) {
+              System.out.println("echo failed: " + e.getMessage());
+            }
+          }).start();
+        }
+      } catch (Exception e) {
+        // closed
+      }
+    });
+    echo.setDaemon(true);
+    echo.start();
+    LossyProxy proxy = new LossyProxy(0, localhost, server.getLocalPort(), loss, reorder, duplicate, 42);
+
+    AtomicInteger failures = new AtomicInteger();
+    AtomicInteger bytes = new AtomicInteger();
+    ReliableUdp[] endpoints = new ReliableUdp[clients];
+    Thread[] threads = new Thread[clients];
+    long start = System.nanoTime();
+    for (int c = 0; c < clients; c++) {
+      ReliableUdp client = new ReliableUdp(0);
+      endpoints[c] = client;
+      int seed = c;
+      threads[c] = new Thread(() -> {
+        Random rand = new Random(seed);
+        try {
+          for (int i = 0; i < messages; i++) {
+            int size = rand.nextInt(4) == 0 ? rand.nextInt(300000) : rand.nextInt(3000);
+            byte[] sent = new byte[size];
+            rand.nextBytes(sent);
+            client.send(localhost, proxy.getPort(), sent);
+            NetworkUtils.Tuple back = client.receive();
+            if (!Arrays.equals(sent, back.Payload)) {
+              System.out.println("client " + seed + " message " + i + ": echo of " + size + " bytes differs");
+              failures.incrementAndGet();
+            }
+            bytes.addAndGet(2 * size);
+          }
+        } catch (Exception e) {
+          System.out.println("client " + seed + " failed: " + e);
+          failures.incrementAndGet();
+        }
+      });
+      threads[c].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    long retransmits = server.retransmits();
+    for (ReliableUdp e : endpoints) {
+      retransmits += e.retransmits();
+      e.close();
+    }
+    System.out.printf("%d clients x %d messages, %.1f MB in %.2f s through %d%% loss, %d%% reorder, %d%% duplicates%n",
+        clients, messages, bytes.get() / 1e6, seconds, loss, reorder, duplicate);
+    System.out.println("proxy: " + proxy.forwarded.get() + " forwarded, " + proxy.dropped.get() + " dropped, "
+        + proxy.reordered.get() + " delayed; " + retransmits + " retransmissions");
+    proxy.close();
+    server.close();
+    if (failures.get() > 0) {
+      System.out.println("FAILED: " + failures.get());
+      System.exit(1);
+    }
+    System.out.println("OK");
+  }
+}
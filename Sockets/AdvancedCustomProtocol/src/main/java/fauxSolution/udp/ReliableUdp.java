@@ -0,0 +1,508 @@
+package fauxSolution.udp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Reliable messages over UDP, the alternative to NetworkUtils.Send/Receive
+ * when packets can get lost, duplicated or reordered.
+ *
+ * Every message gets an id and is cut into numbered packets. The sender
+ * keeps up to WINDOW unacknowledged packets in flight and retransmits a
+ * packet when its timer runs out (the timeout follows the measured round
+ * trip time) or when the receiver reports it missing. The receiver
+ * reassembles per (address, port, message id), so packets of different
+ * senders and different messages never mix, and answers every packet with
+ * a selective acknowledgement. Both ends must use ReliableUdp.
+ * Payloads are kept as they arrive and put together when the message is
+ * complete, so a forged first packet costs no more than its own bytes;
+ * what unfinished messages hold is capped per peer address and in total.
+ *
+ * packets, all integers are 4-byte big endian
+ * DATA [ 1, messageId, packet#, totalPackets, offset, messageLength, payload ]
+ * ACK  [ 2, messageId, received (all packets below it arrived),
+ *        8-byte bitmap (bit i: packet received+1+i arrived) ]
+ * NACK [ 3, messageId, count, packet# ... ]  packets found missing
+ *
+ * A background thread reads the socket; send() blocks until the whole
+ * message is acknowledged, receive() returns the next complete message.
+ */
+public class ReliableUdp implements AutoCloseable {
+  static final byte DATA = 1;
+  static final byte ACK = 2;
+  static final byte NACK = 3;
+  static final int DATA_HEADER = 21;
+
+  public static final int WINDOW = 32;
+  private static final int MAX_RETRIES = 12;
+  private static final long MIN_RTO = 5, MAX_RTO = 2000; // milliseconds
+  private static final long FLOW_EXPIRY = 30000; // drop idle reassembly state
+  private static final long MAX_HELD_PER_PEER = 2L * NetworkUtils.MAX_MESSAGE;
+  private static final long MAX_HELD = 4L * NetworkUtils.MAX_MESSAGE;
+  private static final int CHUNK_OVERHEAD = 64; // a kept payload beyond its bytes
+
+  private final DatagramSocket sock;
+  private final int packetSize;
+  private final Thread reader;
+  private final AtomicInteger nextMessageId = new AtomicInteger(ThreadLocalRandom.current().nextInt());
+  private final Map<Flow, Outgoing> outgoing = new ConcurrentHashMap<>();
+  private final Map<Flow, Incoming> incoming = new ConcurrentHashMap<>();
+  private final Map<Flow, Long> completed = new ConcurrentHashMap<>(); // delivered, re-acked if sent again
+  private final LinkedBlockingQueue<NetworkUtils.Tuple> delivered = new LinkedBlockingQueue<>();
+  private volatile IOException failure;
+  private long lastSweep = System.currentTimeMillis();
+  // bytes held by unfinished messages, only touched by the reader thread
+  private final Map<InetAddress, Long> heldBy = new HashMap<>();
+  private long held;
+
+  // round trip estimate in nanoseconds, as TCP does it (RFC 6298)
+  private double srtt = -1;
+  private double rttvar;
+
+  final AtomicLong retransmits = new AtomicLong();
+  final AtomicLong duplicates = new AtomicLong();
+
+  // (address, port, message id) names one message of one sender
+  static final class Flow {
+    final InetAddress address;
+    final int port;
+    final int messageId;
+
+    Flow(InetAddress address, int port, int messageId) {
+      this.address = address;
+      this.port = port;
+      this.messageId = messageId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Flow)) {
+        return false;
+      }
+      Flow f = (Flow) o;
+      return f.messageId == messageId && f.port == port && f.address.equals(address);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(address, port, messageId);
+    }
+  }
+
+  private static final class Outgoing {
+    final byte[] bytes;
+    final int total;
+    final boolean[] acked;
+    final long[] sentAt; // nanos of the last transmission
+    final int[] tries;
+    int base; // lowest packet not acked
+    int next; // lowest packet never sent
+
+    Outgoing(byte[] bytes, int total) {
+      this.bytes = bytes;
+      this.total = total;
+      acked = new boolean[total];
+      sentAt = new long[total];
+      tries = new int[total];
+    }
+  }
+
+  private static final class Incoming {
+    final int length;
+    final int total;
+    final Map<Integer, byte[]> payloads = new HashMap<>(); // by packet number
+    final Map<Integer, Integer> offsets = new HashMap<>();
+    int received; // packets 0..received-1 all arrived
+    int highest = -1;
+    long bytes; // payload bytes arrived
+    long held; // what is charged to the peer
+    long lastActivity = System.currentTimeMillis();
+
+    Incoming(int length, int total) {
+      this.length = length;
+      this.total = total;
+    }
+
+    boolean arrived(int seq) {
+      return payloads.containsKey(seq);
+    }
+
+    byte[] message() {
+      byte[] message = new byte[length];
+      for (Map.Entry<Integer, byte[]> e : payloads.entrySet()) {
+        byte[] b = e.getValue();
+        System.arraycopy(b, 0, message, offsets.get(e.getKey()), b.length);
+      }
+      return message;
+    }
+  }
+
+  // packetSize is the datagram size including the header, up to 65507
+  public ReliableUdp(DatagramSocket sock, int packetSize) {
+    if (packetSize <= DATA_HEADER || packetSize > NetworkUtils.MAX_DATAGRAM) {
+      throw new IllegalArgumentException("packet size must be between " + (DATA_HEADER + 1) + " and "
+          + NetworkUtils.MAX_DATAGRAM);
+    }
+    this.sock = sock;
+    this.packetSize = packetSize;
+    reader = new Thread(this::readLoop, "reliable-udp-reader");
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  public ReliableUdp(DatagramSocket sock) {
+    this(sock, NetworkUtils.getPacketSize());
+  }
+
+  public ReliableUdp(int port) throws SocketException {
+    this(new DatagramSocket(port));
+  }
+
+  public ReliableUdp(int port, int packetSize) throws SocketException {
+    this(new DatagramSocket(port), packetSize);
+  }
+
+  public int getLocalPort() {
+    return sock.getLocalPort();
+  }
+
+  public long retransmits() {
+    return retransmits.get();
+  }
+
+  // payload bytes per packet
+  private int chunk() {
+    return packetSize - DATA_HEADER;
+  }
+
+  // sends bytes as one message and waits until the peer has all of it
+  public void send(InetAddress addr, int port, byte[] bytes) throws IOException {
+    int total = Math.max(1, (bytes.length + chunk() - 1) / chunk());
+    Flow flow = new Flow(addr, port, nextMessageId.getAndIncrement());
+    Outgoing out = new Outgoing(bytes, total);
+    outgoing.put(flow, out);
+    try {
+      synchronized (out) {
+        while (out.base < total) {
+          checkOpen();
+          while (out.next < total && out.next < out.base + WINDOW) {
+            transmit(flow, out, out.next++);
+          }
+          long now = System.nanoTime();
+          long rto = rtoNanos();
+          long wake = Long.MAX_VALUE;
+          for (int seq = out.base; seq < out.next; seq++) {
+            if (out.acked[seq]) {
+              continue;
+            }
+            long due = out.sentAt[seq] + (rto << Math.min(out.tries[seq] - 1, 6)); // back off
+            if (due <= now) {
+              if (out.tries[seq] > MAX_RETRIES) {
+                throw new IOException("no acknowledgement from " + addr + ":" + port + " for packet " + seq);
+              }
+              transmit(flow, out, seq);
+              retransmits.incrementAndGet();
+              due = now + (rto << Math.min(out.tries[seq] - 1, 6));
+            }
+            wake = Math.min(wake, due);
+          }
+          if (out.base < total && wake > now) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(wake - now);
+            out.wait(Math.max(1, millis));
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while sending");
+    } finally {
+      outgoing.remove(flow);
+    }
+  }
+
+  private void transmit(Flow flow, Outgoing out, int seq) throws IOException {
+    int off = seq * chunk();
+    int len = Math.max(0, Math.min(chunk(), out.bytes.length - off));
+    byte[] buffer = new byte[DATA_HEADER + len];
+    ByteBuffer.wrap(buffer).put(DATA).putInt(flow.messageId).putInt(seq).putInt(out.total).putInt(off)
+        .putInt(out.bytes.length).put(out.bytes, off, len);
+    sock.send(new DatagramPacket(buffer, buffer.length, flow.address, flow.port));
+    out.sentAt[seq] = System.nanoTime();
+    out.tries[seq]++;
+  }
+
+  private synchronized long rtoNanos() {
+    if (srtt < 0) {
+      return TimeUnit.MILLISECONDS.toNanos(50);
+    }
+    long rto = (long) (srtt + 4 * rttvar);
+    return Math.max(TimeUnit.MILLISECONDS.toNanos(MIN_RTO), Math.min(rto, TimeUnit.MILLISECONDS.toNanos(MAX_RTO)));
+  }
+
+  private synchronized void sampleRtt(long nanos) {
+    if (srtt < 0) {
+      srtt = nanos;
+      rttvar = nanos / 2.0;
+    } else {
+      rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - nanos);
+      srtt = 0.875 * srtt + 0.125 * nanos;
+    }
+  }
+
+  // the next complete message from any sender
+  public NetworkUtils.Tuple receive() throws IOException {
+    try {
+      NetworkUtils.Tuple t;
+      while ((t = delivered.poll(100, TimeUnit.MILLISECONDS)) == null) {
+        checkOpen();
+      }
+      return t;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while receiving");
+    }
+  }
+
+  private void checkOpen() throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void readLoop() {
+    byte[] buff = new byte[65535];
+    DatagramPacket packet = new DatagramPacket(buff, buff.length);
+    try {
+      sock.setSoTimeout(1000);
+    } catch (SocketException e) {
+      // sweeps only happen when packets arrive then
+    }
+    while (!sock.isClosed()) {
+      try {
+        packet.setLength(buff.length);
+        sock.receive(packet);
+        ByteBuffer b = ByteBuffer.wrap(buff, 0, packet.getLength());
+        if (b.remaining() < 5) {
+          continue;
+        }
+        byte type = b.get();
+        Flow flow = new Flow(packet.getAddress(), packet.getPort(), b.getInt());
+        if (type == DATA && b.remaining() >= 16) {
+          onData(flow, b.getInt(), b.getInt(), b.getInt(), b.getInt(), b);
+        } else if (type == ACK && b.remaining() >= 12) {
+          onAck(flow, b.getInt(), b.getLong());
+        } else if (type == NACK && b.remaining() >= 4) {
+          onNack(flow, b);
+        }
+      } catch (java.net.SocketTimeoutException e) {
+        // fall through to the sweep
+      } catch (IOException e) {
+        if (!sock.isClosed()) {
+          failure = e;
+        }
+        break;
+      }
+      sweep();
+    }
+    if (failure == null) {
+      failure = new SocketException("closed");
+    }
+  }
+
+  private void onData(Flow flow, int seq, int total, int offset, int length, ByteBuffer payload)
+      throws IOException {
+    if (total <= 0 || seq < 0 || seq >= total || length < 0 || length > NetworkUtils.MAX_MESSAGE
+        || total > length + 1 || offset < 0 || offset > length - payload.remaining()) {
+      return;
+    }
+    if (completed.containsKey(flow)) {
+      duplicates.incrementAndGet();
+      sendAck(flow, total, 0); // our last ack got lost
+      return;
+    }
+    Incoming in = incoming.get(flow);
+    if (in == null) {
+      in = new Incoming(length, total);
+    } else if (in.total != total || in.length != length) {
+      return;
+    }
+    NetworkUtils.Tuple done = null;
+    int received;
+    long bits;
+    synchronized (in) {
+      in.lastActivity = System.currentTimeMillis();
+      if (in.arrived(seq)) {
+        duplicates.incrementAndGet();
+      } else {
+        int size = payload.remaining();
+        long cost = size + CHUNK_OVERHEAD;
+        long peer = heldBy.getOrDefault(flow.address, 0L);
+        if (in.bytes + size > length || peer + cost > MAX_HELD_PER_PEER || held + cost > MAX_HELD) {
+          return; // not acknowledged, the sender tries again later
+        }
+        if (in.payloads.isEmpty()) {
+          incoming.put(flow, in);
+        }
+        byte[] bytes = new byte[size];
+        payload.get(bytes);
+        in.payloads.put(seq, bytes);
+        in.offsets.put(seq, offset);
+        in.bytes += size;
+        in.held += cost;
+        heldBy.put(flow.address, peer + cost);
+        held += cost;
+        if (seq > in.highest + 1) {
+          // everything between the last packet seen and this one is missing
+          sendNack(flow, in, in.highest + 1, seq);
+        }
+        in.highest = Math.max(in.highest, seq);
+        while (in.received < total && in.arrived(in.received)) {
+          in.received++;
+        }
+        if (in.payloads.size() == total) {
+          incoming.remove(flow);
+          release(flow.address, in);
+          if (in.bytes != length) {
+            return; // the packets left gaps, nothing to deliver
+          }
+          done = new NetworkUtils.Tuple(flow.address, flow.port, in.message());
+        }
+      }
+      received = in.received;
+      bits = 0;
+      for (int i = 0; i < 64 && received + 1 + i < total; i++) {
+        if (in.arrived(received + 1 + i)) {
+          bits |= 1L << i;
+        }
+      }
+    }
+    if (done != null) {
+      completed.put(flow, System.currentTimeMillis());
+      delivered.add(done);
+    }
+    sendAck(flow, received, bits);
+  }
+
+  private void release(InetAddress address, Incoming in) {
+    held -= in.held;
+    long left = heldBy.get(address) - in.held;
+    if (left == 0) {
+      heldBy.remove(address);
+    } else {
+      heldBy.put(address, left);
+    }
+  }
+
+  private void sendAck(Flow flow, int received, long bits) throws IOException {
+    byte[] buffer = new byte[17];
+    ByteBuffer.wrap(buffer).put(ACK).putInt(flow.messageId).putInt(received).putLong(bits);
+    sock.send(new DatagramPacket(buffer, buffer.length, flow.address, flow.port));
+  }
+
+  private void sendNack(Flow flow, Incoming in, int from, int to) throws IOException {
+    int count = 0;
+    int[] missing = new int[Math.min(to - from, 64)];
+    for (int s = from; s < to && count < missing.length; s++) {
+      if (!in.arrived(s)) {
+        missing[count++] = s;
+      }
+    }
+    if (count == 0) {
+      return;
+    }
+    ByteBuffer b = ByteBuffer.allocate(9 + 4 * count);
+    b.put(NACK).putInt(flow.messageId).putInt(count);
+    for (int i = 0; i < count; i++) {
+      b.putInt(missing[i]);
+    }
+    sock.send(new DatagramPacket(b.array(), b.capacity(), flow.address, flow.port));
+  }
+
+  private void onAck(Flow flow, int received, long bits) {
+    Outgoing out = outgoing.get(flow);
+    if (out == null) {
+      return;
+    }
+    synchronized (out) {
+      long now = System.nanoTime();
+      for (int seq = out.base; seq < Math.min(received, out.next); seq++) {
+        markAcked(out, seq, now);
+      }
+      for (int i = 0; i < 64; i++) {
+        int seq = received + 1 + i;
+        if ((bits & (1L << i)) != 0 && seq < out.next) {
+          markAcked(out, seq, now);
+        }
+      }
+      while (out.base < out.total && out.acked[out.base]) {
+        out.base++;
+      }
+      out.notifyAll();
+    }
+  }
+
+  private void markAcked(Outgoing out, int seq, long now) {
+    if (!out.acked[seq]) {
+      out.acked[seq] = true;
+      if (out.tries[seq] == 1) {
+        sampleRtt(now - out.sentAt[seq]); // only unambiguous samples (Karn)
+      }
+    }
+  }
+
+  private void onNack(Flow flow, ByteBuffer b) throws IOException {
+    Outgoing out = outgoing.get(flow);
+    if (out == null) {
+      return;
+    }
+    int count = b.getInt();
+    synchronized (out) {
+      long now = System.nanoTime();
+      long guard = rtoNanos() / 4; // do not resend what just went out again
+      for (int i = 0; i < count && b.remaining() >= 4; i++) {
+        int seq = b.getInt();
+        if (seq >= 0 && seq < out.next && !out.acked[seq] && now - out.sentAt[seq] > guard) {
+          transmit(flow, out, seq);
+          retransmits.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  // forgets reassembly state of senders that went away
+  private void sweep() {
+    long now = System.currentTimeMillis();
+    if (now - lastSweep < 1000) {
+      return;
+    }
+    lastSweep = now;
+    for (Iterator<Map.Entry<Flow, Incoming>> it = incoming.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<Flow, Incoming> e = it.next();
+      if (now - e.getValue().lastActivity > FLOW_EXPIRY) {
+        release(e.getKey().address, e.getValue());
+        it.remove();
+      }
+    }
+    completed.values().removeIf(t -> now - t > FLOW_EXPIRY);
+  }
+
+  @Override
+  public void close() {
+    sock.close();
+  }
+}
@@ -86,45 +86,57 @@ public class Server {
     return json;
   }
 
+  public static JSONObject respond(JSONObject message) throws IOException {
+    JSONObject returnMessage;
+    if (message.has("selected")) {
+      if (message.get("selected") instanceof Long || message.get("selected") instanceof Integer) {
+        int choice = message.getInt("selected");
+        switch (choice) {
+        case (1):
+          returnMessage = joke();
+          break;
+        case (2):
+          returnMessage = quote();
+          break;
+        case (3):
+          returnMessage = image();
+          break;
+        case (4):
+          returnMessage = random();
+          break;
+        default:
+          returnMessage = error("Invalid selection: " + choice + " is not an option");
+        }
+      } else {
+        returnMessage = error("Selection must be an integer");
+      }
+    } else {
+      returnMessage = error("Invalid message received");
+    }
+    return returnMessage;
+  }
+
+  // with the argument "reliable" messages go through ReliableUdp
   public static void main(String[] args) throws IOException {
     DatagramSocket sock = null;
+    boolean reliable = args.length > 0 && args[0].equals("reliable");
     try {
       sock = new DatagramSocket(9000);
+      ReliableUdp channel = reliable ? new ReliableUdp(sock) : null;
       // NOTE: SINGLE-THREADED, only one connection at a time
       while (true) {
         try {
           while (true) {
-            NetworkUtils.Tuple messageTuple = NetworkUtils.Receive(sock);
+            NetworkUtils.Tuple messageTuple = reliable ? channel.receive() : NetworkUtils.Receive(sock);
             JSONObject message = JsonUtils.fromByteArray(messageTuple.Payload);
-            JSONObject returnMessage;
-            if (message.has("selected")) {
-              if (message.get("selected") instanceof Long || message.get("selected") instanceof Integer) {
-                int choice = message.getInt("selected");
-                switch (choice) {
-                case (1):
-                  returnMessage = joke();
-                  break;
-                case (2):
-                  returnMessage = quote();
-                  break;
-                case (3):
-                  returnMessage = image();
-                  break;
-                case (4):
-                  returnMessage = random();
-                  break;
-                default:
-                  returnMessage = error("Invalid selection: " + choice + " is not an option");
-                }
-              } else {
-                returnMessage = error("Selection must be an integer");
-              }
-            } else {
-              returnMessage = error("Invalid message received");
-            }
+            JSONObject returnMessage = respond(message);
 
             byte[] output = JsonUtils.toByteArray(returnMessage);
-            NetworkUtils.Send(sock, messageTuple.Address, messageTuple.Port, output);
+            if (reliable) {
+              channel.send(messageTuple.Address, messageTuple.Port, output);
+            } else {
+              NetworkUtils.Send(sock, messageTuple.Address, messageTuple.Port, output);
+            }
           }
         } catch (IOException e) {
           e.printStackTrace();
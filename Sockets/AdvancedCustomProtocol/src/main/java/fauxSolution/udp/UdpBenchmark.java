@@ -0,0 +1,144 @@
+package fauxSolution.udp;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+
+/*
+ * Messages per second for request/response over loopback, for a small
+ * message (a joke), an image sized one and a large one, at several packet
+ * sizes. Compares NetworkUtils on a DatagramSocket with UdpTransport on a
+ * DatagramChannel. An echo server runs in this JVM; the client sends one
+ * message, waits for the echo, and repeats for <seconds> per combination.
+ * A message whose echo does not come back within a second counts as lost
+ * (plain UDP does not retransmit).
+ *
+ * gradle UDPBenchmark --args '2'
+ */
+public class UdpBenchmark {
+  private static final int[] PAYLOADS = { 100, 15000, 300000 };
+  private static final int[] PACKET_SIZES = { 1024, 1472, 9000, NetworkUtils.MAX_DATAGRAM };
+  private static final int SOCKET_BUFFER = 4 << 20;
+
+  private interface Endpoint extends AutoCloseable {
+    void send(byte[] bytes) throws IOException;
+
+    byte[] receive() throws IOException; // null when lost
+
+    @Override
+    void close() throws IOException;
+  }
+
+  private static Endpoint socketEndpoint(int packetSize) throws IOException {
+    NetworkUtils.setPacketSize(packetSize);
+    DatagramSocket server = new DatagramSocket(0);
+    server.setReceiveBufferSize(SOCKET_BUFFER);
+    Thread echo = new Thread(() -> {
+      try {
+        while (true) {
+          NetworkUtils.Tuple t = NetworkUtils.Receive(server);
+          NetworkUtils.Send(server, t.Address, t.Port, t.Payload);
+        }
+      } catch (IOException e) {
+        // closed
+      }
+    });
+    echo.setDaemon(true);
+    echo.start();
+    DatagramSocket client = new DatagramSocket(0);
+    client.setReceiveBufferSize(SOCKET_BUFFER);
+    client.setSoTimeout(1000);
+    InetAddress localhost = InetAddress.getLoopbackAddress();
+    return new Endpoint() {
+      public void send(byte[] bytes) throws IOException {
+        NetworkUtils.Send(client, localhost, server.getLocalPort(), bytes);
+      }
+
+      public byte[] receive() throws IOException {
+        try {
+          return NetworkUtils.Receive(client).Payload;
+        } catch (SocketTimeoutException e) {
+          return null;
+        }
+      }
+
+      public void close() {
+        client.close();
+        server.close();
+      }
+    };
+  }
+
+  private static Endpoint channelEndpoint(int packetSize) throws IOException {
+    UdpTransport server = new UdpTransport(0, packetSize);
+    Thread echo = new Thread(() -> {
+      try {
+        while (true) {
+          NetworkUtils.Tuple t = server.receive();
+          server.send(new InetSocketAddress(t.Address, t.Port), t.Payload);
+        }
+      } catch (IOException e) {
+        // closed
+      }
+    });
+    echo.setDaemon(true);
+    echo.start();
+    UdpTransport client = new UdpTransport(0, packetSize);
+    InetSocketAddress to = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+    return new Endpoint() {
+      public void send(byte[] bytes) throws IOException {
+        client.send(to, bytes);
+      }
+
+      public byte[] receive() throws IOException {
+        NetworkUtils.Tuple t = client.receive(1000);
+        return t == null ? null : t.Payload;
+      }
+
+      public void close() throws IOException {
+        client.close();
+        server.close();
+      }
+    };
+  }
+
+  private static void measure(String label, Endpoint endpoint, int payload, int packetSize, double seconds)
+      throws IOException {
+    byte[] message = new byte[payload];
+    long end = System.nanoTime() + (long) (seconds * 0.2e9);
+    while (System.nanoTime() < end) {
+      endpoint.send(message); // warm up
+      endpoint.receive();
+    }
+    long start = System.nanoTime();
+    end = start + (long) (seconds * 1e9);
+    int done = 0, lost = 0;
+    while (System.nanoTime() < end) {
+      endpoint.send(message);
+      byte[] back = endpoint.receive();
+      if (back == null || back.length != payload) {
+        lost++;
+      } else {
+        done++;
+      }
+    }
+    double elapsed = (System.nanoTime() - start) / 1e9;
+    System.out.printf("%-14s %7d B %6d B/packet %10.0f msg/s %8.1f MB/s %5d lost%n", label, payload, packetSize,
+        done / elapsed, 2.0 * done * payload / elapsed / 1e6, lost);
+    endpoint.close();
+  }
+
+  public static void main(String[] args) throws Exception {
+    double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+    int defaultSize = NetworkUtils.getPacketSize();
+    for (int payload : PAYLOADS) {
+      for (int packetSize : PACKET_SIZES) {
+        measure("NetworkUtils", socketEndpoint(packetSize), payload, packetSize, seconds);
+        measure("UdpTransport", channelEndpoint(packetSize), payload, packetSize, seconds);
+      }
+    }
+    NetworkUtils.setPacketSize(defaultSize);
+  }
+}
@@ -0,0 +1,145 @@
+package fauxSolution.udp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+
+/*
+ * NetworkUtils packets (same header, same reassembly) over a DatagramChannel.
+ * Packets are built in and read from direct buffers, so the kernel copies
+ * straight from and to them, and headers are parsed with absolute gets in
+ * place. Every time the channel becomes readable all datagrams that are
+ * already queued are taken in one go before anything is handed out, which
+ * is as close to a batched receive as Java gets.
+ *
+ * Interoperates with NetworkUtils.Send/Receive on a DatagramSocket as long
+ * as packets fit the other side's receive buffer. Not thread-safe.
+ */
+public class UdpTransport implements AutoCloseable {
+  private static final int SOCKET_BUFFER = 4 << 20;
+  private static final long EXPIRY = 30000;
+
+  private final DatagramChannel channel;
+  private final Selector selector;
+  private final int packetSize;
+  private final ByteBuffer out;
+  private final ByteBuffer in = ByteBuffer.allocateDirect(NetworkUtils.MAX_DATAGRAM);
+  private final Reassembler reassembler = new Reassembler();
+  private final ArrayDeque<NetworkUtils.Tuple> ready = new ArrayDeque<>();
+  private long lastExpiry = System.currentTimeMillis();
+  private long datagrams;
+  private long batches;
+
+  public UdpTransport(int port, int packetSize) throws IOException {
+    if (packetSize <= NetworkUtils.HEADER || packetSize > NetworkUtils.MAX_DATAGRAM) {
+      throw new IllegalArgumentException("packet size must be between " + (NetworkUtils.HEADER + 1) + " and "
+          + NetworkUtils.MAX_DATAGRAM);
+    }
+    this.packetSize = packetSize;
+    out = ByteBuffer.allocateDirect(packetSize);
+    channel = DatagramChannel.open();
+    channel.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFFER);
+    channel.setOption(StandardSocketOptions.SO_SNDBUF, SOCKET_BUFFER);
+    channel.bind(new InetSocketAddress(port));
+    channel.configureBlocking(false);
+    selector = Selector.open();
+    channel.register(selector, SelectionKey.OP_READ);
+  }
+
+  public int getLocalPort() throws IOException {
+    return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+  }
+
+  public void send(SocketAddress to, byte[] bytes) throws IOException {
+    int chunk = packetSize - NetworkUtils.HEADER;
+    int total = Math.max(1, (bytes.length + chunk - 1) / chunk);
+    int messageId = NetworkUtils.nextMessageId();
+    for (int current = 0; current < total; current++) {
+      int offset = current * chunk;
+      int length = Math.min(chunk, bytes.length - offset);
+      out.clear();
+      out.putInt(messageId).putInt(total).putInt(current).putInt(offset).putInt(bytes.length);
+      out.put(bytes, offset, length);
+      out.flip();
+      while (channel.send(out, to) == 0) {
+        // send buffer full, wait until the channel can take the packet
+        selector.selectedKeys().clear();
+        channel.keyFor(selector).interestOps(SelectionKey.OP_WRITE);
+        selector.select(100);
+        channel.keyFor(selector).interestOps(SelectionKey.OP_READ);
+      }
+    }
+  }
+
+  // the next complete message, waiting at most timeoutMillis (0 waits forever);
+  // null on timeout
+  public NetworkUtils.Tuple receive(long timeoutMillis) throws IOException {
+    long deadline = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : Long.MAX_VALUE;
+    while (ready.isEmpty()) {
+      if (drain() == 0) {
+        long wait = deadline == Long.MAX_VALUE ? 0 : deadline - System.currentTimeMillis();
+        if (wait < 0 || (deadline != Long.MAX_VALUE && wait == 0)) {
+          return null;
+        }
+        try {
+          selector.select(wait);
+          selector.selectedKeys().clear();
+        } catch (ClosedSelectorException e) {
+          throw new ClosedChannelException(); // closed by another thread
+        }
+      }
+    }
+    return ready.poll();
+  }
+
+  public NetworkUtils.Tuple receive() throws IOException {
+    return receive(0);
+  }
+
+  // reads every datagram already queued on the socket, returns how many
+  private int drain() throws IOException {
+    int n = 0;
+    long now = System.currentTimeMillis();
+    while (true) {
+      in.clear();
+      InetSocketAddress from = (InetSocketAddress) channel.receive(in);
+      if (from == null) {
+        break;
+      }
+      in.flip();
+      NetworkUtils.Tuple done = reassembler.add(from, in, now);
+      if (done != null) {
+        ready.add(done);
+      }
+      n++;
+    }
+    if (n > 0) {
+      datagrams += n;
+      batches++;
+    }
+    if (now - lastExpiry > 1000) {
+      reassembler.expire(now, EXPIRY);
+      lastExpiry = now;
+    }
+    return n;
+  }
+
+  // average number of datagrams taken per wakeup
+  public double averageBatch() {
+    return batches == 0 ? 0 : (double) datagrams / batches;
+  }
+
+  @Override
+  public void close() throws IOException {
+    selector.close();
+    channel.close();
+  }
+}
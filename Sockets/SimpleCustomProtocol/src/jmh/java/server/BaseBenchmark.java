@@ -0,0 +1,89 @@
+package server;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Base operations on operands of <digits> digits, string in and string out
+ * as the server uses them, next to the same work done with BigInteger
+ * (parse in the base, compute, toString in the base). divide() divides a
+ * number of 2 * <digits> digits by one of <digits>.
+ *
+ * gradle jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BaseBenchmark {
+  @Param({ "10", "100", "1000", "10000" })
+  public int digits;
+
+  @Param({ "2", "10", "16", "36" })
+  public int base;
+
+  private final Base engine = new Base();
+  private String a;
+  private String b;
+  private String wide;
+
+  private static String number(Random rand, int digits, int base) {
+    char[] c = new char[digits];
+    for (int i = 0; i < digits; i++) {
+      c[i] = Character.toUpperCase(Character.forDigit((i == 0 ? 1 : 0) + rand.nextInt(base - (i == 0 ? 1 : 0)), base));
+    }
+    return new String(c);
+  }
+
+  @Setup
+  public void setup() {
+    Random rand = new Random(42);
+    a = number(rand, digits, base);
+    b = number(rand, digits, base);
+    wide = number(rand, 2 * digits, base);
+  }
+
+  @Benchmark
+  public String add() {
+    return engine.add(a, b, base);
+  }
+
+  @Benchmark
+  public String substract() {
+    return engine.substract(b, a, base);
+  }
+
+  @Benchmark
+  public String multiply() {
+    return engine.multiply(a, b, base);
+  }
+
+  @Benchmark
+  public String divide() {
+    return engine.divide(wide, b, base);
+  }
+
+  @Benchmark
+  public String addBigInteger() {
+    return new BigInteger(a, base).add(new BigInteger(b, base)).toString(base);
+  }
+
+  @Benchmark
+  public String multiplyBigInteger() {
+    return new BigInteger(a, base).multiply(new BigInteger(b, base)).toString(base);
+  }
+
+  @Benchmark
+  public String divideBigInteger() {
+    return new BigInteger(wide, base).divide(new BigInteger(b, base)).toString(base);
+  }
+}
@@ -0,0 +1,111 @@
+package server;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import client.BaseOperations;
+
+/*
+ * Operations per second against a SockBaseServer on a loopback port in this
+ * JVM, an ADD of two <digits> digit numbers in base 16 answered as a string:
+ *   oneShot    the SockBaseClient flow: a connection, an object stream each
+ *              way and the request as JSON, for every operation
+ *   session    BaseOperations, one framed request at a time on one connection
+ *   pipelined  BaseOperations with PIPELINE requests sent before the answers
+ *              are received
+ *
+ * gradle jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SessionBenchmark {
+  private static final int PIPELINE = 64;
+  private static final int BASE = 16;
+
+  @Param({ "10", "1000" })
+  public int digits;
+
+  private ServerSocket serv;
+  private BaseOperations session;
+  private String json;
+  private String a;
+  private String b;
+
+  private static String number(Random rand, int digits, int base) {
+    char[] c = new char[digits];
+    for (int i = 0; i < digits; i++) {
+      c[i] = Character.toUpperCase(Character.forDigit((i == 0 ? 1 : 0) + rand.nextInt(base - (i == 0 ? 1 : 0)), base));
+    }
+    return new String(c);
+  }
+
+  @Setup
+  public void setup() throws IOException {
+    SockBaseServer.verbose = false;
+    serv = new ServerSocket(0);
+    Thread server = new Thread(() -> SockBaseServer.serve(serv), "server");
+    server.setDaemon(true);
+    server.start();
+    session = new BaseOperations("localhost", serv.getLocalPort());
+
+    Random rand = new Random(42);
+    a = number(rand, digits, BASE);
+    b = number(rand, digits, BASE);
+    JSONObject header = new JSONObject().put("operation", "add").put("base", Integer.toString(BASE))
+        .put("response", "string");
+    json = new JSONObject().put("header", header)
+        .put("payload", new JSONObject().put("num1", a).put("num2", b)).toString();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    session.close();
+    serv.close();
+  }
+
+  @Benchmark
+  public String oneShot() throws Exception {
+    try (Socket sock = new Socket("localhost", serv.getLocalPort())) {
+      ObjectOutputStream out = new ObjectOutputStream(sock.getOutputStream());
+      out.writeObject(json);
+      ObjectInputStream in = new ObjectInputStream(sock.getInputStream());
+      return (String) in.readObject();
+    }
+  }
+
+  @Benchmark
+  public String session() throws IOException {
+    return session.add(a, b, BASE);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PIPELINE)
+  public String pipelined() throws IOException {
+    for (int i = 0; i < PIPELINE; i++) {
+      session.send(BaseOperations.Operation.ADD, BaseOperations.ResponseType.STRING, a, b, BASE);
+    }
+    String result = null;
+    for (int i = 0; i < PIPELINE; i++) {
+      result = session.receive();
+    }
+    return result;
+  }
+}
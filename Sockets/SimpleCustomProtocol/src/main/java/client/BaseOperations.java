@@ -1,4 +1,224 @@
 package client;
 
-class BaseOperations {
+import java.net.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.json.JSONException;
+
+/*
+ * A session with SockBaseServer: one connection for any number of
+ * operations, in the framed binary protocol described there, instead of a
+ * connection and two Java object streams per operation (SockBaseClient).
+ *
+ * add, sub, mul and div wait for their answer. send() and receive() let the
+ * client keep several operations in flight on the one connection; answers
+ * come back in the order the operations were sent. At most MAX_IN_FLIGHT
+ * bytes of requests wait for answers: past that send() first reads the
+ * answers that are due and keeps them for receive(), and a larger request
+ * waits for all of them. So the server never blocks on answers nobody reads
+ * while the client blocks on requests nobody reads, however many requests
+ * are sent before receive() and however long the numbers.
+ *
+ * An error from the server comes back as the exception Base threw for it
+ * (NumberFormatException, ArithmeticException, IllegalArgumentException)
+ * and the session goes on. Not thread safe, use one BaseOperations per
+ * thread.
+ */
+public class BaseOperations implements Closeable {
+    // the order is the operation byte of a request
+    public enum Operation { ADD, SUB, MUL, DIV }
+
+    // the order is the response byte of a request
+    public enum ResponseType { JSON, STRING }
+
+    private static final int BUFFER = 8 << 10;
+    private static final int MAX_IN_FLIGHT = 32 << 10; // request bytes sent and not answered, well below socket buffers
+    private static final int HEADER = 7; // operation, response, base and the length of num1
+    private static final int OK = 0;
+    private static final int INVALID_NUMBER = 1;
+    private static final int DIVISION_BY_ZERO = 2;
+
+    private final Socket sock;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private byte[] frame = new byte[256];
+    private final ArrayDeque<Integer> unanswered = new ArrayDeque<>(); // sizes of the requests sent, oldest first
+    private final ArrayDeque<byte[]> answers = new ArrayDeque<>(); // read by send(), not received yet
+    private int inFlight; // bytes in unanswered
+
+    public BaseOperations(String host, int port) throws IOException {
+        sock = new Socket(host, port);
+        sock.setTcpNoDelay(true); // we flush whole requests ourselves
+        in = new DataInputStream(new BufferedInputStream(sock.getInputStream(), BUFFER));
+        out = new DataOutputStream(new BufferedOutputStream(sock.getOutputStream(), BUFFER));
+    }
+
+    public String add(String num1, String num2, int base) throws IOException {
+        return call(Operation.ADD, ResponseType.STRING, num1, num2, base);
+    }
+
+    public String sub(String num1, String num2, int base) throws IOException {
+        return call(Operation.SUB, ResponseType.STRING, num1, num2, base);
+    }
+
+    public String mul(String num1, String num2, int base) throws IOException {
+        return call(Operation.MUL, ResponseType.STRING, num1, num2, base);
+    }
+
+    public String div(String num1, String num2, int base) throws IOException {
+        return call(Operation.DIV, ResponseType.STRING, num1, num2, base);
+    }
+
+    // one operation, waiting for its answer
+    public String call(Operation operation, ResponseType response, String num1, String num2, int base)
+            throws IOException {
+        send(operation, response, num1, num2, base);
+        return receive();
+    }
+
+    // queues a request; it goes out with the next flush() or receive(), or
+    // earlier once MAX_IN_FLIGHT bytes of requests are waiting for answers
+    public void send(Operation operation, ResponseType response, String num1, String num2, int base)
+            throws IOException {
+        if (base < 2 || base > 36) { // what the server would answer, the base has to fit its byte
+            throw new IllegalArgumentException("Base must be between 2 and 36!");
+        }
+        byte[] bytes1 = num1.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes2 = num2.getBytes(StandardCharsets.UTF_8);
+        int size = 4 + HEADER + bytes1.length + bytes2.length;
+        while (!unanswered.isEmpty() && inFlight + size > MAX_IN_FLIGHT) {
+            int length = read();
+            answers.add(Arrays.copyOf(frame, length));
+        }
+        out.writeInt(HEADER + bytes1.length + bytes2.length);
+        out.writeByte(operation.ordinal());
+        out.writeByte(response.ordinal());
+        out.writeByte(base);
+        out.writeInt(bytes1.length);
+        out.write(bytes1);
+        out.write(bytes2);
+        unanswered.add(size);
+        inFlight += size;
+    }
+
+    // answers already read, receive() returns them without waiting
+    public int ready() {
+        return answers.size();
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    // the answer to the oldest request without one, after sending what is queued
+    public String receive() throws IOException {
+        if (!answers.isEmpty()) {
+            byte[] answer = answers.poll();
+            return decode(answer, answer.length);
+        }
+        return decode(frame, read());
+    }
+
+    // reads the next answer into frame, returns its length
+    private int read() throws IOException {
+        if (unanswered.isEmpty()) {
+            throw new IllegalStateException("No request waiting for an answer");
+        }
+        out.flush();
+        int length = in.readInt();
+        if (length < 1) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        if (length > frame.length) {
+            frame = new byte[Math.max(length, 2 * frame.length)];
+        }
+        in.readFully(frame, 0, length);
+        inFlight -= unanswered.poll();
+        return length;
+    }
+
+    private static String decode(byte[] frame, int length) {
+        String text = new String(frame, 1, length - 1, StandardCharsets.UTF_8);
+        switch (frame[0]) {
+        case OK:
+            return text;
+        case INVALID_NUMBER:
+            throw new NumberFormatException(text);
+        case DIVISION_BY_ZERO:
+            throw new ArithmeticException(text);
+        default:
+            throw new IllegalArgumentException(text);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        sock.close();
+    }
+
+    public static void main (String args[]) throws Exception {
+        int port = 9099; // default port
+        int count = 1;
+
+        if (args.length != 3 && args.length != 4) {
+            System.out.println("Expected arguments: <host(String)> <port(int)> <data(json file)> [count(int)]");
+            System.exit(1);
+        }
+        String host = args[0];
+        try {
+            port = Integer.parseInt(args[1]);
+            if (args.length == 4) {
+                count = Integer.parseInt(args[3]);
+            }
+        } catch (NumberFormatException nfe) {
+            System.out.println("[Port|count] must be integer");
+            System.exit(2);
+        }
+        JSONObject data = readJson(args[2]);
+        System.out.println(data);
+        JSONObject header = data.getJSONObject("header");
+        JSONObject payload = data.getJSONObject("payload");
+        Operation operation = Operation.valueOf(header.getString("operation").toUpperCase());
+        ResponseType response = ResponseType.valueOf(header.getString("response").toUpperCase());
+        int base = Integer.parseInt(header.getString("base"));
+        String num1 = payload.getString("num1");
+        String num2 = payload.getString("num2");
+
+        // the same operation count times on one connection, the requests sent without waiting for the answers
+        try (BaseOperations session = new BaseOperations(host, port)) {
+            long start = System.nanoTime();
+            String result = null;
+            int received = 0;
+            for (int sent = 0; sent < count; sent++) {
+                session.send(operation, response, num1, num2, base);
+                for (; session.ready() > 0; received++) { // what send() had to read to keep going
+                    result = session.receive();
+                }
+            }
+            for (; received < count; received++) {
+                result = session.receive();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println("Requested response type: " + response);
+            System.out.println("Result is " + result);
+            if (count > 1) {
+                System.out.printf("%d operations in %.3f s, %.0f operations/s%n", count, seconds, count / seconds);
+            }
+        }
+    }
+
+    private static JSONObject readJson(String filename) throws IOException, JSONException {
+      // read json from build directory, so the getResource is needed
+      File file = new File(
+        BaseOperations.class.getResource("/"+filename).getFile()
+      );
+      try (Reader reader = new FileReader(file)) {
+        return new JSONObject(new JSONTokener(reader));
+      }
+    }
 }
@@ -2,6 +2,10 @@ package server;
 
 import java.net.*;
 import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import java.util.Map;
 import org.json.JSONObject;
@@ -9,14 +13,46 @@ import org.json.JSONTokener;
 
 import server.Base;
 
+/*
+ * Every connection is handled on its own thread (virtual threads on Java 21
+ * and later, a cached thread pool before that), so clients no longer wait
+ * for each other. What a connection speaks is told by its first two bytes:
+ *
+ * One-shot (SockBaseClient): a Java serialization stream with one String of
+ * JSON, answered with one String, then the connection is closed.
+ *
+ * Session (client.BaseOperations): framed binary requests, as many as the
+ * client likes, each answered with one framed response in the same order
+ * until the client closes the connection. The client may send the next
+ * requests without waiting for the answers; answers that are ready while
+ * more requests are waiting go out together. All numbers are big endian.
+ *   request   int length of the rest, byte operation (0 add, 1 sub, 2 mul,
+ *             3 div), byte response (0 json, 1 string), byte base,
+ *             int length of num1, num1, num2 (digits in UTF-8)
+ *   response  int length of the rest, byte status (see OK and the error
+ *             codes below), the result as asked for or the error message
+ *             (UTF-8)
+ * A frame length never starts with the serialization magic 0xACED, so the
+ * two cannot be mistaken for each other.
+ */
 class SockBaseServer {
+    static final byte OK = 0;
+    static final byte INVALID_NUMBER = 1;
+    static final byte DIVISION_BY_ZERO = 2;
+    static final byte INVALID_REQUEST = 3; // unknown operation, response type or base, or a malformed frame
+
+    private static final int BUFFER = 8 << 10;
+    private static final int MAX_FRAME = 1 << 20;
+    private static final int HEADER = 7; // operation, response, base and the length of num1
+    private static final Base BASE = new Base(); // no state, shared by all threads
+    private static final Operations[] OPERATIONS = Operations.values();
+    private static final Response[] RESPONSES = Response.values();
+
+    static volatile boolean verbose = true; // print every one-shot operation and every session
+
     public static void main (String args[]) throws Exception {
 
-        int count = 0;
         ServerSocket    serv = null;
-        ObjectInputStream in = null;
-        ObjectOutputStream out = null;
-        Socket clientSocket = null;
         int port = 9099; // default port
         int sleepDelay = 10000; // default delay
         if (args.length != 2) {
@@ -25,7 +61,7 @@ class SockBaseServer {
 		    }
         System.out.println("Running on port: " + args[0]);
         System.out.println("Sleep delay is :" + args[1] + " miliseconds");
-        
+
         try {
           port = Integer.parseInt(args[0]);
           sleepDelay = Integer.parseInt(args[1]);
@@ -39,59 +75,168 @@ class SockBaseServer {
           e.printStackTrace();
           System.exit(2);
         }
+        System.out.println("Ready...");
+        serve(serv);
+    }
+
+    // accepts connections until serv is closed
+    static void serve(ServerSocket serv) {
+        ExecutorService connections = newExecutor();
         while (serv.isBound() && !serv.isClosed()) {
-            System.out.println("Ready...");
             try {
-                clientSocket = serv.accept();
-                in = new ObjectInputStream(clientSocket.getInputStream());
-                out = new ObjectOutputStream(clientSocket.getOutputStream());
-                String jsonData = (String) in.readObject();
-
-                // convert json string to a JSON object
-                JSONTokener jsonTokener = new JSONTokener(jsonData);
-                JSONObject data = new JSONObject(jsonTokener);
-                
-                // get the 'header' and the 'payload'
-                JSONObject headerJSON = (JSONObject)data.get("header");
-                JSONObject payloadJSON = (JSONObject)data.get("payload");
-
-                Map header = headerJSON.toMap();
-                Map payload = payloadJSON.toMap();
-                
-                Operations operation = getOperation(header);
-                Response response = getResponse(header);
-                int baseN = getBase(header, "base");
-
-                String num1 = getNum(payload, "num1");
-                String num2 = getNum(payload, "num2");
-
-                Base base = new Base();
-
-                // String type result by default
-                String result = null;
-
-                if (operation == Operations.ADD) {
-                  result = base.add(num1, num2, baseN);
-		  System.out.println("base " + baseN + ": " + num1 + " + " + num2 + " = " + result);
-                } else if (operation == Operations.SUB) {
-                  result = base.substract(num1, num2, baseN);
-		  System.out.println("base " + baseN + ": " + num1 + " - " + num2 + " = " + result);
+                Socket clientSocket = serv.accept();
+                connections.execute(() -> connection(clientSocket));
+            } catch (Exception ex) {
+                if (!serv.isClosed()) {
+                    ex.printStackTrace();
                 }
+            }
+        }
+        connections.shutdown();
+    }
+
+    // virtual threads where available (Java 21+), a cached thread pool otherwise
+    private static ExecutorService newExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private static void connection(Socket clientSocket) {
+        try (Socket sock = clientSocket) {
+            BufferedInputStream in = new BufferedInputStream(sock.getInputStream(), BUFFER);
+            in.mark(2);
+            int magic = in.read() << 8 | in.read();
+            in.reset();
+            if ((short) magic == ObjectStreamConstants.STREAM_MAGIC) {
+                oneShot(in, sock.getOutputStream());
+            } else {
+                session(sock, in);
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    // the original protocol: one JSON request as a serialized String, one answer
+    private static void oneShot(InputStream input, OutputStream output) throws Exception {
+        ObjectInputStream in = new ObjectInputStream(input);
+        ObjectOutputStream out = new ObjectOutputStream(output);
+        String jsonData = (String) in.readObject();
+
+        // convert json string to a JSON object
+        JSONTokener jsonTokener = new JSONTokener(jsonData);
+        JSONObject data = new JSONObject(jsonTokener);
+
+        // get the 'header' and the 'payload'
+        JSONObject headerJSON = (JSONObject)data.get("header");
+        JSONObject payloadJSON = (JSONObject)data.get("payload");
+
+        Map header = headerJSON.toMap();
+        Map payload = payloadJSON.toMap();
+
+        Operations operation = getOperation(header);
+        Response response = getResponse(header);
+        int baseN = getBase(header, "base");
 
-                if (response == Response.JSON){
-                  //just building a JSON strinng
-                  result = "{'result':" + result + "}";
+        String num1 = getNum(payload, "num1");
+        String num2 = getNum(payload, "num2");
+
+        String result = evaluate(operation, num1, num2, baseN);
+        if (verbose) {
+          System.out.println("base " + baseN + ": " + num1 + " " + operation.symbol + " " + num2 + " = " + result);
+        }
+        out.writeObject(format(response, result));
+        out.flush();
+    }
+
+    // answers the framed requests of one connection until the client closes it
+    private static void session(Socket sock, InputStream input) throws IOException {
+        int count = 0;
+        SocketAddress client = sock.getRemoteSocketAddress();
+        sock.setTcpNoDelay(true); // small answers, we flush them ourselves
+        DataInputStream in = new DataInputStream(input);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(sock.getOutputStream(), BUFFER));
+        byte[] frame = new byte[256];
+        try {
+            int first;
+            while ((first = in.read()) >= 0) {
+                int length = first << 24 | in.readUnsignedByte() << 16 | in.readUnsignedShort();
+                if (length < HEADER || length > MAX_FRAME) {
+                    throw new IOException("Invalid frame length " + length);
                 }
+                if (length > frame.length) {
+                    frame = new byte[Math.max(length, 2 * frame.length)];
+                }
+                in.readFully(frame, 0, length);
+                answer(frame, length, out);
+                count++;
+                if (in.available() == 0) {
+                    out.flush(); // nothing else waiting, send what we have
+                }
+            }
+            out.flush();
+        } catch (IOException ex) {
+            System.out.println("Session with " + client + " failed: " + ex.getMessage());
+        }
+        if (verbose) {
+            System.out.println("Client " + client + " done after " + count + " operations");
+        }
+    }
 
-                out.writeObject(result);
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            } finally {
-                if (out != null)  out.close();
-                if (in != null)   in.close();
-                if (clientSocket != null) clientSocket.close();
+    // evaluates one request frame and writes the response frame
+    private static void answer(byte[] frame, int length, DataOutputStream out) throws IOException {
+        byte status = OK;
+        String text;
+        try {
+            if (frame[0] < 0 || frame[0] >= OPERATIONS.length) {
+                throw new IllegalArgumentException("Operation not found!");
+            }
+            if (frame[1] < 0 || frame[1] >= RESPONSES.length) {
+                throw new IllegalArgumentException("Response type not found!");
             }
+            int length1 = (frame[3] & 0xFF) << 24 | (frame[4] & 0xFF) << 16 | (frame[5] & 0xFF) << 8 | (frame[6] & 0xFF);
+            if (length1 < 0 || length1 > length - HEADER) {
+                throw new IllegalArgumentException("Invalid length of num1: " + length1);
+            }
+            String num1 = new String(frame, HEADER, length1, StandardCharsets.UTF_8);
+            String num2 = new String(frame, HEADER + length1, length - HEADER - length1, StandardCharsets.UTF_8);
+            text = format(RESPONSES[frame[1]], evaluate(OPERATIONS[frame[0]], num1, num2, frame[2] & 0xFF));
+        } catch (RuntimeException ex) {
+            // NumberFormatException is an IllegalArgumentException, so it goes first
+            status = ex instanceof NumberFormatException ? INVALID_NUMBER
+                : ex instanceof ArithmeticException ? DIVISION_BY_ZERO
+                : INVALID_REQUEST;
+            text = String.valueOf(ex.getMessage());
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(1 + bytes.length);
+        out.writeByte(status);
+        out.write(bytes);
+    }
+
+    static String evaluate(Operations operation, String num1, String num2, int baseN) {
+        switch (operation) {
+        case ADD:
+            return BASE.add(num1, num2, baseN);
+        case SUB:
+            return BASE.substract(num1, num2, baseN);
+        case MUL:
+            return BASE.multiply(num1, num2, baseN);
+        default:
+            return BASE.divide(num1, num2, baseN);
+        }
+    }
+
+    private static String format(Response response, String result) {
+        if (response == Response.JSON){
+          //just building a JSON strinng
+          return "{'result':" + result + "}";
         }
+        return result;
     }
 
     private static int getBase(Map header, String key) {
@@ -105,6 +250,10 @@ class SockBaseServer {
         return Operations.ADD;
       } else if (operation.equals("sub")) {
         return Operations.SUB;
+      } else if (operation.equals("mul")) {
+        return Operations.MUL;
+      } else if (operation.equals("div")) {
+        return Operations.DIV;
       } else {
         throw new java.lang.RuntimeException("Operation not found!");
       }
@@ -128,10 +277,20 @@ class SockBaseServer {
     }
 }
 
+// the order is the operation byte of a session request
 enum Operations {
-  ADD,
-  SUB
+  ADD("+"),
+  SUB("-"),
+  MUL("*"),
+  DIV("/");
+
+  final String symbol;
+
+  Operations(String symbol) {
+    this.symbol = symbol;
+  }
 }
+// the order is the response byte of a session request
 enum Response {
   JSON,
   STRING